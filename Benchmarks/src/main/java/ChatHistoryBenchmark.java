@@ -0,0 +1,69 @@
+package Benchmarks.src.main.java;
+
+import Projects.Project1_ChatRoom.src.main.java.ChatHistory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The history dump handed to joining chat clients, alone and while messages are published.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatHistoryBenchmark {
+    private final String message = "[user]: " + "x".repeat(60);
+    private ChatHistory history;
+
+    @Setup
+    public void setUp() {
+        history = new ChatHistory(10, "Recent Chat History:\n");
+        for (int i = 0; i < 10; i++) {
+            history.append("[user" + i + "]: " + "x".repeat(60));
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] snapshot() {
+        return history.snapshotFrame();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] snapshotContended() {
+        return history.snapshotFrame();
+    }
+
+    // One thread publishes messages while the others join, as in a join storm during a conversation.
+
+    @Benchmark
+    @Group("snapshotWhilePublishing")
+    @GroupThreads(1)
+    public long publish() {
+        history.append(message);
+        return history.version();
+    }
+
+    @Benchmark
+    @Group("snapshotWhilePublishing")
+    @GroupThreads(3)
+    public byte[] join() {
+        return history.snapshotFrame();
+    }
+}
@@ -0,0 +1,81 @@
+package Benchmarks.src.main.java;
+
+import Projects.Project1_ChatRoom.src.main.java.ChatSearchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexing chat messages for {@code /search}, and searching {@value #MESSAGES} messages by word
+ * and by sender.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatSearchBenchmark {
+    /**
+     * Number of messages in the searched index.
+     */
+    static final int MESSAGES = 100_000;
+    private static final String[] WORDS = {"deploy", "build", "lunch", "review", "merge", "coffee", "release", "meeting",
+            "bug", "test", "ship", "today", "tomorrow", "later", "please", "thanks"};
+
+    private ChatSearchIndex index;
+    /**
+     * Index receiving new messages, evicting its oldest blocks as a room's index does.
+     */
+    private ChatSearchIndex growing;
+    private long offset;
+
+    @Setup
+    public void setUp() {
+        index = new ChatSearchIndex(Long.MAX_VALUE);
+        for (int i = 0; i < MESSAGES; i++) {
+            index.add(i, message(i));
+        }
+        growing = new ChatSearchIndex(4L * 1024 * 1024);
+        offset = MESSAGES;
+    }
+
+    @Benchmark
+    public long add() {
+        long next = offset++;
+        growing.add(next, message(next));
+        return growing.bytes();
+    }
+
+    @Benchmark
+    public ChatSearchIndex.Result word() {
+        return index.search("release", 20);
+    }
+
+    @Benchmark
+    public ChatSearchIndex.Result words() {
+        return index.search("deploy release today", 20);
+    }
+
+    @Benchmark
+    public ChatSearchIndex.Result sender() {
+        return index.search("@user7 merge", 20);
+    }
+
+    /**
+     * A chat message of one of 100 senders, with a few words picked from a small vocabulary.
+     */
+    private static String message(long i) {
+        return "[user" + i % 100 + "]: " + WORDS[(int) (i % WORDS.length)] + " the " + WORDS[(int) (i / 7 % WORDS.length)]
+                + " " + WORDS[(int) (i / 31 % WORDS.length)] + " message " + i;
+    }
+}
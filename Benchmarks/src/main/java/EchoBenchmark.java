@@ -0,0 +1,125 @@
+package Benchmarks.src.main.java;
+
+import Common.src.main.java.FrameReader;
+import Common.src.main.java.FrameWriter;
+import Problems.Problem1_EchoServer.src.main.java.NioEchoServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stop-and-wait round trips of one frame over loopback.
+ * <p>
+ * By default the round trips go to a {@link NioEchoServer} started in the benchmark's JVM on a
+ * free port; {@code -p port=5555} measures an already running server instead.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EchoBenchmark {
+
+    /**
+     * The echo server, shared by all threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Server {
+        /**
+         * Port of a running echo server, or 0 to start one in process.
+         */
+        @Param("0")
+        public int port;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException, InterruptedException {
+            if (port != 0) {
+                return;
+            }
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            int serverPort = port;
+            // The event loops inherit the daemon flag, so the server does not keep the fork alive.
+            Thread server = new Thread(() -> new NioEchoServer(serverPort, 2).run(), "bench-echo-server");
+            server.setDaemon(true);
+            server.start();
+            waitForPort(port);
+        }
+
+        /**
+         * Waits until the server accepts connections.
+         */
+        private static void waitForPort(int port) throws InterruptedException {
+            for (int attempt = 0; attempt < 100; attempt++) {
+                try {
+                    new Socket("localhost", port).close();
+                    return;
+                } catch (IOException e) {
+                    Thread.sleep(50);
+                }
+            }
+            throw new IllegalStateException("Echo server did not start on port " + port);
+        }
+    }
+
+    /**
+     * One client connection per benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+        private final byte[] payload = new byte[FramingBenchmark.MESSAGE_SIZE];
+        private Socket socket;
+        private FrameWriter out;
+        private FrameReader in;
+
+        @Setup(Level.Trial)
+        public void connect(Server server) throws IOException {
+            Arrays.fill(payload, (byte) 'x');
+            socket = new Socket("localhost", server.port);
+            socket.setTcpNoDelay(true);
+            out = new FrameWriter(socket.getOutputStream());
+            in = new FrameReader(socket.getInputStream(), payload.length);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        int roundTrip() throws IOException {
+            out.writeFrame(payload, 0, payload.length);
+            return in.readFrame();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int roundTrip(Connection connection) throws IOException {
+        return connection.roundTrip();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int roundTripConcurrent(Connection connection) throws IOException {
+        return connection.roundTrip();
+    }
+}
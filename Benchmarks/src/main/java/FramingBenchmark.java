@@ -0,0 +1,137 @@
+package Benchmarks.src.main.java;
+
+import Common.src.main.java.FrameReader;
+import Common.src.main.java.FrameWriter;
+import Projects.Project2_SharedResources.src.main.java.NetworkUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of one frame through {@link NetworkUtils} and the reusable codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramingBenchmark {
+    /**
+     * Size of the message encoded and decoded.
+     */
+    static final int MESSAGE_SIZE = 128;
+    /**
+     * Frames in the run read by {@link #readFrame()} before it is rewound.
+     */
+    private static final int FRAMES = 1024;
+
+    private final String message = "x".repeat(MESSAGE_SIZE);
+    private final byte[] payload = new byte[MESSAGE_SIZE];
+    private final ResettableOutputStream sink = new ResettableOutputStream();
+    private final DataOutputStream dataOut = new DataOutputStream(sink);
+    private final FrameWriter frameWriter = new FrameWriter(sink);
+    private ByteArrayInputStream source;
+    private DataInputStream dataIn;
+    /**
+     * A long run of frames, so the reader's buffering is exercised.
+     */
+    private byte[] frames;
+    private FrameReader frameReader;
+    private int remaining;
+
+    @Setup
+    public void setUp() throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        NetworkUtils.sendMessage(new DataOutputStream(encoded), message);
+        byte[] frame = encoded.toByteArray();
+        source = new ByteArrayInputStream(frame);
+        dataIn = new DataInputStream(source);
+
+        frames = new byte[frame.length * FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            System.arraycopy(frame, 0, frames, i * frame.length, frame.length);
+        }
+    }
+
+    @Benchmark
+    public int sendMessage() throws IOException {
+        sink.reset();
+        NetworkUtils.sendMessage(dataOut, message);
+        return sink.size();
+    }
+
+    @Benchmark
+    public String readMessage() throws IOException {
+        source.reset();
+        return NetworkUtils.readMessage(dataIn);
+    }
+
+    @Benchmark
+    public int writeFrame() throws IOException {
+        sink.reset();
+        frameWriter.writeFrame(payload, 0, payload.length);
+        return sink.size();
+    }
+
+    @Benchmark
+    public int readFrame() throws IOException {
+        if (remaining == 0) {
+            frameReader = new FrameReader(new ByteArrayInputStream(frames), MESSAGE_SIZE);
+            remaining = FRAMES;
+        }
+        remaining--;
+        return frameReader.readFrame();
+    }
+
+    /**
+     * An in-memory output stream that can be rewound without reallocating its buffer.
+     */
+    private static final class ResettableOutputStream extends OutputStream {
+        private byte[] buffer = new byte[1024];
+        private int size;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(size + 1);
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            ensureCapacity(size + length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+            }
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
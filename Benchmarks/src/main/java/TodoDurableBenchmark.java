@@ -0,0 +1,88 @@
+package Benchmarks.src.main.java;
+
+import Projects.Project2_SharedResources.src.main.java.TodoJournal;
+import Projects.Project2_SharedResources.src.main.java.TodoPersistence;
+import Projects.Project2_SharedResources.src.main.java.TodoStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Durable todo adds through the journal of a store in a temporary directory: concurrent clients
+ * share journal flushes through group commit, and a batch takes one lock acquisition and one
+ * flush.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TodoDurableBenchmark {
+    /**
+     * Number of todos per batch in {@link #batchAdd()}.
+     */
+    static final int BATCH_SIZE = 100;
+
+    private final AtomicLong counter = new AtomicLong();
+    private Path directory;
+    private TodoPersistence persistence;
+    private TodoStore store;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("todo-bench");
+        persistence = TodoPersistence.open(directory);
+        store = persistence.store();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        persistence.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long add() throws TodoJournal.JournalException {
+        return store.add("Todo " + counter.incrementAndGet());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long addConcurrent() throws TodoJournal.JournalException {
+        return store.add("Todo " + counter.incrementAndGet());
+    }
+
+    @Benchmark
+    public long[] batchAdd() throws TodoJournal.JournalException {
+        List<TodoStore.Mutation> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(TodoStore.Mutation.add("Todo " + counter.incrementAndGet()));
+        }
+        return store.apply(batch);
+    }
+}
@@ -0,0 +1,123 @@
+package Benchmarks.src.main.java;
+
+import Projects.Project2_SharedResources.src.main.java.TodoJournal;
+import Projects.Project2_SharedResources.src.main.java.TodoStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a store of {@value #TODOS} todos: the listing the way {@code ResourceServer} sends it
+ * for "print all todos", a walk over the store's pages of {@value #LISTING_PAGE_SIZE}, single
+ * pages, and the delta a poller receives instead when only a few todos changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TodoListingBenchmark {
+    /**
+     * Number of todos in the store.
+     */
+    static final int TODOS = 10_000;
+    /**
+     * Todos per page of the listing walk, as in {@code ResourceServer}'s menu listing.
+     */
+    private static final int LISTING_PAGE_SIZE = 256;
+
+    private TodoStore store;
+    private long version;
+
+    @Setup
+    public void setUp() throws TodoJournal.JournalException {
+        store = new TodoStore();
+        for (int i = 0; i < TODOS; i++) {
+            store.add("Todo number " + i);
+        }
+        version = store.changesSince(0).version();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long listing() {
+        return walkListing();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long listingContended() {
+        return walkListing();
+    }
+
+    // One thread keeps adding and deleting a todo while the others walk the listing.
+
+    @Benchmark
+    @Group("listingWhileMutating")
+    @GroupThreads(1)
+    public String churn() throws TodoJournal.JournalException {
+        return store.delete(store.add("Churn"));
+    }
+
+    @Benchmark
+    @Group("listingWhileMutating")
+    @GroupThreads(3)
+    public long walk() {
+        return walkListing();
+    }
+
+    /**
+     * The first page of 100 todos, instead of the whole listing.
+     */
+    @Benchmark
+    public TodoStore.Page page() {
+        return store.page(0, "", 100);
+    }
+
+    /**
+     * The first page of 100 todos starting with a prefix.
+     */
+    @Benchmark
+    public TodoStore.Page pagePrefix() {
+        return store.page(0, "Todo number 9", 100);
+    }
+
+    /**
+     * The last 10 changes.
+     */
+    @Benchmark
+    public List<TodoStore.Change> changesSince() {
+        return store.changesSince(version - 10).changes();
+    }
+
+    /**
+     * Reads every page of the store, as the menu listing does.
+     *
+     * @return the number of todos read.
+     */
+    private long walkListing() {
+        long todos = 0;
+        long cursor = 0;
+        TodoStore.Page page;
+        do {
+            page = store.page(cursor, "", LISTING_PAGE_SIZE);
+            todos += page.ids().length;
+            cursor = page.cursor();
+        } while (page.more());
+        return todos;
+    }
+}
@@ -0,0 +1,225 @@
+package Common.src.main.java;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+
+/**
+ * The accept loops of a blocking server, each with its own group of connection handlers.
+ * <p>
+ * A single thread calling {@code accept} is enough at steady state, but after a deploy or an
+ * outage every client reconnects at once, and one accept loop then serializes the whole storm:
+ * each accepted socket is configured, admitted and submitted before the next is taken from the
+ * backlog. The group runs several accept loops instead, set with {@code -Dacceptors=<count>} or
+ * {@code -Dacceptors=cores} for one per available processor; the default is a single loop, as
+ * before.
+ * </p>
+ * <p>
+ * With several loops, each opens its own listening socket on the port with {@code SO_REUSEPORT},
+ * where the platform supports it (Linux 3.9 and later). The kernel then spreads incoming
+ * connections across the sockets, so the loops never contend on one accept queue. Elsewhere the
+ * loops share a single listening socket, which still lets them configure and hand off sockets in
+ * parallel. Either way, every loop hands its sockets to its own executor from
+ * {@link ConnectionExecutors}, with an equal share of the pool size and queue capacity, so the
+ * handler pools do not contend either. All loops share the server's {@link AdmissionController},
+ * which keeps the connection limit global.
+ * </p>
+ * <p>
+ * Example: {@code java -Dacceptors=cores ...ChatRoomServer}
+ * </p>
+ */
+public class AcceptorGroup implements Closeable {
+    /**
+     * Name of the system property selecting the number of accept loops.
+     */
+    public static final String COUNT_PROPERTY = "acceptors";
+
+    private final String name;
+    private final List<ServerSocketChannel> channels = new ArrayList<>();
+    private final List<Acceptor> acceptors = new ArrayList<>();
+    private final AdmissionController admission;
+    private final int socketTimeout;
+    private final Consumer<Socket> handler;
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+    /**
+     * Binds the listening sockets and creates the executors; no connection is accepted before {@link #run()}.
+     *
+     * @param name            names the metrics and threads, e.g. {@code chat}.
+     * @param port            the port to listen on.
+     * @param maximumPoolSize maximum number of handler threads in {@link ConnectionExecutors.Mode#POOL} mode, shared out among the loops.
+     * @param queueCapacity   capacity of the work queues, shared out among the loops.
+     * @param admission       decides which connections are handled.
+     * @param socketTimeout   read timeout of accepted sockets in milliseconds, 0 for none.
+     * @param handler         handles one connection and closes its socket.
+     * @throws IOException if the port cannot be bound.
+     */
+    public AcceptorGroup(String name, int port, int maximumPoolSize, int queueCapacity,
+                         AdmissionController admission, int socketTimeout, Consumer<Socket> handler) throws IOException {
+        this.name = name;
+        this.admission = admission;
+        this.socketTimeout = socketTimeout;
+        this.handler = handler;
+
+        int count = selectedCount();
+        boolean reusePort = count > 1 && supportsReusePort();
+        try {
+            for (int i = 0; i < (reusePort ? count : 1); i++) {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                channels.add(channel);
+                if (reusePort) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                channel.bind(new InetSocketAddress(port));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        for (int i = 0; i < count; i++) {
+            ExecutorService executor = ConnectionExecutors.create(
+                    Math.max(1, divideRoundingUp(maximumPoolSize, count)),
+                    Math.max(1, divideRoundingUp(queueCapacity, count)));
+            String suffix = count == 1 ? "" : String.valueOf(i);
+            Metrics.executorGauges(name + ".executor" + suffix, executor);
+            ConnectionExecutors.shutdownOnExit(executor);
+            acceptors.add(new Acceptor(channels.get(reusePort ? i : 0), executor,
+                    count == 1 ? null : Metrics.counter(name + ".acceptor" + i + ".accepted")));
+        }
+        if (count > 1) {
+            System.out.println(count + " accept loops on " + (reusePort
+                    ? count + " listening sockets with SO_REUSEPORT"
+                    : "one shared listening socket (SO_REUSEPORT is not supported here)"));
+        }
+    }
+
+    /**
+     * @return the number of accept loops selected with {@code -Dacceptors}, at least 1.
+     * @throws IllegalArgumentException if the property is neither a number nor {@code cores}.
+     */
+    public static int selectedCount() {
+        String value = System.getProperty(COUNT_PROPERTY, "1").trim().toLowerCase(Locale.ROOT);
+        int count = value.equals("cores") ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(value);
+        return Math.max(1, count);
+    }
+
+    /**
+     * @return true if listening sockets can share a port with {@code SO_REUSEPORT} on this platform.
+     */
+    public static boolean supportsReusePort() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the address the group listens on.
+     * @throws IOException if the address cannot be read.
+     */
+    public SocketAddress localAddress() throws IOException {
+        return channels.get(0).getLocalAddress();
+    }
+
+    /**
+     * Runs the accept loops until one of them fails, the first on the calling thread.
+     *
+     * @throws IOException the failure that ended the loops.
+     */
+    public void run() throws IOException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i < acceptors.size(); i++) {
+            Thread thread = new Thread(acceptors.get(i), name + "-acceptor-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        acceptors.get(0).run();
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        IOException cause = failure.get();
+        if (cause != null) {
+            throw cause;
+        }
+    }
+
+    /**
+     * Closes the listening sockets, which ends the accept loops; connections already accepted go on.
+     */
+    @Override
+    public void close() {
+        for (ServerSocketChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Could not close a listening socket: " + e.getMessage());
+            }
+        }
+    }
+
+    private static int divideRoundingUp(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    /**
+     * One accept loop and the executor handling its connections.
+     */
+    private final class Acceptor implements Runnable {
+        private final ServerSocketChannel channel;
+        private final ExecutorService executor;
+        /**
+         * Connections accepted by this loop, or null with a single loop.
+         */
+        private final LongAdder accepted;
+
+        Acceptor(ServerSocketChannel channel, ExecutorService executor, LongAdder accepted) {
+            this.channel = channel;
+            this.executor = executor;
+            this.accepted = accepted;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    admission.awaitCapacity(); // Pause while every connection slot is taken
+                    Socket clientSocket = channel.accept().socket(); // Wait and accept a connection
+                    if (accepted != null) {
+                        accepted.increment();
+                    }
+                    if (socketTimeout > 0) {
+                        clientSocket.setSoTimeout(socketTimeout);
+                    }
+                    admission.dispatch(clientSocket, executor, handler); // Handle or turn away
+                }
+            } catch (ClosedChannelException e) {
+                // Another loop failed or the group was closed.
+            } catch (IOException e) {
+                // The first failure ends every loop and is reported by run().
+                if (failure.compareAndSet(null, e)) {
+                    close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package Common.src.main.java;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+
+/**
+ * Decides which connections a blocking server accepts, and how fast it reads from them.
+ * <p>
+ * Handing every accepted socket straight to the connection executor lets a flood of clients
+ * fill the executor's queue, after which {@code execute} throws and ends the accept loop. The
+ * controller sits between the accept loop and the executor instead:
+ * </p>
+ * <ul>
+ *     <li>At most {@code limit} connections are handled at once. While the server is at its
+ *     limit, {@link #awaitCapacity()} pauses the accept loop, so new clients wait in the kernel's
+ *     accept backlog for a connection to close rather than in the executor's queue.</li>
+ *     <li>A client still left over after the pause, or one the executor refuses, is sent a single
+ *     "server busy" frame and closed at once, so it can retry later instead of hanging.</li>
+ *     <li>Each connection may get a {@link TokenBucket} limiting how many frames per second the
+ *     server reads from it; a faster client is slowed down by TCP flow control.</li>
+ *     <li>The limit adapts to the handlers' latency: it shrinks by 10% while the latency of a
+ *     window is well above the lowest latency seen, and grows by one connection per window while
+ *     the latency is normal and the limit is nearly used up. It never exceeds the configured
+ *     maximum and never drops below a tenth of it.</li>
+ * </ul>
+ * <p>
+ * Settings are read from system properties, each overriding the server's default:
+ * </p>
+ * <ul>
+ *     <li>{@code admission.maxConnections} - the maximum number of concurrent connections.</li>
+ *     <li>{@code admission.rate} - frames per second read from each client, 0 for no limit.</li>
+ *     <li>{@code admission.burst} - frames a client may send back to back, defaults to the rate.</li>
+ *     <li>{@code admission.adaptive} - {@code false} keeps the limit at the maximum.</li>
+ * </ul>
+ * <p>
+ * Example: {@code java -Dadmission.maxConnections=200 -Dadmission.rate=20 ...ChatRoomServer}
+ * </p>
+ */
+public class AdmissionController {
+    public static final String MAX_CONNECTIONS_PROPERTY = "admission.maxConnections";
+    public static final String RATE_PROPERTY = "admission.rate";
+    public static final String BURST_PROPERTY = "admission.burst";
+    public static final String ADAPTIVE_PROPERTY = "admission.adaptive";
+
+    /**
+     * Default maximum number of connections when handlers run on virtual threads.
+     */
+    public static final int VIRTUAL_MAX_CONNECTIONS = 10_000;
+    /**
+     * The frame sent to clients that are turned away.
+     */
+    private static final byte[] BUSY_FRAME = FrameCodec.encode("Server busy, try again later.");
+    /**
+     * How long the accept loop waits for a free slot before turning the next client away.
+     */
+    private static final long ACCEPT_PAUSE_MILLIS = 1000;
+    /**
+     * Length of the window over which handler latency is averaged before adjusting the limit.
+     */
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /**
+     * Samples a window needs before it counts; a quiet server keeps its window open until then, so
+     * a few slow operations cannot cut the limit.
+     */
+    private static final long MIN_WINDOW_SAMPLES = 64;
+    /**
+     * The limit shrinks when a window's average latency exceeds the baseline by this factor.
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    private final int maxConnections;
+    private final int minLimit;
+    private final double rate;
+    private final double burst;
+    private final boolean adaptive;
+
+    private volatile int limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Parks the accept loops while the server is at its limit.
+     */
+    private final ReentrantLock capacityLock = new ReentrantLock();
+    private final Condition capacityAvailable = capacityLock.newCondition();
+    /**
+     * Number of accept loops parked; only changed while holding the lock.
+     */
+    private volatile int acceptorsWaiting;
+
+    // Latency window; adjusted by whichever handler closes it.
+    private final LongAdder windowLatency = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final AtomicBoolean adjusting = new AtomicBoolean();
+    private volatile long windowEnd = System.nanoTime() + WINDOW_NANOS;
+    /**
+     * Lowest window average seen, drifting slowly upwards so that it follows a changed workload.
+     */
+    private double baselineLatency = Double.MAX_VALUE;
+
+    private final LongAdder rejected;
+    private final LongAdder throttled;
+
+    /**
+     * Creates a controller with the given defaults, overridden by the {@code admission.*} properties.
+     *
+     * @param name           names the {@code admission.<name>.*} metrics.
+     * @param maxConnections default maximum number of concurrent connections.
+     * @param rate           default frames per second read from each client, 0 for no limit.
+     */
+    public AdmissionController(String name, int maxConnections, double rate) {
+        this.maxConnections = Math.max(1, Integer.getInteger(MAX_CONNECTIONS_PROPERTY, maxConnections));
+        this.minLimit = Math.max(1, this.maxConnections / 10);
+        this.rate = Double.parseDouble(System.getProperty(RATE_PROPERTY, String.valueOf(rate)));
+        this.burst = Double.parseDouble(System.getProperty(BURST_PROPERTY, String.valueOf(this.rate)));
+        this.adaptive = Boolean.parseBoolean(System.getProperty(ADAPTIVE_PROPERTY, "true"));
+        this.limit = this.maxConnections;
+
+        Metrics.gauge("admission." + name + ".limit", () -> limit);
+        Metrics.gauge("admission." + name + ".inFlight", inFlight::get);
+        this.rejected = Metrics.counter("admission." + name + ".rejected");
+        this.throttled = Metrics.counter("admission." + name + ".throttled");
+        System.out.println("Admission control: at most " + this.maxConnections + " connections"
+                + (adaptive ? " (adaptive)" : "")
+                + (this.rate > 0 ? ", " + this.rate + " frames/s per client" : ""));
+    }
+
+    /**
+     * Default maximum number of connections for an executor created by {@link ConnectionExecutors}:
+     * one per pool thread, since each connection occupies a thread for its whole lifetime.
+     *
+     * @param maximumPoolSize the pool size the executor was created with.
+     * @return the default maximum number of connections.
+     */
+    public static int defaultMaxConnections(int maximumPoolSize) {
+        return ConnectionExecutors.selectedMode() == ConnectionExecutors.Mode.POOL
+                ? maximumPoolSize
+                : VIRTUAL_MAX_CONNECTIONS;
+    }
+
+    /**
+     * Pauses the calling accept loop until a connection slot is free, for at most one second.
+     * Several accept loops may wait at once.
+     *
+     * @return true if a slot is free; false if the server is still saturated, in which case the
+     * next client accepted is turned away.
+     */
+    public boolean awaitCapacity() {
+        if (inFlight.get() < limit) {
+            return true;
+        }
+        long remaining = TimeUnit.MILLISECONDS.toNanos(ACCEPT_PAUSE_MILLIS);
+        capacityLock.lock();
+        try {
+            acceptorsWaiting++;
+            while (inFlight.get() >= limit && remaining > 0) {
+                remaining = capacityAvailable.awaitNanos(remaining);
+            }
+            return inFlight.get() < limit;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            acceptorsWaiting--;
+            capacityLock.unlock();
+        }
+    }
+
+    /**
+     * Hands an accepted socket to the executor if a slot is free, and turns it away otherwise.
+     * Never throws {@link RejectedExecutionException}.
+     *
+     * @param socket   the accepted client socket.
+     * @param executor the connection executor.
+     * @param handler  handles the connection and closes the socket.
+     * @return true if the connection was admitted.
+     */
+    public boolean dispatch(Socket socket, ExecutorService executor, Consumer<Socket> handler) {
+        if (!tryAcquire()) {
+            reject(socket);
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    handler.accept(socket);
+                } finally {
+                    release();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            release();
+            reject(socket);
+            return false;
+        }
+    }
+
+    /**
+     * @return a rate limiter for a new connection, or null if clients are not rate limited.
+     */
+    public TokenBucket newRateLimiter() {
+        return rate > 0 ? new TokenBucket(rate, burst) : null;
+    }
+
+    /**
+     * Waits until a client may send its next frame; does nothing without a rate limit.
+     *
+     * @param rateLimiter the connection's rate limiter from {@link #newRateLimiter()}, or null.
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    public void throttle(TokenBucket rateLimiter) throws InterruptedIOException {
+        if (rateLimiter == null) {
+            return;
+        }
+        try {
+            if (rateLimiter.acquire() > 0) {
+                throttled.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rate limiting");
+        }
+    }
+
+    /**
+     * Records the latency of one operation of a handler, adjusting the limit once per window.
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    public void recordLatency(long nanos) {
+        if (!adaptive) {
+            return;
+        }
+        windowLatency.add(nanos);
+        windowSamples.increment();
+        long now = System.nanoTime();
+        if (now - windowEnd >= 0 && adjusting.compareAndSet(false, true)) {
+            try {
+                adjustLimit(now);
+            } finally {
+                adjusting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Closes the current latency window and adjusts the limit by its average.
+     */
+    private void adjustLimit(long now) {
+        if (windowSamples.sum() < MIN_WINDOW_SAMPLES) {
+            return;
+        }
+        windowEnd = now + WINDOW_NANOS;
+        long samples = windowSamples.sumThenReset();
+        long total = windowLatency.sumThenReset();
+        double average = (double) total / samples;
+        baselineLatency = Math.min(average, baselineLatency * 1.01);
+
+        int current = limit;
+        if (average > baselineLatency * LATENCY_TOLERANCE) {
+            // Overloaded: back off from what is actually in use, so the cut takes effect at once.
+            limit = Math.max(minLimit, (int) (Math.min(current, inFlight.get()) * 0.9));
+        } else if (current < maxConnections && inFlight.get() >= current * 0.9) {
+            limit = current + 1;
+            signalCapacity();
+        }
+    }
+
+    /**
+     * Takes a connection slot if one is free.
+     */
+    private boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Frees a connection slot and wakes the accept loops if they are waiting for one.
+     */
+    private void release() {
+        inFlight.decrementAndGet();
+        signalCapacity();
+    }
+
+    private void signalCapacity() {
+        if (acceptorsWaiting > 0) {
+            capacityLock.lock();
+            try {
+                // Every waiting loop rechecks; those that find no slot keep waiting.
+                capacityAvailable.signalAll();
+            } finally {
+                capacityLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sends the "server busy" frame and closes the socket, without waiting for a slow client.
+     */
+    private void reject(Socket socket) {
+        rejected.increment();
+        try (socket) {
+            socket.getOutputStream().write(BUSY_FRAME);
+        } catch (IOException e) {
+            // The client is turned away either way.
+        }
+    }
+}
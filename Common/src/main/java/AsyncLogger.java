@@ -0,0 +1,117 @@
+package Common.src.main.java;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Rate-limited logger that prints from a background thread.
+ * <p>
+ * Console output is synchronized and slow, so a server that prints a line for every message
+ * serializes all its connections on {@code System.out}. This logger instead hands lines to a
+ * bounded queue that a daemon thread prints, and admits at most a fixed number of lines per
+ * second. Lines beyond the rate or beyond the queue's capacity are dropped and counted; the
+ * logger prints how many were suppressed once per second, and exposes the total as a metric.
+ * </p>
+ * <p>
+ * Callers on hot paths should ask {@link #admit()} before building a line, so that a suppressed
+ * line costs neither the string concatenation nor the payload decoding:
+ * </p>
+ * <pre>{@code
+ * if (log.admit()) {
+ *     log.write("Received from client: " + reader.payloadAsString());
+ * }
+ * }</pre>
+ */
+public class AsyncLogger {
+    private final int linesPerSecond;
+    private final ArrayBlockingQueue<String> queue;
+    /**
+     * Lines that may still be admitted in the current second; refilled by the printing thread.
+     */
+    private final AtomicInteger permits;
+    /**
+     * Lines suppressed since the last report.
+     */
+    private final LongAdder suppressed = new LongAdder();
+
+    /**
+     * Creates a logger and starts its printing thread.
+     *
+     * @param name           names the thread and the {@code log.<name>.suppressed} metric.
+     * @param linesPerSecond maximum number of lines printed per second.
+     * @param queueCapacity  maximum number of lines waiting to be printed.
+     */
+    public AsyncLogger(String name, int linesPerSecond, int queueCapacity) {
+        this.linesPerSecond = linesPerSecond;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.permits = new AtomicInteger(linesPerSecond);
+        LongAdder suppressedTotal = Metrics.counter("log." + name + ".suppressed");
+        Thread printer = new Thread(() -> printLoop(suppressedTotal), name + "-logger");
+        printer.setDaemon(true);
+        printer.start();
+    }
+
+    /**
+     * Takes a permit to log one line in the current second.
+     *
+     * @return true if the caller may {@link #write} one line; false if the line is suppressed.
+     */
+    public boolean admit() {
+        if (permits.get() <= 0 || permits.getAndDecrement() <= 0) {
+            suppressed.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queues a line admitted by {@link #admit()} without blocking.
+     *
+     * @param line the line to print.
+     */
+    public void write(String line) {
+        if (!queue.offer(line)) {
+            suppressed.increment();
+        }
+    }
+
+    /**
+     * Logs a line if the rate allows it.
+     *
+     * @param line the line to print.
+     */
+    public void log(String line) {
+        if (admit()) {
+            write(line);
+        }
+    }
+
+    /**
+     * Prints queued lines, refills the permits and reports suppressed lines once per second.
+     */
+    private void printLoop(LongAdder suppressedTotal) {
+        long nextSecond = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (true) {
+            try {
+                String line = queue.poll(Math.max(0, nextSecond - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (line != null) {
+                    System.out.println(line);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (System.nanoTime() - nextSecond >= 0) {
+                nextSecond += TimeUnit.SECONDS.toNanos(1);
+                permits.set(linesPerSecond);
+                long count = suppressed.sumThenReset();
+                if (count > 0) {
+                    suppressedTotal.add(count);
+                    System.out.println("(" + count + " log lines suppressed)");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package Common.src.main.java;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A thread-safe pool of fixed-size byte buffers.
+ * <p>
+ * Connections borrow a buffer when they start and give it back when they end, so the buffers
+ * used on the per-message path are allocated once and then recycled across connections instead
+ * of being allocated for every frame. The pool retains at most {@code maxPooled} idle buffers;
+ * buffers released beyond that, or of a different size, are left to the garbage collector.
+ * </p>
+ */
+public class BufferPool {
+    /**
+     * Size in bytes of every buffer handed out by the pool.
+     */
+    private final int bufferSize;
+    /**
+     * Whether the pool hands out direct buffers rather than heap buffers.
+     */
+    private final boolean direct;
+    /**
+     * Maximum number of idle buffers retained.
+     */
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /**
+     * Creates a buffer pool.
+     *
+     * @param bufferSize size in bytes of the pooled buffers.
+     * @param direct     true to pool direct buffers, suitable for channel I/O; false for heap buffers
+     *                   whose backing array can be used with streams.
+     * @param maxPooled  maximum number of idle buffers retained.
+     */
+    public BufferPool(int bufferSize, boolean direct, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return the size in bytes of the pooled buffers.
+     */
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Borrows a cleared buffer, allocating one if the pool is empty.
+     *
+     * @return a buffer of {@link #bufferSize()} bytes.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        idleCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The caller must not use the buffer afterwards.
+     *
+     * @param buffer a buffer obtained from {@link #acquire()}; null is ignored.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            return;
+        }
+        if (idleCount.incrementAndGet() > maxPooled) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        idle.offer(buffer);
+    }
+}
@@ -0,0 +1,145 @@
+package Common.src.main.java;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Creates the executors that run one blocking client handler per connection.
+ * <p>
+ * Every server hands each accepted socket to an {@link ExecutorService}. Which executor is used is
+ * chosen once at startup through the {@code executor} system property:
+ * <ul>
+ *     <li>{@code pool} (default) - a bounded pool of platform threads with a bounded work queue.</li>
+ *     <li>{@code virtual} - a new virtual thread per connection (requires Java 21 or later), so
+ *     blocking reads such as {@code DataInputStream.readInt} park cheaply instead of pinning a
+ *     platform thread, and the number of concurrent clients is no longer capped by the pool.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Example: {@code java -Dexecutor=virtual ...ChatRoomServer}
+ * </p>
+ */
+public final class ConnectionExecutors {
+    /**
+     * Name of the system property selecting the executor mode.
+     */
+    public static final String MODE_PROPERTY = "executor";
+
+    /**
+     * The available executor modes.
+     */
+    public enum Mode {
+        /**
+         * Bounded pool of platform threads.
+         */
+        POOL,
+        /**
+         * One virtual thread per task.
+         */
+        VIRTUAL
+    }
+
+    private ConnectionExecutors() {
+    }
+
+    /**
+     * Reads the executor mode from the {@code executor} system property.
+     *
+     * @return the selected mode, {@link Mode#POOL} if the property is not set.
+     * @throws IllegalArgumentException if the property names an unknown mode.
+     */
+    public static Mode selectedMode() {
+        String value = System.getProperty(MODE_PROPERTY, Mode.POOL.name());
+        return Mode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Creates the connection executor selected at startup.
+     *
+     * @param maximumPoolSize maximum number of platform threads in {@link Mode#POOL} mode.
+     * @param queueCapacity   capacity of the work queue in {@link Mode#POOL} mode.
+     * @return the executor to hand client connections to.
+     */
+    public static ExecutorService create(int maximumPoolSize, int queueCapacity) {
+        Mode mode = selectedMode();
+        System.out.println("Connection executor mode: " + mode.name().toLowerCase(Locale.ROOT));
+        return switch (mode) {
+            case POOL -> newBoundedPool(maximumPoolSize, queueCapacity);
+            case VIRTUAL -> newVirtualThreadPerTaskExecutor();
+        };
+    }
+
+    /**
+     * Creates a bounded pool of platform threads.
+     * <p>
+     * A {@link ThreadPoolExecutor} only grows past its core size once its queue is full, so a
+     * small core size in front of a large queue leaves clients waiting in the queue while threads
+     * are still available. The core size is therefore the maximum size, and idle core threads are
+     * allowed to time out so the pool still shrinks when traffic drops.
+     * </p>
+     *
+     * @param maximumPoolSize maximum number of threads.
+     * @param queueCapacity   capacity of the work queue.
+     * @return the bounded pool.
+     */
+    public static ThreadPoolExecutor newBoundedPool(int maximumPoolSize, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                maximumPoolSize,
+                maximumPoolSize,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity)
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     * <p>
+     * The executor is looked up reflectively so the sources still compile for Java 17.
+     * </p>
+     *
+     * @return the virtual-thread-per-task executor.
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads require Java 21 or later (running " + Runtime.version() + ")", e);
+        }
+    }
+
+    /**
+     * Registers a shutdown hook that gracefully shuts down an executor.
+     * <p>
+     * Running tasks get up to 60 seconds to finish before they are interrupted.
+     * </p>
+     *
+     * @param executorService the executor to shut down on application termination.
+     */
+    public static void shutdownOnExit(ExecutorService executorService) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Shutting down executor...");
+            executorService.shutdown();
+            try {
+                if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
+                    executorService.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executorService.shutdownNow();
+                e.printStackTrace();
+            }
+            System.out.println("Executor shutdown complete");
+        }));
+    }
+}
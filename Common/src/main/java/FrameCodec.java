@@ -0,0 +1,126 @@
+package Common.src.main.java;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Encoding and decoding of the length-prefixed frames spoken by every server and client.
+ * <p>
+ * A frame is a 4-byte big-endian payload length followed by the payload bytes. The helpers here
+ * always produce a frame as one contiguous array or one gathering write, so a frame leaves the
+ * process in a single system call instead of one for the length and one for the payload.
+ * Connections that exchange many frames should use {@link FrameReader} and {@link FrameWriter},
+ * which reuse their buffers across frames.
+ * </p>
+ * <p>
+ * A payload too large to hold in memory at once is sent as a streamed frame instead: the prefix
+ * {@link #STREAMED}, then the payload as a sequence of chunks, each framed like a payload of its
+ * own, and finally an empty chunk:
+ * </p>
+ * <pre>
+ *     int  -1
+ *     int  n1, byte[n1] first chunk
+ *     ...
+ *     int  0
+ * </pre>
+ * <p>
+ * Every chunk is bounded by the receiver's maximum payload length, but the stream as a whole is
+ * not, so a relay such as the echo server passes it on chunk by chunk through one buffer of that
+ * size, however long the payload. {@link FrameWriter#beginStream()} and
+ * {@link FrameReader#readChunk()} write and read the chunks.
+ * </p>
+ */
+public final class FrameCodec {
+    /**
+     * Size in bytes of the length prefix.
+     */
+    public static final int HEADER_LENGTH = 4;
+    /**
+     * Length prefix announcing a streamed frame, whose payload follows in chunks.
+     */
+    public static final int STREAMED = -1;
+
+    private FrameCodec() {
+    }
+
+    /**
+     * Writes a payload length as a big-endian prefix.
+     *
+     * @param target the array to write into.
+     * @param offset the position of the prefix in {@code target}.
+     * @param length the payload length.
+     */
+    public static void putHeader(byte[] target, int offset, int length) {
+        target[offset] = (byte) (length >>> 24);
+        target[offset + 1] = (byte) (length >>> 16);
+        target[offset + 2] = (byte) (length >>> 8);
+        target[offset + 3] = (byte) length;
+    }
+
+    /**
+     * Encodes a message into a complete frame.
+     *
+     * @param message the message to encode as UTF-8.
+     * @return the length prefix followed by the payload.
+     */
+    public static byte[] encode(String message) {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        return encode(payload, 0, payload.length);
+    }
+
+    /**
+     * Encodes a payload into a complete frame.
+     *
+     * @param payload the array holding the payload.
+     * @param offset  the start of the payload in {@code payload}.
+     * @param length  the number of payload bytes.
+     * @return the length prefix followed by the payload.
+     */
+    public static byte[] encode(byte[] payload, int offset, int length) {
+        byte[] frame = new byte[HEADER_LENGTH + length];
+        putHeader(frame, 0, length);
+        System.arraycopy(payload, offset, frame, HEADER_LENGTH, length);
+        return frame;
+    }
+
+    /**
+     * Reads one frame and decodes it as UTF-8.
+     *
+     * @param in        the stream to read from.
+     * @param maxLength the largest payload accepted.
+     * @return the decoded message, or null if the announced length is negative or exceeds {@code maxLength}.
+     * @throws IOException if an I/O error occurs or the stream ends before a complete frame.
+     */
+    public static String readString(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a frame with one gathering write.
+     * <p>
+     * {@code frame[0]} must hold the 4-byte prefix and {@code frame[1]} the payload, both
+     * positioned for reading; callers typically keep one such array per connection and reuse
+     * it. On a non-blocking channel the write may be partial; the buffers' positions record how
+     * far it got, so the caller can retry once the channel is writable again.
+     * </p>
+     *
+     * @param channel the channel to write to.
+     * @param frame   the length prefix and the payload, possibly a direct buffer.
+     * @return true if the whole frame has been written.
+     * @throws IOException if writing fails.
+     */
+    public static boolean writeFrame(GatheringByteChannel channel, ByteBuffer[] frame) throws IOException {
+        channel.write(frame);
+        return !frame[0].hasRemaining() && !frame[1].hasRemaining();
+    }
+}
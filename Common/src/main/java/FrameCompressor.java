@@ -0,0 +1,208 @@
+package Common.src.main.java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+
+/**
+ * Compresses the large frames sent over one connection that negotiated compression.
+ * <p>
+ * A client that can decompress replies {@value #HANDSHAKE} where the protocol allows it; the
+ * server confirms with the same frame, uncompressed, and from then on may send any frame to that
+ * client compressed, including the chunks of a {@link FrameCodec#STREAMED streamed frame}. A
+ * compressed frame sets the highest bit of the length prefix, which no uncompressed frame can,
+ * followed by the compressed length in the remaining bits:
+ * </p>
+ * <pre>
+ *     int  0x80000000 | (4 + n)
+ *     int  length of the original payload
+ *     byte[n] the payload, compressed with raw Deflate using the protocol's preset dictionary
+ * </pre>
+ * <p>
+ * Every frame is compressed on its own, after resetting the {@link Deflater} and loading the
+ * dictionary again, so a receiver can decompress frames independently and the dictionary makes up
+ * for the lack of shared history between frames. Payloads smaller than the threshold, 512 bytes or
+ * {@code -Dcompression.threshold}, are sent as they are: for them the saving is negligible and
+ * not worth the CPU. A payload that does not get smaller is sent as it is too.
+ * </p>
+ * <p>
+ * The {@link Deflater} and the buffers are reused for every frame of the connection. The
+ * deflater holds native memory, so it is only created once the first frame is large enough, and
+ * should be released with {@link #close()} rather than left to the garbage collector. A
+ * compressor is used by one thread at a time. {@link FrameReader#enableDecompression(byte[])}
+ * reads the frames on the other side.
+ * </p>
+ */
+public class FrameCompressor implements AutoCloseable {
+    /**
+     * Reply that asks the peer for compressed frames, and confirms that they will be sent.
+     */
+    public static final String HANDSHAKE = "DEFLATE1";
+    /**
+     * Flag in the length prefix of a compressed frame.
+     */
+    public static final int COMPRESSED = 0x80000000;
+    public static final String THRESHOLD_PROPERTY = "compression.threshold";
+    /**
+     * System property with which clients can turn off asking for compression.
+     */
+    public static final String ENABLED_PROPERTY = "compression";
+
+    /**
+     * Size of the length prefix and the original length preceding compressed data.
+     */
+    private static final int COMPRESSED_HEADER_LENGTH = FrameCodec.HEADER_LENGTH + Integer.BYTES;
+
+    private static final LongAdder framesCompressed = Metrics.counter("compression.frames");
+    private static final LongAdder bytesBefore = Metrics.counter("compression.bytesBefore");
+    private static final LongAdder bytesAfter = Metrics.counter("compression.bytesAfter");
+
+    private final byte[] dictionary;
+    private final int threshold;
+    private Deflater deflater;
+    /**
+     * The compressed frame being built: headers, then the compressed data.
+     */
+    private byte[] output = new byte[8 * 1024];
+    /**
+     * Payloads assembled with {@link #begin()}.
+     */
+    private final PayloadBuffer payload = new PayloadBuffer();
+    private final DataOutputStream payloadData = new DataOutputStream(payload);
+
+    /**
+     * Creates a compressor for one connection.
+     *
+     * @param dictionary byte sequences typical of the protocol's payloads, most common last; the
+     *                   receiver must use the same dictionary.
+     */
+    public FrameCompressor(byte[] dictionary) {
+        this.dictionary = dictionary;
+        this.threshold = Integer.getInteger(THRESHOLD_PROPERTY, 512);
+    }
+
+    /**
+     * @return true if a payload of this length is large enough to be compressed.
+     */
+    public boolean accepts(int payloadLength) {
+        return payloadLength >= threshold;
+    }
+
+    /**
+     * Starts assembling a payload from several parts, to be sent with {@link #writeFrame(OutputStream)}.
+     *
+     * @return the stream to write the payload to.
+     */
+    public DataOutputStream begin() {
+        payload.reset();
+        return payloadData;
+    }
+
+    /**
+     * Writes the payload assembled since {@link #begin()} as one frame, compressed if worthwhile.
+     *
+     * @param out the stream to write to.
+     * @return the number of bytes written.
+     * @throws IOException if writing fails.
+     */
+    public int writeFrame(OutputStream out) throws IOException {
+        return writeFrame(out, payload.array(), 0, payload.size());
+    }
+
+    /**
+     * Writes a payload as one frame, compressed if worthwhile.
+     *
+     * @param out     the stream to write to.
+     * @param data    the array holding the payload.
+     * @param offset  the start of the payload in {@code data}.
+     * @param length  the number of payload bytes.
+     * @return the number of bytes written.
+     * @throws IOException if writing fails.
+     */
+    public int writeFrame(OutputStream out, byte[] data, int offset, int length) throws IOException {
+        int compressedLength = accepts(length) ? compress(data, offset, length) : -1;
+        if (compressedLength < 0) {
+            // Coalesce the prefix and the payload into one write, as FrameWriter does, if the buffer has room.
+            FrameCodec.putHeader(output, 0, length);
+            if (FrameCodec.HEADER_LENGTH + length <= output.length) {
+                System.arraycopy(data, offset, output, FrameCodec.HEADER_LENGTH, length);
+                out.write(output, 0, FrameCodec.HEADER_LENGTH + length);
+            } else {
+                out.write(output, 0, FrameCodec.HEADER_LENGTH);
+                out.write(data, offset, length);
+            }
+            return FrameCodec.HEADER_LENGTH + length;
+        }
+        int frameLength = COMPRESSED_HEADER_LENGTH + compressedLength;
+        out.write(output, 0, frameLength);
+        framesCompressed.increment();
+        bytesBefore.add(FrameCodec.HEADER_LENGTH + length);
+        bytesAfter.add(frameLength);
+        return frameLength;
+    }
+
+    /**
+     * Compresses a payload into {@link #output} after the headers.
+     *
+     * @return the compressed length, or -1 if the payload does not get smaller.
+     */
+    private int compress(byte[] data, int offset, int length) {
+        if (FrameCodec.HEADER_LENGTH + length <= COMPRESSED_HEADER_LENGTH) {
+            return -1;
+        }
+        if (deflater == null) {
+            // Fastest level: the dictionary already catches most of the redundancy of short payloads.
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        } else {
+            deflater.reset();
+        }
+        deflater.setDictionary(dictionary);
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+
+        // A compressed frame must be smaller than the uncompressed one to be worth sending.
+        int limit = FrameCodec.HEADER_LENGTH + length;
+        if (output.length < limit) {
+            output = new byte[Math.max(limit, output.length * 2)];
+        }
+        int position = COMPRESSED_HEADER_LENGTH;
+        while (!deflater.finished()) {
+            if (position == limit) {
+                return -1;
+            }
+            position += deflater.deflate(output, position, limit - position);
+        }
+        int compressedLength = position - COMPRESSED_HEADER_LENGTH;
+        FrameCodec.putHeader(output, 0, COMPRESSED | (Integer.BYTES + compressedLength));
+        FrameCodec.putHeader(output, FrameCodec.HEADER_LENGTH, length);
+        return compressedLength;
+    }
+
+    /**
+     * Releases the deflater's native memory. The compressor must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    /**
+     * Byte array stream whose array can be compressed without copying it.
+     */
+    private static final class PayloadBuffer extends ByteArrayOutputStream {
+        PayloadBuffer() {
+            super(1024);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
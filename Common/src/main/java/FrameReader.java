@@ -0,0 +1,237 @@
+package Common.src.main.java;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * Reads length-prefixed frames from a blocking stream into a reusable buffer.
+ * <p>
+ * The reader buffers the underlying stream, so reading the 4-byte prefix does not cost four
+ * system calls, and reads payloads into one array that is borrowed from a {@link BufferPool} and
+ * only grows when a frame larger than any seen before arrives. Reading a frame therefore does
+ * not allocate. The payload stays valid until the next call to {@link #readFrame()}.
+ * </p>
+ * <p>
+ * A reader is used by one thread at a time and must be {@link #release() released} when the
+ * connection ends so that its buffer can be reused.
+ * </p>
+ * <p>
+ * Once the connection has negotiated compression, {@link #enableDecompression(byte[])} makes the
+ * reader inflate the frames compressed by a {@link FrameCompressor}; {@link #readFrame()} then
+ * returns the original payload.
+ * </p>
+ * <p>
+ * A {@link FrameCodec#STREAMED streamed frame} makes {@link #readFrame()} return {@link #STREAM};
+ * its payload is then read piece by piece with {@link #readChunk()}, each chunk into the same
+ * buffer, so the reader never holds more than the maximum length however long the stream is.
+ * Callers that only check for a negative result treat a streamed frame as invalid, as before.
+ * </p>
+ */
+public class FrameReader {
+    /**
+     * Pool shared by all readers for their initial payload buffers.
+     */
+    private static final BufferPool POOL = new BufferPool(8 * 1024, false, 1024);
+    /**
+     * Returned by {@link #readFrame()} when a streamed frame begins.
+     */
+    public static final int STREAM = -2;
+
+    private final DataInputStream in;
+    /**
+     * Largest payload accepted.
+     */
+    private final int maxLength;
+    /**
+     * The pooled buffer, returned to the pool on release.
+     */
+    private ByteBuffer pooled;
+    /**
+     * The array the current payload was read into.
+     */
+    private byte[] buffer;
+    /**
+     * Length of the current payload.
+     */
+    private int length;
+    /**
+     * Inflates compressed frames once enabled, with the protocol's dictionary; null until then.
+     */
+    private Inflater inflater;
+    private byte[] dictionary;
+    /**
+     * Reusable buffer for the compressed data of a frame.
+     */
+    private byte[] compressed;
+
+    /**
+     * Creates a reader.
+     *
+     * @param in        the stream to read frames from, typically a socket's input stream.
+     * @param maxLength the largest payload accepted.
+     */
+    public FrameReader(InputStream in, int maxLength) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.maxLength = maxLength;
+        this.pooled = POOL.acquire();
+        this.buffer = pooled.array();
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @return the payload length, {@link #STREAM} if a streamed frame begins, or -1 if the announced
+     * length is negative or exceeds the maximum; in that case the payload has not been consumed and
+     * the connection should be closed.
+     * @throws EOFException if the stream ends before a complete frame.
+     * @throws IOException  if an I/O error occurs.
+     */
+    public int readFrame() throws IOException {
+        int announced = in.readInt();
+        if (announced == FrameCodec.STREAMED) {
+            length = 0;
+            return STREAM;
+        }
+        if (inflater != null && (announced & FrameCompressor.COMPRESSED) != 0) {
+            return readCompressed(announced & ~FrameCompressor.COMPRESSED);
+        }
+        return readPayload(announced);
+    }
+
+    /**
+     * Reads the next chunk of a streamed frame into the buffer, replacing the previous one.
+     * Once decompression is enabled, chunks may be compressed like frames.
+     *
+     * @return the chunk length, 0 once the stream has ended, or -1 if the announced length is
+     * negative or exceeds the maximum, in which case the connection should be closed.
+     * @throws EOFException if the stream ends before a complete chunk.
+     * @throws IOException  if an I/O error occurs.
+     */
+    public int readChunk() throws IOException {
+        int announced = in.readInt();
+        if (inflater != null && (announced & FrameCompressor.COMPRESSED) != 0) {
+            return readCompressed(announced & ~FrameCompressor.COMPRESSED);
+        }
+        return readPayload(announced);
+    }
+
+    /**
+     * Reads an uncompressed payload of the announced length into the buffer, if it is valid.
+     */
+    private int readPayload(int announced) throws IOException {
+        if (announced < 0 || announced > maxLength) {
+            return -1;
+        }
+        ensureCapacity(announced);
+        in.readFully(buffer, 0, announced);
+        length = announced;
+        return announced;
+    }
+
+    /**
+     * Makes the reader inflate compressed frames from now on.
+     *
+     * @param dictionary the preset dictionary the sender compresses with.
+     */
+    public void enableDecompression(byte[] dictionary) {
+        this.inflater = new Inflater(true);
+        this.dictionary = dictionary;
+        this.compressed = new byte[1024];
+    }
+
+    /**
+     * Reads a compressed frame and inflates its payload into the buffer.
+     */
+    private int readCompressed(int announced) throws IOException {
+        if (announced < Integer.BYTES || announced > maxLength) {
+            return -1;
+        }
+        int originalLength = in.readInt();
+        int compressedLength = announced - Integer.BYTES;
+        if (compressedLength > compressed.length) {
+            compressed = new byte[Math.max(compressedLength, compressed.length * 2)];
+        }
+        in.readFully(compressed, 0, compressedLength);
+        // The original length is checked before inflating, so a frame cannot expand beyond the maximum.
+        if (originalLength < 0 || originalLength > maxLength) {
+            return -1;
+        }
+        ensureCapacity(originalLength);
+        inflater.reset();
+        inflater.setDictionary(dictionary);
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            int inflated = 0;
+            while (inflated < originalLength && !inflater.finished()) {
+                int count = inflater.inflate(buffer, inflated, originalLength - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != originalLength) {
+                throw new IOException("Compressed frame inflated to " + inflated + " instead of " + originalLength + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed frame: " + e.getMessage(), e);
+        }
+        length = originalLength;
+        return originalLength;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            // Grow geometrically so a sequence of slightly larger frames does not reallocate each time.
+            buffer = new byte[Math.min(maxLength, Math.max(capacity, buffer.length * 2))];
+        }
+    }
+
+    /**
+     * @return the array holding the current payload, starting at index 0.
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the length of the current payload.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the current payload decoded as UTF-8.
+     */
+    public String payloadAsString() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the buffered stream the frames are read from, for protocols that mix in other reads.
+     */
+    public DataInputStream stream() {
+        return in;
+    }
+
+    /**
+     * Returns the pooled buffer. The reader must not be used afterwards.
+     */
+    public void release() {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        POOL.release(pooled);
+        pooled = null;
+        buffer = null;
+    }
+}
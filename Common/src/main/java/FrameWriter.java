@@ -0,0 +1,155 @@
+package Common.src.main.java;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * Writes length-prefixed frames to a blocking stream with one write per frame.
+ * <p>
+ * The prefix and the payload are coalesced into a reusable per-connection buffer and handed to
+ * the stream in a single call, so every frame costs one system call and usually one TCP segment
+ * instead of two. Payloads larger than {@link #MAX_COALESCED} are written directly after the
+ * prefix rather than copied, since the extra system call no longer matters at that size.
+ * </p>
+ * <p>
+ * Payloads of any size can also be sent as a {@link FrameCodec#STREAMED streamed frame}, chunk by
+ * chunk: {@link #beginStream()}, then {@link #writeChunk} for every chunk and {@link #endStream()}.
+ * The stream prefix is coalesced with the first chunk.
+ * </p>
+ * <p>
+ * A writer is used by one thread at a time.
+ * </p>
+ */
+public class FrameWriter {
+    /**
+     * Largest frame that is copied into the coalescing buffer.
+     */
+    public static final int MAX_COALESCED = 64 * 1024;
+
+    private final OutputStream out;
+    private byte[] buffer = new byte[1024];
+    /**
+     * Whether a stream has begun and its prefix still has to precede the next chunk.
+     */
+    private boolean streamStarting;
+
+    /**
+     * Creates a writer.
+     *
+     * @param out the stream to write frames to, typically a socket's output stream.
+     */
+    public FrameWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes one frame and flushes it.
+     *
+     * @param payload the array holding the payload.
+     * @param offset  the start of the payload in {@code payload}.
+     * @param length  the number of payload bytes.
+     * @throws IOException if writing fails.
+     */
+    public void writeFrame(byte[] payload, int offset, int length) throws IOException {
+        // Any pending stream prefix goes first, so a chunk is written like a frame of its own.
+        int prefixLength = FrameCodec.HEADER_LENGTH;
+        if (streamStarting) {
+            FrameCodec.putHeader(buffer, 0, FrameCodec.STREAMED);
+            prefixLength += FrameCodec.HEADER_LENGTH;
+            streamStarting = false;
+        }
+        int frameLength = prefixLength + length;
+        if (frameLength > MAX_COALESCED) {
+            FrameCodec.putHeader(buffer, prefixLength - FrameCodec.HEADER_LENGTH, length);
+            out.write(buffer, 0, prefixLength);
+            out.write(payload, offset, length);
+        } else {
+            if (frameLength > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(MAX_COALESCED, Math.max(frameLength, buffer.length * 2)));
+            }
+            FrameCodec.putHeader(buffer, prefixLength - FrameCodec.HEADER_LENGTH, length);
+            System.arraycopy(payload, offset, buffer, prefixLength, length);
+            out.write(buffer, 0, frameLength);
+        }
+        out.flush();
+    }
+
+    /**
+     * Begins a streamed frame. Nothing is written until the first chunk or the end of the stream.
+     */
+    public void beginStream() {
+        streamStarting = true;
+    }
+
+    /**
+     * Writes the next chunk of a streamed frame and flushes it.
+     *
+     * @param payload the array holding the chunk.
+     * @param offset  the start of the chunk in {@code payload}.
+     * @param length  the number of bytes in the chunk; an empty chunk is skipped, as it would end the stream.
+     * @throws IOException if writing fails.
+     */
+    public void writeChunk(byte[] payload, int offset, int length) throws IOException {
+        if (length > 0) {
+            writeFrame(payload, offset, length);
+        }
+    }
+
+    /**
+     * Ends a streamed frame with an empty chunk and flushes it.
+     *
+     * @throws IOException if writing fails.
+     */
+    public void endStream() throws IOException {
+        writeFrame(buffer, 0, 0);
+    }
+
+    /**
+     * Writes a payload as a streamed frame in chunks of at most {@code chunkSize} bytes.
+     *
+     * @param payload   the array holding the payload.
+     * @param offset    the start of the payload in {@code payload}.
+     * @param length    the number of payload bytes.
+     * @param chunkSize the largest chunk; must not exceed the receiver's maximum payload length.
+     * @throws IOException if writing fails.
+     */
+    public void writeStreamed(byte[] payload, int offset, int length, int chunkSize) throws IOException {
+        beginStream();
+        for (int position = 0; position < length; position += chunkSize) {
+            writeChunk(payload, offset + position, Math.min(chunkSize, length - position));
+        }
+        endStream();
+    }
+
+    /**
+     * Writes one UTF-8 encoded message as a frame and flushes it.
+     *
+     * @param message the message to write.
+     * @throws IOException if writing fails.
+     */
+    public void writeFrame(String message) throws IOException {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        writeFrame(payload, 0, payload.length);
+    }
+
+    /**
+     * Writes an already encoded frame and flushes it.
+     *
+     * @param frame a complete frame, e.g. from {@link FrameCodec#encode(String)}.
+     * @throws IOException if writing fails.
+     */
+    public void writeEncoded(byte[] frame) throws IOException {
+        out.write(frame);
+        out.flush();
+    }
+
+    /**
+     * @return the underlying stream, for protocols that mix in other writes.
+     */
+    public OutputStream stream() {
+        return out;
+    }
+}
@@ -0,0 +1,151 @@
+package Common.src.main.java;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A fixed-memory latency histogram with bounded relative error, in the style of HdrHistogram.
+ * <p>
+ * Values are counted in log-linear buckets: values below 128 get a bucket each, and every
+ * further power of two is split into 64 equal sub-buckets. Any recorded value is therefore
+ * reported with a relative error below 1.6%, from nanoseconds to hours, using a few thousand
+ * counters. Recording is a single atomic increment and is safe from any number of threads.
+ * </p>
+ * <p>
+ * Values are usually nanoseconds; {@link #toString()} formats them as microseconds.
+ * </p>
+ */
+public class LatencyHistogram {
+    /**
+     * Number of bits resolved exactly below the first power-of-two bucket.
+     */
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    /**
+     * Enough buckets to hold any non-negative long.
+     */
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + SUB_BUCKET_HALF * (64 - SUB_BUCKET_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Records one value. Negative values are recorded as zero.
+     *
+     * @param value the value to record, typically a latency in nanoseconds.
+     */
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(Math.max(0, value)));
+    }
+
+    /**
+     * Adds all counts of another histogram to this one.
+     *
+     * @param other the histogram to merge in.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+    }
+
+    /**
+     * Clears all counts.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the value at a percentile.
+     *
+     * @param percentile the percentile, from 0 to 100.
+     * @return the highest value equivalent to the bucket containing the percentile, or 0 if empty.
+     */
+    public long percentile(double percentile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return highestEquivalentValue(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * @return the highest recorded value, within the histogram's precision, or 0 if empty.
+     */
+    public long max() {
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Maps a value to its bucket.
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // Number of bits above the exactly resolved range; each adds a bucket of 64 sub-buckets.
+        int magnitude = 64 - Long.numberOfLeadingZeros(value >>> SUB_BUCKET_BITS);
+        int subBucket = (int) (value >>> magnitude);
+        return SUB_BUCKET_COUNT + (magnitude - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+    }
+
+    /**
+     * Maps a bucket back to the largest value it contains.
+     */
+    private static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int magnitude = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+
+    /**
+     * @return a one-line summary of the distribution in microseconds.
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                count(),
+                micros(percentile(50)),
+                micros(percentile(99)),
+                micros(percentile(99.9)),
+                micros(max()));
+    }
+
+    private static double micros(long nanos) {
+        return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,230 @@
+package Common.src.main.java;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Process-wide registry of the servers' metrics.
+ * <p>
+ * Three kinds of metrics are supported:
+ * </p>
+ * <ul>
+ *     <li>Counters, backed by a {@link LongAdder} so that threads incrementing them concurrently
+ *     update separate cells instead of contending on one atomic value.</li>
+ *     <li>Gauges, which read a current value such as the number of open connections or the depth
+ *     of an executor queue only when the metrics are collected.</li>
+ *     <li>Histograms, {@link LatencyHistogram}s of per-operation latencies in nanoseconds.</li>
+ * </ul>
+ * <p>
+ * Metrics are looked up once, typically into static fields, and then updated without touching
+ * the registry. {@link #expose(String)} publishes them as attributes of a JMX MBean and, when the
+ * {@code metrics.port} system property is set, as a plaintext listing served on the loopback
+ * interface at {@code http://127.0.0.1:<port>/metrics}, one {@code name value} line per metric.
+ * </p>
+ */
+public final class Metrics {
+    /**
+     * System property holding the port of the plaintext scrape endpoint; the endpoint is off when unset.
+     */
+    public static final String PORT_PROPERTY = "metrics.port";
+
+    /**
+     * Registered metrics by name: {@link LongAdder}, {@link LongSupplier} or {@link LatencyHistogram}.
+     */
+    private static final ConcurrentSkipListMap<String, Object> REGISTRY = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the counter with a name, creating it on first use.
+     *
+     * @param name the metric name, e.g. {@code echo.messages}.
+     * @return the counter.
+     */
+    public static LongAdder counter(String name) {
+        return (LongAdder) REGISTRY.computeIfAbsent(name, ignored -> new LongAdder());
+    }
+
+    /**
+     * Registers a gauge, replacing any previous gauge of the same name.
+     *
+     * @param name  the metric name.
+     * @param value reads the current value; called whenever the metrics are collected.
+     */
+    public static void gauge(String name, LongSupplier value) {
+        REGISTRY.put(name, value);
+    }
+
+    /**
+     * Returns the histogram with a name, creating it on first use.
+     *
+     * @param name the metric name, e.g. {@code todos.add.latency}.
+     * @return the histogram.
+     */
+    public static LatencyHistogram histogram(String name) {
+        return (LatencyHistogram) REGISTRY.computeIfAbsent(name, ignored -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers gauges for the queue depth and active threads of a thread pool. Executors that are
+     * not thread pools, such as virtual thread executors, have no queue and are ignored.
+     *
+     * @param prefix   the name prefix, e.g. {@code echo.executor}.
+     * @param executor the executor.
+     */
+    public static void executorGauges(String prefix, ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor pool) {
+            gauge(prefix + ".queueDepth", () -> pool.getQueue().size());
+            gauge(prefix + ".activeThreads", pool::getActiveCount);
+        }
+    }
+
+    /**
+     * Collects the current value of every metric. Histograms contribute their count, median,
+     * 99th and 99.9th percentiles and maximum, in nanoseconds.
+     *
+     * @return the values by name, in name order.
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : REGISTRY.entrySet()) {
+            String name = entry.getKey();
+            Object metric = entry.getValue();
+            if (metric instanceof LongAdder counter) {
+                values.put(name, counter.sum());
+            } else if (metric instanceof LongSupplier gauge) {
+                values.put(name, gauge.getAsLong());
+            } else if (metric instanceof LatencyHistogram histogram) {
+                values.put(name + ".count", histogram.count());
+                values.put(name + ".p50", histogram.percentile(50));
+                values.put(name + ".p99", histogram.percentile(99));
+                values.put(name + ".p999", histogram.percentile(99.9));
+                values.put(name + ".max", histogram.max());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return every metric as a {@code name value} line.
+     */
+    public static String scrape() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Long> entry : snapshot().entrySet()) {
+            text.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Publishes the metrics over JMX and, if {@code metrics.port} is set, over the plaintext endpoint.
+     * Failures are reported and otherwise ignored, so metrics never keep a server from starting.
+     *
+     * @param serverName names the MBean, {@code networking:type=Metrics,name=<serverName>}.
+     */
+    public static void expose(String serverName) {
+        try {
+            ObjectName objectName = new ObjectName("networking:type=Metrics,name=" + serverName);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), objectName);
+        } catch (JMException e) {
+            System.out.println("Could not register metrics MBean: " + e.getMessage());
+        }
+
+        String port = System.getProperty(PORT_PROPERTY);
+        if (port == null) {
+            return;
+        }
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(port)), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            System.out.println("Metrics available at http://" + server.getAddress().getHostString() + ":" + port + "/metrics");
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Could not start metrics endpoint: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read-only MBean whose attributes are the flattened metrics, discovered anew on every query.
+     */
+    private static final class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Long value = values.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("Metrics have no operations");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : snapshot().keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Server metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package Common.src.main.java;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Token bucket limiting the rate at which one client's messages are processed.
+ * <p>
+ * The bucket holds up to {@code burst} tokens and is refilled continuously at {@code rate} tokens
+ * per second; processing a message takes one token. A client sending faster than the rate is
+ * slowed down by {@link #acquire()} sleeping until the next token is due. While the handler
+ * sleeps it stops reading, so the client's excess traffic backs up in the TCP buffers and
+ * eventually blocks the client instead of consuming server CPU.
+ * </p>
+ * <p>
+ * A bucket belongs to one connection and is used by one thread at a time.
+ * </p>
+ */
+public class TokenBucket {
+    private final double tokensPerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param ratePerSecond tokens added per second.
+     * @param burst         maximum number of tokens, i.e. messages accepted back to back.
+     */
+    public TokenBucket(double ratePerSecond, double burst) {
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return true if a token was taken.
+     */
+    public boolean tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes a token, sleeping until one is available.
+     *
+     * @return the nanoseconds spent waiting, 0 if a token was available.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public long acquire() throws InterruptedException {
+        refill();
+        tokens--;
+        if (tokens >= 0) {
+            return 0;
+        }
+        // The token is borrowed from the future; wait until it has been refilled.
+        long wait = (long) Math.ceil(-tokens / tokensPerNano);
+        TimeUnit.NANOSECONDS.sleep(wait);
+        return wait;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
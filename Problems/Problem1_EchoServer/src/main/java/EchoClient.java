@@ -1,22 +1,40 @@
 package Problems.Problem1_EchoServer.src.main.java;
 
+import Common.src.main.java.FrameReader;
+import Common.src.main.java.FrameWriter;
+
 import java.io.*;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 
 /**
  * Represents an echo client, which connects to a server and sends messages to it.
  * The server responds by echoing the messages back to the client.
  * The client then displays the echoed messages.
+ * <p>
+ * Started with {@code load} as the first argument, the client instead runs a non-interactive
+ * {@link EchoLoadGenerator} that pipelines frames over several connections and reports the
+ * server's throughput and latency:
+ * {@code load [connections] [inFlight] [messagesPerConnection] [payloadSize]}.
+ * </p>
+ * <p>
+ * Started with {@code udp}, it runs a {@link UdpEchoProbe} against a server started in UDP mode,
+ * reporting the loss and round-trip time of datagrams: {@code udp [count] [payloadSize] [ratePerSecond]},
+ * where a rate of 0 sends as fast as possible.
+ * </p>
+ * <p>
+ * Started with {@code stream}, it sends messages larger than the server accepts in one frame as
+ * streamed frames and verifies their echoes: {@code stream [messageSize] [chunkSize] [count]}.
+ * </p>
  */
 public class EchoClient {
 
     /**
      * Entry point for the EchoClient application.
      *
-     * @param args Command-line arguments (currently unused).
+     * @param args Command-line arguments: optionally {@code load} followed by its settings.
      */
     public static void main(String[] args) {
         // Hostname of the server to connect to.
@@ -24,19 +42,62 @@ public class EchoClient {
         // Port number on which the server is listening.
         int portNumber = 5555;
 
+        // Run the pipelined load generator instead of the interactive client when requested.
+        if (args.length > 0 && args[0].equalsIgnoreCase("load")) {
+            int connections = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+            int inFlight = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+            int messages = args.length > 3 ? Integer.parseInt(args[3]) : 100_000;
+            int payloadSize = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+            try {
+                new EchoLoadGenerator(hostName, portNumber, connections, inFlight, messages, payloadSize).run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        // Probe the datagram echo server instead when requested.
+        if (args.length > 0 && args[0].equalsIgnoreCase("udp")) {
+            int count = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+            int payloadSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+            int rate = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+            try {
+                new UdpEchoProbe(hostName, portNumber, count, payloadSize, rate).run();
+            } catch (IOException e) {
+                System.err.println("UDP probe failed: " + e.getMessage());
+                System.exit(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        // Stream large messages in chunks instead when requested.
+        if (args.length > 0 && args[0].equalsIgnoreCase("stream")) {
+            int messageSize = args.length > 1 ? Integer.parseInt(args[1]) : 8 * 1024 * 1024;
+            int chunkSize = args.length > 2 ? Integer.parseInt(args[2]) : 64 * 1024;
+            int count = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            try {
+                streamMessages(hostName, portNumber, messageSize, chunkSize, count);
+            } catch (IOException e) {
+                System.err.println("Streaming failed: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
         try (
                 // Establish a socket connection to the server.
                 Socket echoSocket = new Socket(hostName, portNumber);
 
-                // Stream to send data to the server.
-                DataOutputStream out = new DataOutputStream(echoSocket.getOutputStream());
-
-                // Stream to receive data from the server.
-                DataInputStream in = new DataInputStream(echoSocket.getInputStream());
-
                 // Reader to get user input from the console.
                 BufferedReader stdIn = new BufferedReader(new InputStreamReader(System.in))
         ) {
+            // Writer sending each frame to the server in a single write.
+            FrameWriter out = new FrameWriter(echoSocket.getOutputStream());
+            // Reader receiving frames from the server into a reusable buffer.
+            FrameReader in = new FrameReader(echoSocket.getInputStream(), 100_000);
+
             // Display connection details.
             System.out.println("Server started and connected to client through: " +
                     "\nHostAddress: " + hostName +
@@ -51,22 +112,14 @@ public class EchoClient {
                 }
 
                 // Convert user input to bytes and send to server.
-                byte[] bytes = userInput.getBytes(StandardCharsets.UTF_8);
-                out.writeInt(bytes.length);
-                out.write(bytes);
-
-                // Receive the echoed message length from the server.
-                int length = in.readInt();
-                // Validate the echoed message length.
-                if (length < 0 || length > 100_000) {
+                out.writeFrame(userInput);
+
+                // Receive the echoed message from the server, validating its length.
+                if (in.readFrame() < 0) {
                     System.out.println("Invalid message length received");
                     return;
                 }
-
-                // Receive the actual echoed message.
-                byte[] responseBytes = new byte[length];
-                in.readFully(responseBytes);
-                String echoedMessage = new String(responseBytes, StandardCharsets.UTF_8);
+                String echoedMessage = in.payloadAsString();
 
                 // Display the echoed message.
                 System.out.println("Received from server: " + echoedMessage);
@@ -81,6 +134,73 @@ public class EchoClient {
             System.exit(1);
         }
     }
-}
 
+    /**
+     * Sends large messages as streamed frames and checks that they are echoed unchanged.
+     * <p>
+     * The server echoes every chunk as soon as it arrives, so the messages are written on a
+     * separate thread while the echoes are read: otherwise both sides would block once the socket
+     * buffers fill up. Only one chunk of the echo is held at a time.
+     * </p>
+     *
+     * @param hostName    the host of the echo server.
+     * @param portNumber  the port of the echo server.
+     * @param messageSize the size of each message in bytes.
+     * @param chunkSize   the size of the chunks, at most the server's maximum message length.
+     * @param count       the number of messages to send.
+     * @throws IOException if the connection fails or an echo differs from its message.
+     */
+    private static void streamMessages(String hostName, int portNumber, int messageSize, int chunkSize, int count)
+            throws IOException {
+        byte[] message = new byte[messageSize];
+        for (int i = 0; i < messageSize; i++) {
+            message[i] = (byte) (i * 31 + (i >>> 16));
+        }
+        System.out.println("Streaming " + count + " messages of " + messageSize + " bytes in chunks of " + chunkSize + " bytes");
 
+        try (Socket socket = new Socket(hostName, portNumber)) {
+            FrameWriter out = new FrameWriter(socket.getOutputStream());
+            FrameReader in = new FrameReader(socket.getInputStream(), chunkSize);
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        out.writeStreamed(message, 0, message.length, chunkSize);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Sending failed: " + e.getMessage());
+                }
+            }, "echo-stream-writer");
+
+            long start = System.nanoTime();
+            writer.start();
+            try {
+                for (int i = 0; i < count; i++) {
+                    if (in.readFrame() != FrameReader.STREAM) {
+                        throw new IOException("Echo " + i + " is not a streamed frame");
+                    }
+                    int position = 0;
+                    int chunk;
+                    while ((chunk = in.readChunk()) > 0) {
+                        if (position + chunk > messageSize
+                                || !Arrays.equals(in.buffer(), 0, chunk, message, position, position + chunk)) {
+                            throw new IOException("Echo " + i + " differs from its message at byte " + position);
+                        }
+                        position += chunk;
+                    }
+                    if (chunk < 0 || position != messageSize) {
+                        throw new IOException("Echo " + i + " has " + position + " of " + messageSize + " bytes");
+                    }
+                }
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                in.release();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Echoed %d messages intact in %.2f s, %.2f MB/s each way%n",
+                    count, seconds, (double) count * messageSize / seconds / (1024 * 1024));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package Problems.Problem1_EchoServer.src.main.java;
+
+import Common.src.main.java.FrameReader;
+import Common.src.main.java.FrameWriter;
+import Common.src.main.java.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A non-interactive load generator that measures the capacity of an echo server.
+ * <p>
+ * The generator opens several connections and keeps a fixed number of frames in flight on each
+ * one: a writer thread sends frames as long as the in-flight window has room, while a separate
+ * reader thread receives the echoes, verifies their content and records the round-trip time of
+ * each frame. At the end it reports the throughput and the latency distribution.
+ * </p>
+ * <p>
+ * Every payload starts with its 8-byte sequence number followed by bytes derived from it, so a
+ * corrupted, reordered or truncated echo is detected and counted as an integrity error.
+ * </p>
+ */
+public class EchoLoadGenerator {
+    private final String hostName;
+    private final int portNumber;
+    /**
+     * Number of concurrent connections.
+     */
+    private final int connections;
+    /**
+     * Number of frames each connection keeps in flight.
+     */
+    private final int inFlight;
+    /**
+     * Number of frames each connection sends.
+     */
+    private final int messagesPerConnection;
+    /**
+     * Size of each payload in bytes, at least 8.
+     */
+    private final int payloadSize;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final AtomicLong integrityErrors = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * Creates a load generator.
+     *
+     * @param hostName              the host of the echo server.
+     * @param portNumber            the port of the echo server.
+     * @param connections           the number of concurrent connections.
+     * @param inFlight              the number of frames kept in flight per connection.
+     * @param messagesPerConnection the number of frames sent per connection.
+     * @param payloadSize           the payload size in bytes; raised to 8 if smaller.
+     */
+    public EchoLoadGenerator(String hostName, int portNumber, int connections, int inFlight,
+                             int messagesPerConnection, int payloadSize) {
+        this.hostName = hostName;
+        this.portNumber = portNumber;
+        this.connections = connections;
+        this.inFlight = inFlight;
+        this.messagesPerConnection = messagesPerConnection;
+        this.payloadSize = Math.max(Long.BYTES, payloadSize);
+    }
+
+    /**
+     * Runs the load and prints a report to standard output.
+     *
+     * @throws InterruptedException if interrupted while waiting for the connections to finish.
+     */
+    public void run() throws InterruptedException {
+        System.out.println("Load: " + connections + " connections x " + inFlight + " in flight, "
+                + messagesPerConnection + " messages of " + payloadSize + " bytes each");
+
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            Thread thread = new Thread(this::runConnection, "echo-load-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        double seconds = elapsedNanos / 1e9;
+        long messages = completed.get();
+        System.out.printf("Completed %d messages in %.2f s%n", messages, seconds);
+        System.out.printf("Throughput: %.0f msg/s, %.2f MB/s each way%n",
+                messages / seconds, messages * (double) payloadSize / seconds / (1024 * 1024));
+        System.out.println("Latency: " + histogram);
+        System.out.println("Integrity errors: " + integrityErrors.get());
+    }
+
+    /**
+     * Drives one connection: writes on the calling thread, reads on a helper thread.
+     */
+    private void runConnection() {
+        try (Socket socket = new Socket(hostName, portNumber)) {
+            socket.setTcpNoDelay(true);
+            FrameWriter out = new FrameWriter(socket.getOutputStream());
+            FrameReader in = new FrameReader(socket.getInputStream(), Math.max(payloadSize, 100_000));
+
+            // One permit per frame that may be in flight; the reader returns a permit per echo.
+            Semaphore window = new Semaphore(inFlight);
+            // Send time of the frame occupying each window slot.
+            AtomicLongArray sendTimes = new AtomicLongArray(inFlight);
+            LatencyHistogram local = new LatencyHistogram();
+
+            Thread reader = new Thread(() -> readEchoes(in, window, sendTimes, local), Thread.currentThread().getName() + "-reader");
+            reader.start();
+
+            byte[] payload = new byte[payloadSize];
+            for (long sequence = 0; sequence < messagesPerConnection; sequence++) {
+                window.acquire();
+                fillPayload(payload, sequence);
+                sendTimes.set((int) (sequence % inFlight), System.nanoTime());
+                out.writeFrame(payload, 0, payload.length);
+            }
+
+            reader.join();
+            in.release();
+            histogram.add(local);
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Receives the echoes of one connection, in order, until all frames have come back.
+     */
+    private void readEchoes(FrameReader in, Semaphore window, AtomicLongArray sendTimes, LatencyHistogram local) {
+        try {
+            byte[] expected = new byte[payloadSize];
+            for (long sequence = 0; sequence < messagesPerConnection; sequence++) {
+                int length = in.readFrame();
+                long latency = System.nanoTime() - sendTimes.get((int) (sequence % inFlight));
+                window.release();
+
+                fillPayload(expected, sequence);
+                if (length != payloadSize || !Arrays.equals(in.buffer(), 0, length, expected, 0, payloadSize)) {
+                    integrityErrors.incrementAndGet();
+                }
+                local.record(latency);
+                completed.incrementAndGet();
+            }
+        } catch (IOException e) {
+            System.err.println("Reading echoes failed: " + e.getMessage());
+            // Unblock the writer so the connection can finish.
+            window.release(messagesPerConnection);
+        }
+    }
+
+    /**
+     * Fills a payload with its sequence number followed by bytes derived from it.
+     */
+    private static void fillPayload(byte[] payload, long sequence) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            payload[i] = (byte) (sequence >>> (56 - 8 * i));
+        }
+        for (int i = Long.BYTES; i < payload.length; i++) {
+            payload[i] = (byte) (sequence + i);
+        }
+    }
+}
@@ -1,17 +1,21 @@
 package Problems.Problem1_EchoServer.src.main.java;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import Common.src.main.java.AcceptorGroup;
+import Common.src.main.java.AdmissionController;
+import Common.src.main.java.AsyncLogger;
+import Common.src.main.java.ConnectionExecutors;
+import Common.src.main.java.FrameCodec;
+import Common.src.main.java.FrameReader;
+import Common.src.main.java.FrameWriter;
+import Common.src.main.java.LatencyHistogram;
+import Common.src.main.java.Metrics;
+import Common.src.main.java.TokenBucket;
+
 import java.io.EOFException;
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 
 public class EchoServer {
@@ -22,80 +26,112 @@ public class EchoServer {
     /**
      * Maximum allowed message length in bytes.
      */
-    private static final int MAX_MESSAGE_LENGTH = 100_000;
+    static final int MAX_MESSAGE_LENGTH = 100_000;
     /**
      * Socket timeout in milliseconds.
      */
-    private static final int SOCKET_TIMEOUT = 60_000;
+    static final int SOCKET_TIMEOUT = 60_000;
+    /**
+     * Echoed messages, shared with {@link NioEchoServer}.
+     */
+    static final LongAdder MESSAGES = Metrics.counter("echo.messages");
+    /**
+     * Echoed messages that were streamed in chunks, also counted in {@link #MESSAGES}.
+     */
+    static final LongAdder STREAMED_MESSAGES = Metrics.counter("echo.messages.streamed");
+    static final LongAdder BYTES_IN = Metrics.counter("echo.bytesIn");
+    static final LongAdder BYTES_OUT = Metrics.counter("echo.bytesOut");
+    /**
+     * Currently open client connections; a counter that is decremented on close.
+     */
+    static final LongAdder ACTIVE_CONNECTIONS = Metrics.counter("echo.connections.active");
+    /**
+     * Time from a complete frame being received to its echo being written, in nanoseconds.
+     */
+    private static final LatencyHistogram ECHO_LATENCY = Metrics.histogram("echo.latency");
+    /**
+     * Per-connection and per-message logging, printed off the connection threads at a bounded rate.
+     */
+    static final AsyncLogger LOG = new AsyncLogger("echo", 100, 1000);
+    /**
+     * Limits the connections handled at once and the rate of each; created by {@link #main}.
+     */
+    private static AdmissionController admission;
 
     /**
      * Entry point for the EchoServer application.
      * <p>
      * This method initializes the EchoServer, setting up a server socket that listens on a
-     * predefined port. The server utilizes a ThreadPoolExecutor to handle incoming client
-     * connections concurrently, improving scalability and efficiency.
+     * predefined port. The server hands incoming client connections to the executor selected
+     * through {@link ConnectionExecutors}, either a bounded thread pool or one virtual thread per
+     * client, to handle them concurrently.
      * </p>
      * <p>
      * Key operations performed within this method:
      * <ul>
      *     <li>Initialize a ServerSocket on a predefined port.</li>
-     *     <li>Set up a ThreadPoolExecutor with specified core, maximum pool sizes, keep-alive time,
-     *     and a work queue.</li>
+     *     <li>Set up the connection executor selected by the {@code executor} system property.</li>
      *     <li>Add a shutdown hook to ensure the executor service is gracefully shut down on
      *     application termination.</li>
      *     <li>Continuously listen for and accept incoming client connections, handing each
-     *     off to the executor service.</li>
+     *     off to the executor service through the {@link AdmissionController}, which pauses
+     *     accepting while the server is saturated and turns away clients it cannot admit.</li>
      * </ul>
      * </p>
      * <p>
      * Any IOException encountered during the server socket setup or client communication is
      * caught and wrapped in a RuntimeException.
      * </p>
+     * <p>
+     * Passing {@code nio} as the first argument starts the selector-based {@link NioEchoServer}
+     * instead; an optional second argument sets its number of event loops (defaults to the
+     * number of available processors).
+     * </p>
+     * <p>
+     * Passing {@code udp} as the first argument starts the {@link UdpEchoServer} instead, which
+     * echoes datagrams on the same port number.
+     * </p>
+     * <p>
+     * All servers publish their metrics through {@link Metrics#expose(String)}.
+     * </p>
      *
-     * @param args command-line arguments (not used in this application).
+     * @param args command-line arguments: an optional server mode and its settings.
      */
     public static void main(String[] args) {
-        try (ServerSocket serverSocket = new ServerSocket(EchoServer.PORT_NUMBER)) {
+        // Publish the metrics over JMX and, with -Dmetrics.port, over plaintext HTTP.
+        Metrics.expose("EchoServer");
+
+        // Run the non-blocking, event-loop based server when requested.
+        if (args.length > 0 && args[0].equalsIgnoreCase("nio")) {
+            int eventLoops = args.length > 1
+                    ? Integer.parseInt(args[1])
+                    : Runtime.getRuntime().availableProcessors();
+            new NioEchoServer(PORT_NUMBER, eventLoops).run();
+            return;
+        }
+
+        // Echo datagrams instead of connections, for probes that need no connection.
+        if (args.length > 0 && args[0].equalsIgnoreCase("udp")) {
+            new UdpEchoServer(PORT_NUMBER).run();
+            return;
+        }
+
+        // Connection executor setup: a bounded thread pool or one virtual thread per client, shared
+        // out among the accept loops.
+        int maximumPoolSize = 50;
+        int queueCapacity = 1000;
+        admission = new AdmissionController("echo",
+                AdmissionController.defaultMaxConnections(maximumPoolSize), 0);
+
+        try (AcceptorGroup acceptors = new AcceptorGroup("echo", PORT_NUMBER, maximumPoolSize, queueCapacity,
+                admission, EchoServer.SOCKET_TIMEOUT, EchoServer::handleClient)) {
             // Initialization and display of server details.
             System.out.println("Server started on: " +
-                    "\nHostAddress: " + serverSocket.getInetAddress() +
+                    "\nHostAddress: " + acceptors.localAddress() +
                     "\nPortNumber: " + PORT_NUMBER);
 
-            // ThreadPoolExecutor setup with specified parameters.
-            int corePoolSize = 5;
-            int maximumPoolSize = 50;
-            long keepAliveTime = 60L;
-            TimeUnit unit = TimeUnit.SECONDS;
-            BlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>(1000);
-            ThreadPoolExecutor executorService = new ThreadPoolExecutor(
-                    corePoolSize,
-                    maximumPoolSize,
-                    keepAliveTime,
-                    unit,
-                    workQueue
-            );
-
-            // Adding a shutdown hook to gracefully shutdown the executor service.
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("Shutting down executor...");
-                executorService.shutdown();
-                try {
-                    if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                        executorService.shutdownNow();
-                    }
-                } catch (InterruptedException e) {
-                    executorService.shutdownNow();
-                    e.printStackTrace();
-                }
-                System.out.println("Executor shutdown complete");
-            }));
-
-            // Continuously accept incoming client connections and handle using the executor service.
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                clientSocket.setSoTimeout(EchoServer.SOCKET_TIMEOUT);
-                executorService.execute(() -> handleClient(clientSocket));
-            }
+            // Continuously accept incoming client connections, on one or more accept loops.
+            acceptors.run();
 
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -109,10 +145,13 @@ public class EchoServer {
      * <p>
      * This method is responsible for:
      * <ul>
-     *     <li>Setting up input and output streams for communication with the client.</li>
+     *     <li>Setting up a frame reader and writer for communication with the client; both reuse
+     *     their buffers, so echoing a message does not allocate.</li>
      *     <li>Receiving messages from the client and echoing them back. The messages are expected
      *     to be preceded by an integer indicating the message length.</li>
-     *     <li>Ensuring that received messages are within valid length bounds.</li>
+     *     <li>Ensuring that received messages are within valid length bounds, and relaying
+     *     streamed messages of any length chunk by chunk.</li>
+     *     <li>Rate limiting the client and reporting the echo latency to the admission controller.</li>
      *     <li>Gracefully handling various exceptions, such as socket exceptions or abrupt client disconnections.</li>
      * </ul>
      * </p>
@@ -124,7 +163,8 @@ public class EchoServer {
      *     <li>If the length is invalid (either negative or exceeds the maximum allowed length),
      *     terminate the communication.</li>
      *     <li>Read the message bytes based on the received length.</li>
-     *     <li>Convert the bytes to a string and display the received message.</li>
+     *     <li>Convert the bytes to a string and log the received message through the
+     *     rate-limited {@link AsyncLogger}.</li>
      *     <li>Echo the message back to the client.</li>
      * </ol>
      * </p>
@@ -132,39 +172,55 @@ public class EchoServer {
      * @param clientSocket The socket through which the server communicates with the connected client.
      */
     private static void handleClient(Socket clientSocket) {
-        try (
-                // Create output stream to send data to the client
-                DataOutputStream out = new DataOutputStream(clientSocket.getOutputStream());
+        FrameReader reader = null;
+        try (clientSocket) {
+            // Create a reader that receives frames from the client into a reusable buffer
+            reader = new FrameReader(clientSocket.getInputStream(), EchoServer.MAX_MESSAGE_LENGTH);
+            ACTIVE_CONNECTIONS.increment();
+
+            // Create a writer that sends each frame to the client with a single write
+            FrameWriter writer = new FrameWriter(clientSocket.getOutputStream());
+
+            // Limit the rate at which frames are read from this client, if configured
+            TokenBucket rateLimiter = admission.newRateLimiter();
 
-                // Create input stream to receive data from the client
-                DataInputStream in = new DataInputStream(clientSocket.getInputStream())
-        ) {
             // Log the connection details for debugging purposes
-            System.out.println("Server connected to client through: " +
+            LOG.log("Server connected to client through: " +
                     "\nHostAddress: " + clientSocket.getInetAddress() +
                     "\nPortNumber: " + EchoServer.PORT_NUMBER);
 
             while (true) {
-                // Receive the length of the incoming message
-                int length = in.readInt();
-
-                // Check the validity of the received message length
-                if (length < 0 || length > EchoServer.MAX_MESSAGE_LENGTH) {
+                // Receive the next message, checking the validity of its length
+                int length = reader.readFrame();
+                if (length == FrameReader.STREAM) {
+                    // Relay a streamed message chunk by chunk, however large it is
+                    admission.throttle(rateLimiter);
+                    if (!echoStream(reader, writer)) {
+                        System.out.println("Invalid chunk length received");
+                        return;
+                    }
+                    continue;
+                }
+                if (length < 0) {
                     System.out.println("Invalid message length received");
                     return;
                 }
+                admission.throttle(rateLimiter);
+                long received = System.nanoTime();
 
-                // Read the actual message based on the provided length
-                byte[] bytes = new byte[length];
-                in.readFully(bytes);
-
-                // Convert the received bytes to a string for logging and processing
-                String receivedMessage = new String(bytes, StandardCharsets.UTF_8);
-                System.out.println("Received from client: " + receivedMessage);
+                // Convert the received bytes to a string for logging, unless the line is suppressed
+                if (LOG.admit()) {
+                    LOG.write("Received from client: " + reader.payloadAsString());
+                }
 
                 // Echo the received message back to the client
-                out.writeInt(length);
-                out.write(bytes);
+                writer.writeFrame(reader.buffer(), 0, length);
+                long latency = System.nanoTime() - received;
+                ECHO_LATENCY.record(latency);
+                admission.recordLatency(latency);
+                MESSAGES.increment();
+                BYTES_IN.add(4 + length);
+                BYTES_OUT.add(4 + length);
             }
         } catch (SocketException e) {
             // Handle socket-related exceptions (e.g., connection reset or connection aborted)
@@ -177,8 +233,51 @@ public class EchoServer {
             // Handle generic I/O exceptions
             System.out.println("Exception caught when trying to communicate on port " + EchoServer.PORT_NUMBER);
             System.out.println(e.getMessage());
+        } finally {
+            if (reader != null) {
+                ACTIVE_CONNECTIONS.decrement();
+                reader.release();
+            }
         }
     }
 
+    /**
+     * Echoes the chunks of a streamed message as they arrive, through the reader's buffer.
+     * <p>
+     * Each chunk is written back before the next one is read, so a message of any size costs the
+     * connection no more memory than one chunk of at most {@link #MAX_MESSAGE_LENGTH} bytes.
+     * </p>
+     *
+     * @param reader the connection's reader, positioned after the stream prefix.
+     * @param writer the connection's writer.
+     * @return false if a chunk announced an invalid length.
+     * @throws IOException if reading or writing fails.
+     */
+    private static boolean echoStream(FrameReader reader, FrameWriter writer) throws IOException {
+        writer.beginStream();
+        long payloadLength = 0;
+        int chunks = 0;
+        int chunk;
+        while ((chunk = reader.readChunk()) > 0) {
+            long received = System.nanoTime();
+            writer.writeChunk(reader.buffer(), 0, chunk);
+            long latency = System.nanoTime() - received;
+            ECHO_LATENCY.record(latency);
+            admission.recordLatency(latency);
+            payloadLength += chunk;
+            chunks++;
+        }
+        if (chunk < 0) {
+            return false;
+        }
+        writer.endStream();
+        LOG.log("Echoed a streamed message of " + payloadLength + " bytes in " + chunks + " chunks");
+        // The stream prefix, one prefix per chunk and the empty chunk ending the stream
+        long bytes = payloadLength + (chunks + 2L) * FrameCodec.HEADER_LENGTH;
+        MESSAGES.increment();
+        STREAMED_MESSAGES.increment();
+        BYTES_IN.add(bytes);
+        BYTES_OUT.add(bytes);
+        return true;
+    }
 }
-
@@ -0,0 +1,396 @@
+package Problems.Problem1_EchoServer.src.main.java;
+
+import Common.src.main.java.BufferPool;
+import Common.src.main.java.FrameCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * A non-blocking echo server built on {@link ServerSocketChannel} and {@link Selector}.
+ * <p>
+ * Instead of dedicating a thread to every client, the accepted channels are spread round-robin
+ * over a small, fixed number of event loops. Each event loop owns one selector and multiplexes
+ * all of its connections, so tens of thousands of idle clients cost only their socket and a few
+ * bytes of state rather than a blocked thread each.
+ * </p>
+ * <p>
+ * The wire format is identical to {@link EchoServer}: every message is preceded by a 4-byte
+ * big-endian length, lengths outside {@code [0, MAX_MESSAGE_LENGTH]} terminate the connection,
+ * and connections that stay idle for {@code SOCKET_TIMEOUT} milliseconds are closed. Because an
+ * echoed frame is byte-for-byte identical to the received frame, the event loop validates the
+ * framing as it goes and writes the received bytes straight back without materialising messages.
+ * Streamed frames pass through the same way, chunk by chunk, so they may be of any length.
+ * </p>
+ */
+public class NioEchoServer {
+    /**
+     * Size of the read buffer shared by all connections of one event loop.
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Granularity of the idle-timeout timer wheel in milliseconds.
+     */
+    private static final long TIMER_TICK_MILLIS = 1_000;
+    /**
+     * Direct buffers holding echo bytes of connections under backpressure, recycled across connections.
+     */
+    private static final BufferPool PENDING_POOL = new BufferPool(READ_BUFFER_SIZE + 4, true, 256);
+
+    /**
+     * The port number on which the server listens.
+     */
+    private final int port;
+    /**
+     * The event loops that serve accepted connections.
+     */
+    private final EventLoop[] eventLoops;
+
+    /**
+     * Creates a selector-based echo server.
+     *
+     * @param port          the port number to listen on.
+     * @param eventLoopCount the number of event loop threads to multiplex connections onto.
+     */
+    public NioEchoServer(int port, int eventLoopCount) {
+        this.port = port;
+        this.eventLoops = new EventLoop[eventLoopCount];
+    }
+
+    /**
+     * Starts the event loops and runs the accept loop on the calling thread.
+     * <p>
+     * Accepted channels are switched to non-blocking mode and handed to the event loops in
+     * round-robin order. A shutdown hook closes the selectors so the event loop threads exit.
+     * </p>
+     */
+    public void run() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("NIO server started on: " +
+                    "\nHostAddress: " + serverChannel.socket().getInetAddress() +
+                    "\nPortNumber: " + port +
+                    "\nEventLoops: " + eventLoops.length);
+
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop();
+                Thread thread = new Thread(eventLoops[i], "echo-event-loop-" + i);
+                thread.start();
+            }
+
+            // Adding a shutdown hook to close the selectors and stop the event loops.
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("Shutting down event loops...");
+                for (EventLoop eventLoop : eventLoops) {
+                    eventLoop.close();
+                }
+                System.out.println("Event loop shutdown complete");
+            }));
+
+            // Continuously accept incoming client connections and hand them to the event loops.
+            int next = 0;
+            while (true) {
+                SocketChannel clientChannel = serverChannel.accept();
+                clientChannel.configureBlocking(false);
+                eventLoops[next].register(clientChannel);
+                next = (next + 1) % eventLoops.length;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * State of one client connection served by an event loop.
+     */
+    private static final class Connection implements TimerWheel.Entry {
+        /**
+         * The channel connected to the client.
+         */
+        private final SocketChannel channel;
+        /**
+         * Holds the bytes of a length prefix until all four have arrived and been validated.
+         */
+        private final ByteBuffer header = ByteBuffer.allocate(4);
+        /**
+         * Payload bytes of the current frame that still have to be passed through.
+         */
+        private int remaining;
+        /**
+         * Whether the client is sending a streamed frame, whose length prefixes are chunk lengths.
+         */
+        private boolean streaming;
+        /**
+         * Echo bytes the client has not accepted yet; borrowed from the pool only under backpressure.
+         */
+        private ByteBuffer pendingOut;
+        /**
+         * Time in milliseconds of the last successful read or write.
+         */
+        private long lastActivity;
+        /**
+         * Whether the connection has been closed.
+         */
+        private boolean closed;
+
+        private Connection(SocketChannel channel, long now) {
+            this.channel = channel;
+            this.lastActivity = now;
+        }
+
+        @Override
+        public long lastActivity() {
+            return lastActivity;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+
+
+    /**
+     * A single-threaded event loop multiplexing many connections over one selector.
+     */
+    private static final class EventLoop implements Runnable {
+        /**
+         * Channels accepted by the acceptor thread and waiting to be registered.
+         */
+        private final ConcurrentLinkedQueue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        /**
+         * Read buffer shared by every connection of this loop.
+         */
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        /**
+         * Buffer holding the bytes to echo for one read; large enough for a read plus a held-back header.
+         */
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE + 4);
+        /**
+         * The selector multiplexing this loop's connections.
+         */
+        private final Selector selector;
+        /**
+         * Idle-timeout tracking for this loop's connections.
+         */
+        private final TimerWheel<Connection> timerWheel;
+
+        private EventLoop() throws IOException {
+            this.selector = Selector.open();
+            this.timerWheel = new TimerWheel<>(TIMER_TICK_MILLIS, EchoServer.SOCKET_TIMEOUT, System.currentTimeMillis());
+        }
+
+        /**
+         * Queues a channel for registration with this loop and wakes the selector.
+         *
+         * @param channel a non-blocking channel accepted from a client.
+         */
+        private void register(SocketChannel channel) {
+            pendingRegistrations.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Closes the selector, causing the loop to exit.
+         */
+        private void close() {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (selector.isOpen()) {
+                    selector.select(timerWheel.tickMillis());
+                    long now = System.currentTimeMillis();
+
+                    registerPending(now);
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                handleWrite(key, connection, now);
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                handleRead(key, connection, now);
+                            }
+                        } catch (IOException e) {
+                            // Handle socket-related exceptions (e.g., connection reset or connection aborted)
+                            closeConnection(connection);
+                        }
+                    }
+
+                    // Close connections that have been idle for longer than the socket timeout.
+                    timerWheel.advance(now, this::closeConnection);
+                }
+            } catch (ClosedSelectorException e) {
+                // The selector was closed by the shutdown hook.
+            } catch (IOException e) {
+                System.out.println("Event loop failed: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Registers the channels queued by the acceptor thread with this loop's selector.
+         *
+         * @param now the current time in milliseconds.
+         */
+        private void registerPending(long now) {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                Connection connection = new Connection(channel, now);
+                EchoServer.ACTIVE_CONNECTIONS.increment();
+                try {
+                    channel.register(selector, SelectionKey.OP_READ, connection);
+                    timerWheel.schedule(connection);
+                } catch (IOException e) {
+                    closeConnection(connection);
+                }
+            }
+        }
+
+        /**
+         * Reads available bytes, validates the framing and echoes complete or partial frames.
+         *
+         * @param key        the selection key of the connection.
+         * @param connection the connection to read from.
+         * @param now        the current time in milliseconds.
+         * @throws IOException if reading from or writing to the channel fails.
+         */
+        private void handleRead(SelectionKey key, Connection connection, long now) throws IOException {
+            readBuffer.clear();
+            int read = connection.channel.read(readBuffer);
+            if (read < 0) {
+                // The client closed the connection.
+                closeConnection(connection);
+                return;
+            }
+            if (read == 0) {
+                return;
+            }
+            connection.lastActivity = now;
+            EchoServer.BYTES_IN.add(read);
+            readBuffer.flip();
+
+            writeBuffer.clear();
+            while (readBuffer.hasRemaining()) {
+                if (connection.remaining > 0) {
+                    // Pass payload bytes of the current frame through unchanged.
+                    int chunk = Math.min(connection.remaining, readBuffer.remaining());
+                    int limit = readBuffer.limit();
+                    readBuffer.limit(readBuffer.position() + chunk);
+                    writeBuffer.put(readBuffer);
+                    readBuffer.limit(limit);
+                    connection.remaining -= chunk;
+                    continue;
+                }
+
+                // Accumulate the length prefix of the next frame.
+                while (connection.header.hasRemaining() && readBuffer.hasRemaining()) {
+                    connection.header.put(readBuffer.get());
+                }
+                if (connection.header.hasRemaining()) {
+                    break;
+                }
+
+                // Check the validity of the received message length; in a stream it is a chunk length.
+                int length = connection.header.getInt(0);
+                if (length == FrameCodec.STREAMED && !connection.streaming) {
+                    // Pass the chunks that follow through like frames until the empty one.
+                    connection.streaming = true;
+                    EchoServer.MESSAGES.increment();
+                    EchoServer.STREAMED_MESSAGES.increment();
+                    connection.header.flip();
+                    writeBuffer.put(connection.header);
+                    connection.header.clear();
+                    continue;
+                }
+                if (length < 0 || length > EchoServer.MAX_MESSAGE_LENGTH) {
+                    System.out.println("Invalid message length received");
+                    // Flush what was already validated, then drop the connection.
+                    writeBuffer.flip();
+                    connection.channel.write(writeBuffer);
+                    closeConnection(connection);
+                    return;
+                }
+                if (!connection.streaming) {
+                    EchoServer.MESSAGES.increment();
+                } else if (length == 0) {
+                    connection.streaming = false;
+                }
+                connection.header.flip();
+                writeBuffer.put(connection.header);
+                connection.header.clear();
+                connection.remaining = length;
+            }
+
+            writeBuffer.flip();
+            EchoServer.BYTES_OUT.add(connection.channel.write(writeBuffer));
+            if (writeBuffer.hasRemaining()) {
+                // The client is not keeping up: hold the rest and stop reading until it drains.
+                connection.pendingOut = PENDING_POOL.acquire();
+                connection.pendingOut.put(writeBuffer).flip();
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Flushes echo bytes held back by backpressure and resumes reading once drained.
+         *
+         * @param key        the selection key of the connection.
+         * @param connection the connection to write to.
+         * @param now        the current time in milliseconds.
+         * @throws IOException if writing to the channel fails.
+         */
+        private void handleWrite(SelectionKey key, Connection connection, long now) throws IOException {
+            int written = connection.channel.write(connection.pendingOut);
+            if (written > 0) {
+                connection.lastActivity = now;
+                EchoServer.BYTES_OUT.add(written);
+            }
+            if (!connection.pendingOut.hasRemaining()) {
+                PENDING_POOL.release(connection.pendingOut);
+                connection.pendingOut = null;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Closes a connection and marks it so the timer wheel drops it.
+         *
+         * @param connection the connection to close.
+         */
+        private void closeConnection(Connection connection) {
+            if (connection.closed) {
+                return;
+            }
+            connection.closed = true;
+            EchoServer.ACTIVE_CONNECTIONS.decrement();
+            PENDING_POOL.release(connection.pendingOut);
+            connection.pendingOut = null;
+            try {
+                connection.channel.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+}
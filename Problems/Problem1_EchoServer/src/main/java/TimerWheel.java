@@ -0,0 +1,129 @@
+package Problems.Problem1_EchoServer.src.main.java;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+
+/**
+ * A hashed timer wheel used by a single event loop to expire idle connections.
+ * <p>
+ * The wheel is divided into a fixed number of slots, each covering one tick. A connection is
+ * placed into the slot in which its idle deadline falls. Activity on a connection does not move
+ * it between slots: it only refreshes the connection's last-activity timestamp. When a slot
+ * expires, every entry in it is checked again and either timed out or rescheduled relative to
+ * its most recent activity. This keeps the cost of a read or write at O(1), which matters when
+ * tens of thousands of connections share one thread.
+ * </p>
+ * <p>
+ * The wheel is not thread-safe; it must only be used by the event loop that owns it.
+ * </p>
+ *
+ * @param <T> the type of the entries tracked by the wheel.
+ */
+public class TimerWheel<T extends TimerWheel.Entry> {
+
+    /**
+     * An entry tracked by the wheel.
+     */
+    public interface Entry {
+        /**
+         * @return the time in milliseconds of the last activity observed on this entry.
+         */
+        long lastActivity();
+
+        /**
+         * @return true if the entry is no longer active and should be dropped from the wheel.
+         */
+        boolean isClosed();
+    }
+
+    /**
+     * Duration of one slot in milliseconds.
+     */
+    private final long tickMillis;
+    /**
+     * Idle timeout in milliseconds after which an entry expires.
+     */
+    private final long timeoutMillis;
+    /**
+     * Slots of the wheel, each holding the entries whose deadline falls into it.
+     */
+    private final ArrayDeque<T>[] slots;
+    /**
+     * Absolute tick number of the next slot to be expired.
+     */
+    private long currentTick;
+
+    /**
+     * Creates a timer wheel.
+     *
+     * @param tickMillis    duration of one slot in milliseconds.
+     * @param timeoutMillis idle timeout in milliseconds.
+     * @param now           the current time in milliseconds.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(long tickMillis, long timeoutMillis, long now) {
+        this.tickMillis = tickMillis;
+        this.timeoutMillis = timeoutMillis;
+        // One extra slot so that a full timeout never wraps onto the slot currently being expired.
+        int slotCount = (int) (timeoutMillis / tickMillis) + 2;
+        this.slots = new ArrayDeque[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * @return the duration of one slot in milliseconds.
+     */
+    public long tickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Schedules an entry to expire one timeout after its last activity.
+     *
+     * @param entry the entry to schedule.
+     */
+    public void schedule(T entry) {
+        long deadlineTick = (entry.lastActivity() + timeoutMillis) / tickMillis;
+        // Never schedule into a slot that has already been expired.
+        if (deadlineTick < currentTick) {
+            deadlineTick = currentTick;
+        }
+        slots[(int) (deadlineTick % slots.length)].addLast(entry);
+    }
+
+    /**
+     * Expires all slots up to the given time.
+     * <p>
+     * Entries whose idle time has reached the timeout are handed to {@code onTimeout}; entries
+     * that saw activity since they were scheduled are moved to the slot of their new deadline;
+     * closed entries are dropped.
+     * </p>
+     *
+     * @param now       the current time in milliseconds.
+     * @param onTimeout callback invoked for each expired entry.
+     */
+    public void advance(long now, Consumer<T> onTimeout) {
+        long targetTick = now / tickMillis;
+        while (currentTick <= targetTick) {
+            ArrayDeque<T> slot = slots[(int) (currentTick % slots.length)];
+            // Only process the entries present before this pass; rescheduled ones may land here again.
+            int count = slot.size();
+            currentTick++;
+            for (int i = 0; i < count; i++) {
+                T entry = slot.pollFirst();
+                if (entry.isClosed()) {
+                    continue;
+                }
+                if (now - entry.lastActivity() >= timeoutMillis) {
+                    onTimeout.accept(entry);
+                } else {
+                    schedule(entry);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package Problems.Problem1_EchoServer.src.main.java;
+
+import Common.src.main.java.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A fire-and-forget probe that measures the loss and round-trip time of a {@link UdpEchoServer}.
+ * <p>
+ * The probe sends datagrams at a fixed rate from one thread while another receives the echoes,
+ * without waiting for one echo before sending the next. After the last datagram it waits a grace
+ * period for late echoes, then reports how many were lost, how many arrived out of order and the
+ * distribution of the round-trip times.
+ * </p>
+ * <p>
+ * Every payload starts with its 8-byte sequence number and the 8-byte time it was sent, followed
+ * by bytes derived from the sequence number, so an echo is matched to its datagram without any
+ * state per datagram besides one bit, and a corrupted or truncated echo is counted as an integrity
+ * error. Duplicated echoes are counted once.
+ * </p>
+ */
+public class UdpEchoProbe {
+    /**
+     * Time to wait for late echoes after the last datagram was sent.
+     */
+    private static final int GRACE_MILLIS = 1_000;
+    /**
+     * Size of the sequence number and send time at the start of every payload.
+     */
+    private static final int HEADER_LENGTH = 2 * Long.BYTES;
+
+    private final String hostName;
+    private final int portNumber;
+    /**
+     * Number of datagrams to send.
+     */
+    private final int count;
+    /**
+     * Size of each payload in bytes, at least {@link #HEADER_LENGTH}.
+     */
+    private final int payloadSize;
+    /**
+     * Datagrams sent per second, or 0 to send as fast as possible.
+     */
+    private final int rate;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    /**
+     * Sequence numbers whose echo arrived; written by the receiving thread only.
+     */
+    private final BitSet echoed = new BitSet();
+    /**
+     * Set once the last datagram was sent; until then the receiver keeps waiting through silences.
+     */
+    private volatile boolean sent;
+    private long reordered;
+    private long duplicates;
+    private long integrityErrors;
+
+    /**
+     * Creates a probe.
+     *
+     * @param hostName    the host of the echo server.
+     * @param portNumber  the port of the echo server.
+     * @param count       the number of datagrams to send.
+     * @param payloadSize the payload size in bytes; raised to 16 if smaller.
+     * @param rate        the datagrams sent per second, or 0 for no limit.
+     */
+    public UdpEchoProbe(String hostName, int portNumber, int count, int payloadSize, int rate) {
+        this.hostName = hostName;
+        this.portNumber = portNumber;
+        this.count = count;
+        this.payloadSize = Math.max(HEADER_LENGTH, payloadSize);
+        this.rate = rate;
+    }
+
+    /**
+     * Runs the probe and prints a report to standard output.
+     *
+     * @throws IOException          if the socket cannot be opened or sending fails.
+     * @throws InterruptedException if interrupted while waiting for the echoes.
+     */
+    public void run() throws IOException, InterruptedException {
+        System.out.println("UDP probe: " + count + " datagrams of " + payloadSize + " bytes"
+                + (rate > 0 ? " at " + rate + "/s" : " unpaced"));
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(new InetSocketAddress(hostName, portNumber));
+            socket.setSoTimeout(GRACE_MILLIS);
+            socket.setReceiveBufferSize(UdpEchoServer.SOCKET_BUFFER_SIZE);
+
+            Thread receiver = new Thread(() -> receiveEchoes(socket), "udp-probe-receiver");
+            receiver.start();
+
+            byte[] payload = new byte[payloadSize];
+            DatagramPacket packet = new DatagramPacket(payload, payload.length);
+            long start = System.nanoTime();
+            for (long sequence = 0; sequence < count; sequence++) {
+                if (rate > 0) {
+                    // Pace against the schedule rather than the previous send, so delays do not accumulate.
+                    long due = start + sequence * 1_000_000_000L / rate;
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                fillPayload(payload, sequence);
+                ByteBuffer.wrap(payload).putLong(Long.BYTES, System.nanoTime());
+                socket.send(packet);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            sent = true;
+            receiver.join();
+
+            int received = echoed.cardinality();
+            System.out.printf("Sent %d datagrams in %.2f s (%.0f/s)%n", count, seconds, count / seconds);
+            System.out.printf("Received %d echoes, lost %d (%.3f%%), reordered %d, duplicated %d%n",
+                    received, count - received, 100.0 * (count - received) / Math.max(1, count),
+                    reordered, duplicates);
+            System.out.println("Round-trip time: " + histogram);
+            System.out.println("Integrity errors: " + integrityErrors);
+        }
+    }
+
+    /**
+     * Receives echoes until every datagram came back, or none arrived for the grace period after the last was sent.
+     */
+    private void receiveEchoes(DatagramSocket socket) {
+        byte[] buffer = new byte[payloadSize + 1];
+        byte[] expected = new byte[payloadSize];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        ByteBuffer view = ByteBuffer.wrap(buffer);
+        long highest = -1;
+        int received = 0;
+        try {
+            while (received < count) {
+                packet.setLength(buffer.length);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    if (sent) {
+                        return; // No echo for the grace period: the rest are lost.
+                    }
+                    continue;
+                }
+                long now = System.nanoTime();
+
+                long sequence = view.getLong(0);
+                if (packet.getLength() != payloadSize || sequence < 0 || sequence >= count) {
+                    integrityErrors++;
+                    continue;
+                }
+                fillPayload(expected, sequence);
+                if (!Arrays.equals(buffer, HEADER_LENGTH, payloadSize, expected, HEADER_LENGTH, payloadSize)) {
+                    integrityErrors++;
+                    continue;
+                }
+                if (echoed.get((int) sequence)) {
+                    duplicates++;
+                    continue;
+                }
+                echoed.set((int) sequence);
+                received++;
+                histogram.record(now - view.getLong(Long.BYTES));
+                if (sequence < highest) {
+                    reordered++;
+                }
+                highest = Math.max(highest, sequence);
+            }
+        } catch (IOException e) {
+            System.err.println("Receiving echoes failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fills a payload with its sequence number followed, after room for the send time, by bytes derived from it.
+     */
+    private static void fillPayload(byte[] payload, long sequence) {
+        ByteBuffer.wrap(payload).putLong(0, sequence);
+        for (int i = HEADER_LENGTH; i < payload.length; i++) {
+            payload[i] = (byte) (sequence + i);
+        }
+    }
+}
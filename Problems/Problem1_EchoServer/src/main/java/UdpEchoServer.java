@@ -0,0 +1,197 @@
+package Problems.Problem1_EchoServer.src.main.java;
+
+import Common.src.main.java.BufferPool;
+import Common.src.main.java.Metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A connectionless echo server built on {@link DatagramChannel}.
+ * <p>
+ * Every datagram is one message, so there is no length prefix: the server sends each datagram
+ * back to its sender unchanged. Datagrams longer than {@code MAX_MESSAGE_LENGTH} are dropped.
+ * UDP gives no delivery guarantee in either direction; clients measure the loss themselves, as {@link UdpEchoProbe} does.
+ * </p>
+ * <p>
+ * A single thread serves all senders. On every selector wakeup it drains up to
+ * {@link #BATCH_SIZE} datagrams from the socket before sending any reply, so a burst costs one
+ * wakeup rather than one per datagram, and the replies then go out back to back. When the socket's
+ * send buffer is full, the remaining replies are kept and the server stops receiving until they
+ * are sent, leaving the excess to be dropped by the kernel rather than queued without bound.
+ * </p>
+ * <p>
+ * Datagrams are received into direct buffers borrowed from a small {@link BufferPool}, at most one
+ * batch of them, which are returned as soon as their reply is sent.
+ * </p>
+ */
+public class UdpEchoServer {
+    /**
+     * Maximum number of datagrams received per selector wakeup before the replies are sent.
+     */
+    static final int BATCH_SIZE = 32;
+    /**
+     * Largest payload the 16-bit length of a UDP header can describe.
+     */
+    static final int MAX_DATAGRAM_LENGTH = 65_535 - 8;
+    /**
+     * Requested size of the socket buffers, so bursts are absorbed rather than dropped; the kernel may cap it.
+     */
+    static final int SOCKET_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Datagrams dropped for exceeding {@code MAX_MESSAGE_LENGTH}, or whose echo could not be sent.
+     */
+    private static final LongAdder DROPPED = Metrics.counter("echo.udp.dropped");
+    /**
+     * Selector wakeups that received at least one datagram; the messages per wakeup is the batching achieved.
+     */
+    private static final LongAdder BATCHES = Metrics.counter("echo.udp.batches");
+    /**
+     * Times the replies of a batch had to wait for the send buffer to drain.
+     */
+    private static final LongAdder SEND_STALLS = Metrics.counter("echo.udp.sendStalls");
+
+    /**
+     * The port number on which the server listens.
+     */
+    private final int port;
+    /**
+     * Receive buffers: one byte more than the largest accepted message, to detect longer datagrams.
+     */
+    private final BufferPool pool = new BufferPool(
+            Math.min(EchoServer.MAX_MESSAGE_LENGTH, MAX_DATAGRAM_LENGTH) + 1, true, BATCH_SIZE);
+    /**
+     * The datagrams of the current batch, flipped for sending back.
+     */
+    private final ByteBuffer[] replies = new ByteBuffer[BATCH_SIZE];
+    /**
+     * The sender of each datagram of the current batch.
+     */
+    private final SocketAddress[] senders = new SocketAddress[BATCH_SIZE];
+    /**
+     * Index of the next reply to send.
+     */
+    private int nextReply;
+    /**
+     * Number of datagrams in the current batch.
+     */
+    private int batchSize;
+
+    /**
+     * Creates a datagram echo server.
+     *
+     * @param port the port number to listen on.
+     */
+    public UdpEchoServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Binds the port and serves datagrams on the calling thread until the process exits.
+     */
+    public void run() {
+        try (DatagramChannel channel = DatagramChannel.open();
+             Selector selector = Selector.open()) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_SIZE);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER_SIZE);
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            System.out.println("UDP server started on: " +
+                    "\nHostAddress: " + channel.getLocalAddress() +
+                    "\nPortNumber: " + port +
+                    "\nBatchSize: " + BATCH_SIZE +
+                    "\nReceiveBuffer: " + channel.getOption(StandardSocketOptions.SO_RCVBUF));
+
+            while (true) {
+                selector.select();
+                selector.selectedKeys().clear();
+                if (key.isWritable()) {
+                    // The send buffer has room again for the replies held back.
+                    if (sendReplies(channel)) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                    continue;
+                }
+                if (receiveBatch(channel) > 0 && !sendReplies(channel)) {
+                    SEND_STALLS.increment();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Receives the datagrams waiting on the socket, up to one batch.
+     *
+     * @return the number of datagrams to echo.
+     * @throws IOException if receiving fails.
+     */
+    private int receiveBatch(DatagramChannel channel) throws IOException {
+        nextReply = 0;
+        batchSize = 0;
+        while (batchSize < BATCH_SIZE) {
+            ByteBuffer buffer = pool.acquire();
+            SocketAddress sender = channel.receive(buffer);
+            if (sender == null) {
+                // The socket is drained.
+                pool.release(buffer);
+                break;
+            }
+            int length = buffer.position();
+            EchoServer.BYTES_IN.add(length);
+            if (length > EchoServer.MAX_MESSAGE_LENGTH) {
+                DROPPED.increment();
+                pool.release(buffer);
+                continue;
+            }
+            replies[batchSize] = buffer.flip();
+            senders[batchSize] = sender;
+            batchSize++;
+        }
+        if (batchSize > 0) {
+            BATCHES.increment();
+        }
+        return batchSize;
+    }
+
+    /**
+     * Sends the replies of the current batch, returning their buffers to the pool.
+     *
+     * @return true if every reply was sent, false if the send buffer filled up first.
+     */
+    private boolean sendReplies(DatagramChannel channel) {
+        while (nextReply < batchSize) {
+            ByteBuffer reply = replies[nextReply];
+            int length = reply.remaining();
+            try {
+                // A non-blocking send either sends the whole datagram or nothing at all.
+                if (channel.send(reply, senders[nextReply]) == 0 && length > 0) {
+                    return false;
+                }
+                EchoServer.MESSAGES.increment();
+                EchoServer.BYTES_OUT.add(length);
+            } catch (IOException e) {
+                // One unreachable sender must not stop the others from being served.
+                DROPPED.increment();
+                EchoServer.LOG.log("Could not echo to " + senders[nextReply] + ": " + e.getMessage());
+            }
+            pool.release(reply);
+            replies[nextReply] = null;
+            senders[nextReply] = null;
+            nextReply++;
+        }
+        return true;
+    }
+}
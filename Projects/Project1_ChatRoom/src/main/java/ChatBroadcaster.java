@@ -0,0 +1,60 @@
+package Projects.Project1_ChatRoom.src.main.java;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of the live participants of a chat room and fan-out of messages to them.
+ * <p>
+ * A message is encoded into a frame once by the caller and the same array is queued to every
+ * recipient's {@link ClientOutbox}. Queuing never blocks, so the cost of a broadcast for the
+ * sending thread is independent of how fast the recipients read.
+ * </p>
+ */
+public class ChatBroadcaster {
+    /**
+     * Outboxes of the connected participants. Iterated on every broadcast, modified only on join and leave.
+     */
+    private final CopyOnWriteArrayList<ClientOutbox> participants = new CopyOnWriteArrayList<>();
+
+    /**
+     * Adds a participant so that it receives subsequent broadcasts.
+     *
+     * @param outbox the participant's outbox.
+     */
+    public void register(ClientOutbox outbox) {
+        participants.add(outbox);
+    }
+
+    /**
+     * Removes a participant.
+     *
+     * @param outbox the participant's outbox.
+     */
+    public void unregister(ClientOutbox outbox) {
+        participants.remove(outbox);
+    }
+
+    /**
+     * Queues a frame to every participant except the sender.
+     * <p>
+     * Participants that turn out to be closed or too slow are removed from the registry.
+     * </p>
+     *
+     * @param frame  the encoded, length-prefixed frame.
+     * @param sender the outbox of the sending participant, or null to deliver to everyone.
+     */
+    public void broadcast(byte[] frame, ClientOutbox sender) {
+        for (ClientOutbox participant : participants) {
+            if (participant != sender && !participant.offer(frame)) {
+                participants.remove(participant);
+            }
+        }
+    }
+
+    /**
+     * @return the number of connected participants.
+     */
+    public int size() {
+        return participants.size();
+    }
+}
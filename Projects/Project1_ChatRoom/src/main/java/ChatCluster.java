@@ -0,0 +1,457 @@
+package Projects.Project1_ChatRoom.src.main.java;
+
+import Common.src.main.java.FrameCodec;
+import Common.src.main.java.FrameReader;
+import Common.src.main.java.Metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Relays chat messages between the nodes of a cluster of chat servers.
+ * <p>
+ * Every node dials each peer it was started with and sends the messages its own clients publish
+ * over that link, so a client may connect to any node and still talk to everyone in its room.
+ * Nodes are meant to be started with the full list of the others, which yields one link per
+ * direction between every pair of nodes. Links speak the usual length-prefixed frames: the
+ * dialing node sends the {@value #HANDSHAKE} frame in place of a username, followed by binary
+ * frames whose first byte is their type:
+ * </p>
+ * <ul>
+ *     <li>{@code HELLO} (dialer): the dialer's origin id.</li>
+ *     <li>{@code RESUME} (acceptor): the last sequence number the acceptor has from that origin.</li>
+ *     <li>{@code MESSAGE} (dialer): sequence number, room name and message text.</li>
+ *     <li>{@code PING} (dialer): sent while idle so the link does not hit the socket timeout.</li>
+ * </ul>
+ * <p>
+ * Each node numbers its own messages consecutively and retains the latest {@value #RETAINED}
+ * in a ring. A receiving node applies the messages of one origin in sequence order and drops any
+ * sequence number it has already seen, so a link that reconnects resumes from the acceptor's last
+ * sequence without delivering a message twice, and a node that joins or restarts is sent the
+ * retained messages it is missing, which replicates the recent history of every room. The
+ * origin id includes the node's start time, so a restarted node numbers its messages afresh.
+ * The last sequence seen per origin is saved in the data directory once per second and on
+ * shutdown; only the newest origin of each node name is kept, since a node never sends under the
+ * origin of an earlier run again.
+ * </p>
+ * <p>
+ * Messages are relayed by their origin only and never forwarded, so per-origin order is the order
+ * of the origin's link; messages of different origins may interleave differently on each node.
+ * </p>
+ */
+public class ChatCluster {
+    /**
+     * First frame of a peer link, distinguishing it from a client connection.
+     */
+    public static final String HANDSHAKE = "CHATPEER1";
+
+    static final byte HELLO = 1;
+    static final byte RESUME = 2;
+    static final byte MESSAGE = 3;
+    static final byte PING = 4;
+
+    /**
+     * Number of the node's own messages kept for peers that reconnect or join.
+     */
+    static final int RETAINED = 4096;
+    /**
+     * Maximum number of messages written to a link before flushing.
+     */
+    private static final int BATCH_SIZE = 256;
+    /**
+     * Idle time after which a link sends a ping; well below the socket timeout of the acceptor.
+     */
+    private static final long PING_INTERVAL_MILLIS = 15_000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final int MAX_FRAME_LENGTH = 64 * 1024;
+    private static final String SEQUENCES_FILE = "cluster-sequences.properties";
+
+    /**
+     * A message published on this node, as retained for the links.
+     */
+    private record Relayed(long sequence, String room, String message) {
+    }
+
+    private final String origin;
+    private final Path sequencesFile;
+    /**
+     * Hands a message received from a peer to its room on this node.
+     */
+    private final BiConsumer<String, String> delivery;
+
+    /**
+     * The node's own recent messages; {@code ring[s % RETAINED]} holds sequence {@code s}.
+     * Guarded by this object's monitor, which links wait on for new messages.
+     */
+    private final Relayed[] ring = new Relayed[RETAINED];
+    private long nextSequence = 1;
+    private final List<Link> links = new ArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * The last sequence number applied per origin.
+     */
+    private final ConcurrentHashMap<String, AtomicLong> lastSeen = new ConcurrentHashMap<>();
+    private volatile boolean sequencesChanged;
+
+    private final LongAdder relayed = Metrics.counter("cluster.relayed");
+    private final LongAdder received = Metrics.counter("cluster.received");
+    private final LongAdder duplicates = Metrics.counter("cluster.duplicates");
+    /**
+     * Messages of a peer that were lost because they had left its retention ring before delivery.
+     */
+    private final LongAdder gaps = Metrics.counter("cluster.gaps");
+    private final LongAdder linksUp = Metrics.counter("cluster.links.connected");
+    private final LongAdder inboundLinks = Metrics.counter("cluster.links.inbound");
+
+    /**
+     * Creates the cluster member of a node and loads the sequences it has seen from other nodes.
+     *
+     * @param nodeName      the node's name, e.g. {@code node-5556}.
+     * @param dataDirectory the node's data directory.
+     * @param delivery      applies a message received from a peer: room name, message text.
+     * @throws IOException if the saved sequences cannot be read.
+     */
+    public ChatCluster(String nodeName, Path dataDirectory, BiConsumer<String, String> delivery) throws IOException {
+        this.origin = nodeName + "@" + System.currentTimeMillis();
+        this.sequencesFile = dataDirectory.resolve(SEQUENCES_FILE);
+        this.delivery = delivery;
+        if (Files.exists(sequencesFile)) {
+            Properties saved = new Properties();
+            try (InputStream in = Files.newInputStream(sequencesFile)) {
+                saved.load(in);
+            }
+            for (String key : saved.stringPropertyNames()) {
+                lastSeen.put(key, new AtomicLong(Long.parseLong(saved.getProperty(key))));
+            }
+            forgetEarlierRuns();
+        }
+    }
+
+    /**
+     * @return this node's origin id.
+     */
+    public String origin() {
+        return origin;
+    }
+
+    /**
+     * Starts dialing the peers and saving the seen sequences periodically.
+     *
+     * @param peers the addresses of the other nodes.
+     */
+    public void start(List<InetSocketAddress> peers) {
+        for (InetSocketAddress peer : peers) {
+            Link link = new Link(peer);
+            synchronized (this) {
+                links.add(link);
+            }
+            Thread thread = new Thread(link::run, "cluster-link-" + peer.getPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Metrics.gauge("cluster.links", () -> {
+            synchronized (this) {
+                return links.size();
+            }
+        });
+
+        Thread saver = new Thread(() -> {
+            while (!closed) {
+                try {
+                    TimeUnit.SECONDS.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                saveSequences();
+            }
+        }, "cluster-sequences");
+        saver.setDaemon(true);
+        saver.start();
+    }
+
+    /**
+     * Queues a message published by a client of this node for every peer.
+     *
+     * @param room    the room name.
+     * @param message the message text.
+     */
+    public synchronized void relay(String room, String message) {
+        if (links.isEmpty()) {
+            return;
+        }
+        long sequence = nextSequence++;
+        ring[(int) (sequence % RETAINED)] = new Relayed(sequence, room, message);
+        relayed.increment();
+        notifyAll();
+    }
+
+    /**
+     * Waits for messages a link has not sent yet.
+     *
+     * @param next      the sequence number the link sends next.
+     * @param maxMillis how long to wait for a message.
+     * @return up to {@link #BATCH_SIZE} messages in sequence order, empty if none arrived in time.
+     */
+    private synchronized List<Relayed> messagesFrom(long next, long maxMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxMillis;
+        long remaining = maxMillis;
+        while (next >= nextSequence && remaining > 0 && !closed) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        // Messages that have left the ring are skipped; the receiver counts the gap.
+        long from = Math.max(next, nextSequence - RETAINED);
+        long to = Math.min(nextSequence, from + BATCH_SIZE);
+        List<Relayed> batch = new ArrayList<>((int) Math.max(0, to - from));
+        for (long sequence = from; sequence < to; sequence++) {
+            batch.add(ring[(int) (sequence % RETAINED)]);
+        }
+        return batch;
+    }
+
+    /**
+     * Serves a link dialed by a peer, applying its messages until the link closes.
+     *
+     * @param socket the link's socket; its handshake frame has been read from {@code in}.
+     * @param in     the reader of the link.
+     * @throws IOException if the link fails or a frame is malformed.
+     */
+    public void serveInbound(Socket socket, FrameReader in) throws IOException {
+        inboundLinks.increment();
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream frame = nextFrame(in);
+            if (frame.readByte() != HELLO) {
+                throw new IOException("Peer link did not start with HELLO");
+            }
+            String peerOrigin = frame.readUTF();
+            AtomicLong seen = lastSeen.computeIfAbsent(peerOrigin, ignored -> new AtomicLong());
+            forgetEarlierRuns();
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream bodyData = new DataOutputStream(body);
+            bodyData.writeByte(RESUME);
+            bodyData.writeLong(seen.get());
+            writeFrame(out, body);
+            out.flush();
+            System.out.println("Peer " + peerOrigin + " connected from " + socket.getRemoteSocketAddress()
+                    + ", resuming after message " + seen.get());
+
+            while (true) {
+                frame = nextFrame(in);
+                byte type = frame.readByte();
+                if (type == PING) {
+                    continue;
+                }
+                if (type != MESSAGE) {
+                    throw new IOException("Unexpected peer frame type " + type);
+                }
+                long sequence = frame.readLong();
+                String room = frame.readUTF();
+                String message = frame.readUTF();
+                received.increment();
+                long previous = seen.get();
+                if (sequence <= previous || !seen.compareAndSet(previous, sequence)) {
+                    duplicates.increment();
+                    continue;
+                }
+                if (sequence > previous + 1) {
+                    gaps.add(sequence - previous - 1);
+                }
+                sequencesChanged = true;
+                delivery.accept(room, message);
+            }
+        } finally {
+            inboundLinks.decrement();
+        }
+    }
+
+    /**
+     * Drops the sequences of the earlier runs of every node, keeping only its newest origin: a
+     * restarted node numbers its messages under a new origin and never sends under the old one again.
+     */
+    private void forgetEarlierRuns() {
+        Map<String, String> newest = new HashMap<>();
+        for (String seenOrigin : lastSeen.keySet()) {
+            newest.merge(nodeOf(seenOrigin), seenOrigin, (a, b) -> startOf(a) >= startOf(b) ? a : b);
+        }
+        if (lastSeen.keySet().retainAll(newest.values())) {
+            sequencesChanged = true;
+        }
+    }
+
+    /**
+     * @return the node name of an origin id, {@code nodeName@startTime}.
+     */
+    private static String nodeOf(String origin) {
+        int separator = origin.lastIndexOf('@');
+        return separator < 0 ? origin : origin.substring(0, separator);
+    }
+
+    /**
+     * @return the start time of an origin id, or -1 if it has none.
+     */
+    private static long startOf(String origin) {
+        try {
+            return Long.parseLong(origin.substring(origin.lastIndexOf('@') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Saves the last sequence seen per origin, if it changed since the last save.
+     */
+    public void saveSequences() {
+        if (!sequencesChanged) {
+            return;
+        }
+        sequencesChanged = false;
+        Properties saved = new Properties();
+        for (Map.Entry<String, AtomicLong> entry : lastSeen.entrySet()) {
+            saved.setProperty(entry.getKey(), Long.toString(entry.getValue().get()));
+        }
+        Path temporary = sequencesFile.resolveSibling(SEQUENCES_FILE + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                saved.store(out, "Last message sequence applied per origin node");
+            }
+            Files.move(temporary, sequencesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            sequencesChanged = true;
+            System.out.println("Could not save cluster sequences: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the links and saves the seen sequences.
+     */
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            notifyAll();
+        }
+        saveSequences();
+    }
+
+    private static DataInputStream nextFrame(FrameReader in) throws IOException {
+        int length = in.readFrame();
+        if (length < 0) {
+            throw new IOException("Invalid peer frame length");
+        }
+        return new DataInputStream(new ByteArrayInputStream(in.buffer(), 0, length));
+    }
+
+    private static void writeFrame(DataOutputStream out, ByteArrayOutputStream body) throws IOException {
+        out.writeInt(body.size());
+        body.writeTo(out);
+        body.reset();
+    }
+
+    /**
+     * An outbound link to one peer, reconnecting with exponential backoff until the node stops.
+     */
+    private final class Link {
+        private final InetSocketAddress peer;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final DataOutputStream bodyData = new DataOutputStream(body);
+
+        Link(InetSocketAddress peer) {
+            this.peer = peer;
+        }
+
+        void run() {
+            long backoff = 500;
+            while (!closed) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(peer, CONNECT_TIMEOUT_MILLIS);
+                    socket.setTcpNoDelay(true);
+                    linksUp.increment();
+                    try {
+                        backoff = 500;
+                        send(socket);
+                    } finally {
+                        linksUp.decrement();
+                    }
+                } catch (IOException e) {
+                    System.out.println("Link to peer " + peer + " down: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(backoff);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+            }
+        }
+
+        /**
+         * Introduces this node, then sends the messages the peer is missing and every new one.
+         */
+        private void send(Socket socket) throws IOException, InterruptedException {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            // A frame whose write failed on the previous connection may still be in the reused body.
+            body.reset();
+            out.write(FrameCodec.encode(HANDSHAKE));
+            bodyData.writeByte(HELLO);
+            bodyData.writeUTF(origin);
+            writeFrame(out, body);
+            out.flush();
+
+            FrameReader in = new FrameReader(socket.getInputStream(), MAX_FRAME_LENGTH);
+            try {
+                DataInputStream frame = nextFrame(in);
+                if (frame.readByte() != RESUME) {
+                    // Typically the "server busy" frame of a saturated peer.
+                    throw new IOException("Peer refused the link: " + in.payloadAsString());
+                }
+                long next = frame.readLong() + 1;
+                System.out.println("Link to peer " + peer + " up, sending from message " + next);
+
+                while (!closed) {
+                    List<Relayed> batch = messagesFrom(next, PING_INTERVAL_MILLIS);
+                    if (batch.isEmpty()) {
+                        bodyData.writeByte(PING);
+                        writeFrame(out, body);
+                    }
+                    for (Relayed message : batch) {
+                        bodyData.writeByte(MESSAGE);
+                        bodyData.writeLong(message.sequence());
+                        bodyData.writeUTF(message.room());
+                        bodyData.writeUTF(message.message());
+                        writeFrame(out, body);
+                        next = message.sequence() + 1;
+                    }
+                    out.flush();
+                }
+            } finally {
+                in.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package Projects.Project1_ChatRoom.src.main.java;
+
+import Common.src.main.java.FrameCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity ring buffer of the most recent chat messages.
+ * <p>
+ * Messages are stored already encoded as UTF-8 lines, so a history dump never re-encodes them.
+ * The buffer has a single writer: {@link #append} must not be called concurrently, which the
+ * chat server guarantees by appending from within its publish path. Readers never lock. Each
+ * slot remembers the sequence number of the message it holds, so a reader that races with the
+ * writer simply skips slots that have already been overwritten by newer messages.
+ * </p>
+ * <p>
+ * The encoded history frame handed to joining clients is cached together with the version it
+ * was built from and only rebuilt after a new message has been appended, so a burst of joins
+ * between two messages shares one immutable array.
+ * </p>
+ */
+public class ChatHistory {
+
+    /**
+     * A message stored in the ring together with its sequence number.
+     */
+    private record Entry(long sequence, byte[] line) {
+    }
+
+    /**
+     * The encoded history frame for one version of the history.
+     */
+    private record Snapshot(long version, byte[] frame) {
+    }
+
+    /**
+     * Slots of the ring; the message with sequence {@code s} lives in slot {@code s % capacity}.
+     */
+    private final AtomicReferenceArray<Entry> entries;
+    /**
+     * UTF-8 bytes of the title that precedes the messages in a history frame.
+     */
+    private final byte[] title;
+    /**
+     * Number of messages appended so far; also the sequence number of the next message.
+     */
+    private volatile long version;
+    /**
+     * The most recently built history frame.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param capacity maximum number of messages kept.
+     * @param title    text placed before the messages in a history frame.
+     */
+    public ChatHistory(int capacity, String title) {
+        this.entries = new AtomicReferenceArray<>(capacity);
+        this.title = title.getBytes(StandardCharsets.UTF_8);
+        this.snapshot = new Snapshot(0, buildFrame(0));
+    }
+
+    /**
+     * Appends a message, evicting the oldest one once the history is full.
+     * <p>
+     * Must only be called by one thread at a time.
+     * </p>
+     *
+     * @param message the message to append.
+     */
+    public void append(String message) {
+        long sequence = version;
+        byte[] line = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        entries.set((int) (sequence % entries.length()), new Entry(sequence, line));
+        // Publishing the new version makes the entry visible to readers.
+        version = sequence + 1;
+    }
+
+    /**
+     * @return the number of messages appended so far.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Returns the length-prefixed frame containing the title followed by the retained messages.
+     * <p>
+     * The returned array is shared and must not be modified.
+     * </p>
+     *
+     * @return the encoded history frame for the current version.
+     */
+    public byte[] snapshotFrame() {
+        Snapshot cached = snapshot;
+        long current = version;
+        if (cached.version() == current) {
+            return cached.frame();
+        }
+        Snapshot rebuilt = new Snapshot(current, buildFrame(current));
+        // A concurrent reader may have built an even newer snapshot; keep whichever is newest.
+        if (rebuilt.version() > snapshot.version()) {
+            snapshot = rebuilt;
+        }
+        return rebuilt.frame();
+    }
+
+    /**
+     * Encodes the messages that precede the given version into a length-prefixed frame.
+     *
+     * @param upTo the version whose history should be encoded.
+     * @return the encoded frame.
+     */
+    private byte[] buildFrame(long upTo) {
+        long from = Math.max(0, upTo - entries.length());
+        Entry[] lines = new Entry[(int) (upTo - from)];
+        int length = title.length;
+        for (long sequence = from; sequence < upTo; sequence++) {
+            Entry entry = entries.get((int) (sequence % entries.length()));
+            // Skip slots that the writer has already reused for newer messages.
+            if (entry != null && entry.sequence() == sequence) {
+                lines[(int) (sequence - from)] = entry;
+                length += entry.line().length;
+            }
+        }
+
+        byte[] frame = new byte[FrameCodec.HEADER_LENGTH + length];
+        FrameCodec.putHeader(frame, 0, length);
+        System.arraycopy(title, 0, frame, FrameCodec.HEADER_LENGTH, title.length);
+        int position = FrameCodec.HEADER_LENGTH + title.length;
+        for (Entry entry : lines) {
+            if (entry != null) {
+                System.arraycopy(entry.line(), 0, frame, position, entry.line().length);
+                position += entry.line().length;
+            }
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,264 @@
+package Projects.Project1_ChatRoom.src.main.java;
+
+import Common.src.main.java.FrameCodec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Segmented, append-only, memory-mapped log holding the entire history of the chat room.
+ * <p>
+ * Every message gets a logical offset, its position in the room's history starting at 0, and is
+ * stored exactly as it travels on the wire: a length-prefixed frame. Because consecutive
+ * messages are consecutive frames, a page of history is a contiguous byte range of a segment
+ * that can be sent to a client as is, via {@link FileChannel#transferTo}, without decoding it
+ * or loading it into the heap.
+ * </p>
+ * <p>
+ * A segment is a pre-sized data file plus an index file, both memory-mapped. Entry {@code i} of
+ * the index holds the end position of the segment's {@code i}-th message, so locating any
+ * message is O(1). The data is written before the index entry, and an index entry of 0 marks the
+ * end of the segment, so a message interrupted by a crash is simply not part of the log.
+ * </p>
+ * <p>
+ * The log has a single writer: {@link #append} must not be called concurrently, which the chat
+ * server guarantees by appending from its publish path. Page lookups may run concurrently with it.
+ * </p>
+ */
+public class ChatLog implements Closeable {
+    /**
+     * Size in bytes of a segment's data file.
+     */
+    private static final int SEGMENT_BYTES = 16 * 1024 * 1024;
+    /**
+     * Maximum number of messages in one segment.
+     */
+    private static final int SEGMENT_MESSAGES = 64 * 1024;
+
+    /**
+     * A byte range of a segment file holding consecutive message frames.
+     *
+     * @param channel  the segment's data file.
+     * @param position the position of the first frame.
+     * @param count    the number of bytes.
+     */
+    public record Region(FileChannel channel, long position, long count) {
+    }
+
+    /**
+     * One data file and its index.
+     */
+    private static final class Segment {
+        /**
+         * Offset of the segment's first message.
+         */
+        private final long baseOffset;
+        private final FileChannel dataChannel;
+        private final FileChannel indexChannel;
+        private final MappedByteBuffer data;
+        private final MappedByteBuffer index;
+        /**
+         * Number of messages in the segment; written by the appender after the message is complete.
+         */
+        private volatile int messageCount;
+
+        private Segment(Path directory, long baseOffset) throws IOException {
+            this.baseOffset = baseOffset;
+            String name = String.format("chat-%020d", baseOffset);
+            this.dataChannel = FileChannel.open(directory.resolve(name + ".log"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.indexChannel = FileChannel.open(directory.resolve(name + ".index"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+            this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) SEGMENT_MESSAGES * Integer.BYTES);
+
+            // Recover the number of complete messages: the index ends at the first empty entry.
+            int count = 0;
+            while (count < SEGMENT_MESSAGES && index.getInt(count * Integer.BYTES) != 0) {
+                count++;
+            }
+            this.messageCount = count;
+        }
+
+        /**
+         * @return the end position of a message, or 0 for the start of the segment.
+         */
+        private int endOf(int message) {
+            return message < 0 ? 0 : index.getInt(message * Integer.BYTES);
+        }
+
+        private boolean fits(int frameLength) {
+            return messageCount < SEGMENT_MESSAGES && endOf(messageCount - 1) + frameLength <= SEGMENT_BYTES;
+        }
+
+        private void append(byte[] frame) {
+            int start = endOf(messageCount - 1);
+            data.put(start, frame);
+            index.putInt(messageCount * Integer.BYTES, start + frame.length);
+            messageCount++;
+        }
+
+        private void close() throws IOException {
+            data.force();
+            index.force();
+            dataChannel.close();
+            indexChannel.close();
+        }
+    }
+
+    private final Path directory;
+    /**
+     * Segments in offset order; the last one is appended to.
+     */
+    private final CopyOnWriteArrayList<Segment> segments = new CopyOnWriteArrayList<>();
+    /**
+     * Total number of messages, i.e. the offset the next message gets.
+     */
+    private volatile long size;
+
+    /**
+     * Opens the log in a directory, recovering the segments it already holds.
+     *
+     * @param directory the directory holding the segment files; created if missing.
+     * @throws IOException if the segments cannot be opened.
+     */
+    public ChatLog(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        List<Long> baseOffsets = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "chat-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                baseOffsets.add(Long.parseLong(name.substring("chat-".length(), name.length() - ".log".length())));
+            }
+        }
+        baseOffsets.sort(null);
+        for (long baseOffset : baseOffsets) {
+            segments.add(new Segment(directory, baseOffset));
+        }
+        if (segments.isEmpty()) {
+            segments.add(new Segment(directory, 0));
+        }
+        Segment last = segments.get(segments.size() - 1);
+        this.size = last.baseOffset + last.messageCount;
+    }
+
+    /**
+     * Appends a message frame.
+     * <p>
+     * Must only be called by one thread at a time.
+     * </p>
+     *
+     * @param frame the complete length-prefixed frame of the message.
+     * @return the offset of the message.
+     * @throws IOException if a new segment is needed and cannot be created.
+     */
+    public long append(byte[] frame) throws IOException {
+        Segment segment = segments.get(segments.size() - 1);
+        if (!segment.fits(frame.length)) {
+            segment = new Segment(directory, size);
+            segments.add(segment);
+        }
+        segment.append(frame);
+        // Publishing the new size makes the message visible to page lookups.
+        return size++;
+    }
+
+    /**
+     * @return the number of messages in the log, which is also the offset of the next message.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Locates the messages immediately preceding an offset.
+     *
+     * @param before   the offset before which the page ends (exclusive); clamped to the log size.
+     * @param maxCount the maximum number of messages in the page.
+     * @return the byte ranges holding the page's frames in order; more than one if the page spans segments.
+     */
+    public List<Region> pageBefore(long before, int maxCount) {
+        long end = Math.min(before, size);
+        long start = Math.max(0, end - maxCount);
+        List<Region> regions = new ArrayList<>();
+        for (Segment segment : segments) {
+            long segmentEnd = segment.baseOffset + segment.messageCount;
+            if (segmentEnd <= start || segment.baseOffset >= end) {
+                continue;
+            }
+            int first = (int) (Math.max(start, segment.baseOffset) - segment.baseOffset);
+            int last = (int) (Math.min(end, segmentEnd) - segment.baseOffset);
+            long from = segment.endOf(first - 1);
+            long to = segment.endOf(last - 1);
+            regions.add(new Region(segment.dataChannel, from, to - from));
+        }
+        return regions;
+    }
+
+    /**
+     * Decodes the most recent messages, e.g. to seed the in-memory history after a restart.
+     *
+     * @param maxCount the maximum number of messages.
+     * @return the messages, oldest first.
+     */
+    public List<String> latest(int maxCount) {
+        List<String> messages = new ArrayList<>();
+        long end = size;
+        for (long offset = Math.max(0, end - maxCount); offset < end; offset++) {
+            messages.add(read(offset));
+        }
+        return messages;
+    }
+
+    /**
+     * Decodes one message.
+     *
+     * @param offset the offset of the message.
+     * @return the message text.
+     * @throws IllegalArgumentException if no message has that offset.
+     */
+    public String read(long offset) {
+        if (offset < 0 || offset >= size) {
+            throw new IllegalArgumentException("No message at offset " + offset);
+        }
+        // Binary search for the last segment starting at or before the offset.
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segments.get(middle).baseOffset <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        Segment segment = segments.get(low);
+        int message = (int) (offset - segment.baseOffset);
+        int from = segment.endOf(message - 1) + FrameCodec.HEADER_LENGTH;
+        byte[] text = new byte[segment.endOf(message) - from];
+        segment.data.get(from, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Flushes the mapped segments to disk and closes them.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+}
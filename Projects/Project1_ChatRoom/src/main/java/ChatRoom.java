@@ -0,0 +1,226 @@
+package Projects.Project1_ChatRoom.src.main.java;
+
+import Common.src.main.java.FrameCodec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+/**
+ * One named chat room: its participants, its recent history and its on-disk log.
+ * <p>
+ * A room is pinned to one single-threaded shard of {@link ChatRooms}. Every operation that reads
+ * or changes the room's state runs as a task on that shard, so the state needs no locks: joins,
+ * messages and history requests of one room are simply executed one after another, in the order
+ * they were submitted. Only {@link #name()}, {@link #shard()}, {@link #participants()},
+ * {@link #messages()} and {@link #searchIndexBytes()} may be called from other threads.
+ * </p>
+ */
+public class ChatRoom implements Closeable {
+    /**
+     * Maximum number of messages returned by one {@code /history} request.
+     */
+    static final int HISTORY_PAGE_SIZE = 20;
+    /**
+     * Maximum number of messages returned by one {@code /search} request.
+     */
+    static final int SEARCH_RESULTS = 20;
+    /**
+     * Number of logged messages indexed for search when a room is opened; older ones would be evicted anyway.
+     */
+    static final int REINDEXED_MESSAGES = 16 * ChatSearchIndex.BLOCK_MESSAGES;
+
+    private final String name;
+    private final Executor shard;
+    /**
+     * The most recent messages, kept pre-encoded for joining clients.
+     */
+    private final ChatHistory history;
+    /**
+     * Live participants of the room.
+     */
+    private final ChatBroadcaster broadcaster = new ChatBroadcaster();
+    /**
+     * The entire history of the room, stored on disk.
+     */
+    private final ChatLog log;
+    /**
+     * Index of the room's recent messages by word and sender.
+     */
+    private final ChatSearchIndex searchIndex = new ChatSearchIndex(ChatSearchIndex.DEFAULT_BUDGET);
+
+    /**
+     * Opens a room, restoring its recent history and search index from its log.
+     *
+     * @param name            the room name.
+     * @param directory       the directory of the room's log.
+     * @param historyCapacity the number of recent messages sent to joining participants.
+     * @param historyTitle    the text preceding the recent messages.
+     * @param shard           the single-threaded executor the room's tasks run on.
+     * @throws IOException if the log cannot be opened.
+     */
+    public ChatRoom(String name, Path directory, int historyCapacity, String historyTitle, Executor shard) throws IOException {
+        this.name = name;
+        this.shard = shard;
+        this.history = new ChatHistory(historyCapacity, historyTitle);
+        this.log = new ChatLog(directory);
+        for (String message : log.latest(historyCapacity)) {
+            history.append(message);
+        }
+        for (long offset = Math.max(0, log.size() - REINDEXED_MESSAGES); offset < log.size(); offset++) {
+            searchIndex.add(offset, log.read(offset));
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the executor every operation on the room must be submitted to.
+     */
+    public Executor shard() {
+        return shard;
+    }
+
+    /**
+     * @return the number of connected participants.
+     */
+    public int participants() {
+        return broadcaster.size();
+    }
+
+    /**
+     * @return the number of messages in the room's log.
+     */
+    public long messages() {
+        return log.size();
+    }
+
+    /**
+     * @return the estimated memory taken by the room's search index, in bytes.
+     */
+    public long searchIndexBytes() {
+        return searchIndex.bytes();
+    }
+
+    /**
+     * Sends the recent history to a new participant and registers it for subsequent messages.
+     * <p>
+     * Joins and messages run on the same shard, so a message is either part of the history the
+     * participant receives or delivered to it afterwards, never both or neither.
+     * </p>
+     *
+     * @param outbox the new participant's outbox.
+     */
+    public void join(ClientOutbox outbox) {
+        outbox.offer(history.snapshotFrame());
+        broadcaster.register(outbox);
+    }
+
+    /**
+     * Removes a participant; it receives no messages published after this.
+     *
+     * @param outbox the participant's outbox.
+     */
+    public void leave(ClientOutbox outbox) {
+        broadcaster.unregister(outbox);
+    }
+
+    /**
+     * Records a message in the log, history and search index and delivers it to every other participant.
+     *
+     * @param message the received message.
+     * @param sender  the outbox of the sending participant.
+     */
+    public void publish(String message, ClientOutbox sender) {
+        byte[] frame = FrameCodec.encode(message);
+        try {
+            // Only logged messages are indexed: a search finds messages by their offset in the log.
+            searchIndex.add(log.append(frame), message);
+        } catch (IOException e) {
+            System.out.println("Could not append to the log of room " + name + ": " + e.getMessage());
+        }
+        history.append(message);
+        broadcaster.broadcast(frame, sender);
+    }
+
+    /**
+     * Sends a page of the room's log to a participant.
+     * <p>
+     * The page is announced by a header frame giving its offsets, followed by the messages
+     * themselves, which are transferred from the log files without being decoded or loaded into
+     * the heap.
+     * </p>
+     *
+     * @param arguments the text following the command: empty for the latest page, or the offset
+     *                  before which the page ends.
+     * @param outbox    the requesting participant's outbox.
+     */
+    public void sendHistoryPage(String arguments, ClientOutbox outbox) {
+        long before;
+        try {
+            before = arguments.isEmpty() ? Long.MAX_VALUE : Long.parseLong(arguments);
+        } catch (NumberFormatException e) {
+            outbox.offer(FrameCodec.encode("Usage: " + ChatRoomServer.HISTORY_COMMAND + " [offset]"));
+            return;
+        }
+
+        long end = Math.max(0, Math.min(before, log.size()));
+        long start = Math.max(0, end - HISTORY_PAGE_SIZE);
+        if (start == end) {
+            outbox.offer(FrameCodec.encode("No chat history in " + name + " before offset " + end + "."));
+            return;
+        }
+
+        // Header, then the message frames straight from the log.
+        String header = "Chat history of " + name + ", messages " + start + " to " + (end - 1)
+                + (start > 0 ? " (" + ChatRoomServer.HISTORY_COMMAND + " " + start + " for older):" : ":");
+        outbox.offer(FrameCodec.encode(header));
+        for (ChatLog.Region region : log.pageBefore(end, HISTORY_PAGE_SIZE)) {
+            outbox.offer(region);
+        }
+    }
+
+    /**
+     * Sends the room's recent messages best matching a query to a participant.
+     * <p>
+     * The matches are sent in one frame, best first, each preceded by its offset, from which
+     * {@code /history} pages through the conversation around it.
+     * </p>
+     *
+     * @param query  the text following the command: words and at most one {@code @name}.
+     * @param outbox the requesting participant's outbox.
+     */
+    public void sendSearchResults(String query, ClientOutbox outbox) {
+        ChatSearchIndex.Result result;
+        try {
+            result = searchIndex.search(query, SEARCH_RESULTS);
+        } catch (IllegalArgumentException e) {
+            outbox.offer(FrameCodec.encode(e.getMessage() + " Usage: "
+                    + ChatRoomServer.SEARCH_COMMAND + " <words> [@name]"));
+            return;
+        }
+        if (result.offsets().length == 0) {
+            outbox.offer(FrameCodec.encode("No messages in " + name + " match \"" + query + "\"."));
+            return;
+        }
+
+        StringBuilder text = new StringBuilder("Search results in ").append(name).append(" for \"").append(query)
+                .append("\", ").append(result.offsets().length).append(" of ").append(result.matches())
+                .append(" matches since offset ").append(searchIndex.oldestOffset()).append(':');
+        for (long offset : result.offsets()) {
+            text.append("\n  ").append(offset).append("  ").append(log.read(offset));
+        }
+        outbox.offer(FrameCodec.encode(text.toString()));
+    }
+
+    /**
+     * Flushes and closes the room's log; called once the shard has stopped.
+     */
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+}
@@ -1,11 +1,20 @@
 package Projects.Project1_ChatRoom.src.main.java;
 
+import Common.src.main.java.FrameCodec;
+import Common.src.main.java.FrameCompressor;
+import Common.src.main.java.FrameReader;
+
 import java.io.*;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
 
 public class ChatRoomClientOne {
+    /**
+     * Largest frame accepted from the server: ample for the history, room list and search results,
+     * whose messages are at most 10,000 bytes each.
+     */
+    private static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
     public static void main(String[] args) {
         // Hostname of the server to connect to.
         String hostName = "localhost";
@@ -19,22 +28,30 @@ public class ChatRoomClientOne {
                 DataOutputStream out = new DataOutputStream(mySocket.getOutputStream())
         ) {
             System.out.println("Connected to \"" + hostName + "\" server on port " + portNumber);
+            FrameReader frames = new FrameReader(in, MAX_FRAME_LENGTH);
+
+            // Ask for compressed frames, which shrinks the chat history, unless -Dcompression=false
+            if (Boolean.parseBoolean(System.getProperty(FrameCompressor.ENABLED_PROPERTY, "true"))) {
+                out.write(FrameCodec.encode(FrameCompressor.HANDSHAKE));
+                if (frames.readFrame() >= 0 && frames.payloadAsString().equals(FrameCompressor.HANDSHAKE)) {
+                    frames.enableDecompression(ChatRoomServer.COMPRESSION_DICTIONARY);
+                }
+            }
             System.out.print("Enter your temporary username -> ");
             String userName = stdIn.readLine();
 
             // Sends username to server to be displayed
             String introMessage = userName + ", has entered the chat.";
-            out.writeInt(introMessage.getBytes().length);
-            out.write(introMessage.getBytes());
+            out.write(FrameCodec.encode(introMessage));
+
+            // Receive and display the chat history
+            frames.readFrame();
+            System.out.println(frames.payloadAsString());
 
-            // Receive the length of the chat history
-            int length = in.readInt();
-            // Receive the actual chat history
-            byte[] chatBytes = new byte[length];
-            in.readFully(chatBytes);
-            String chat = new String(chatBytes, StandardCharsets.UTF_8);
-            // Display the chat history.
-            System.out.println(chat);
+            // Print messages from the other participants as the server relays them.
+            Thread receiver = new Thread(() -> receiveMessages(frames));
+            receiver.setDaemon(true);
+            receiver.start();
 
             while (true) {
                 // Read user input.
@@ -45,10 +62,11 @@ public class ChatRoomClientOne {
                     continue;
                 }
 
-                // Convert user input to bytes and send to server.
-                byte[] bytes = ("[" + userName + "]: " + userInput).getBytes(StandardCharsets.UTF_8);
-                out.writeInt(bytes.length);
-                out.write(bytes);
+                // Commands such as "/history [offset]", "/search <words> [@name]", "/join <room>", "/leave" and "/rooms" go to the server as typed, messages carry the username.
+                String message = userInput.startsWith("/") ? userInput : "[" + userName + "]: " + userInput;
+
+                // Convert the message to a frame and send it to the server in one write.
+                out.write(FrameCodec.encode(message));
             }
         } catch (UnknownHostException e) {
             // Handle errors related to unknown hosts.
@@ -62,4 +80,24 @@ public class ChatRoomClientOne {
 
     }
 
+    /**
+     * Reads and prints the messages relayed by the server until the connection is lost.
+     *
+     * @param frames the reader of the frames sent by the server.
+     */
+    private static void receiveMessages(FrameReader frames) {
+        try {
+            while (true) {
+                if (frames.readFrame() < 0) {
+                    System.err.println("Received a frame longer than " + MAX_FRAME_LENGTH + " bytes.");
+                    System.exit(1);
+                }
+                System.out.println(frames.payloadAsString());
+            }
+        } catch (IOException e) {
+            System.err.println("Connection to server lost.");
+            System.exit(1);
+        }
+    }
+
 }
@@ -1,24 +1,39 @@
 package Projects.Project1_ChatRoom.src.main.java;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import Common.src.main.java.AcceptorGroup;
+import Common.src.main.java.AdmissionController;
+import Common.src.main.java.AsyncLogger;
+import Common.src.main.java.FrameCodec;
+import Common.src.main.java.FrameCompressor;
+import Common.src.main.java.FrameReader;
+import Common.src.main.java.LatencyHistogram;
+import Common.src.main.java.Metrics;
+import Common.src.main.java.TokenBucket;
+
 import java.io.EOFException;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ChatRoomServer {
     /**
-     * The port number on which the server listens.
+     * The port number on which the server listens unless another one is given on the command line.
      */
     private static final int PORT_NUMBER = 5555;
+    /**
+     * The port number on which the server listens; set by {@link #main}.
+     */
+    private static int port = PORT_NUMBER;
     /**
      * Maximum allowed message length in bytes.
      */
@@ -28,50 +43,152 @@ public class ChatRoomServer {
      */
     private static final int SOCKET_TIMEOUT = 60_000;
     private static final int N_CHAT_HISTORY_MESSAGES = 10;
-    private static final LinkedList<String> chatHistory = new LinkedList<>();
+    /**
+     * Command prefix requesting a page of older messages: {@code /history} or {@code /history <offset>}.
+     */
+    static final String HISTORY_COMMAND = "/history";
+    /**
+     * Command searching the current room's recent messages: {@code /search <words> [@name]}.
+     */
+    static final String SEARCH_COMMAND = "/search";
+    /**
+     * Command moving the participant to another room, created if needed: {@code /join <room>}.
+     */
+    private static final String JOIN_COMMAND = "/join";
+    /**
+     * Command returning the participant to the default room.
+     */
+    private static final String LEAVE_COMMAND = "/leave";
+    /**
+     * Command listing the rooms.
+     */
+    private static final String ROOMS_COMMAND = "/rooms";
+    /**
+     * Directory holding the on-disk chat logs; configurable with {@code -Dchat.dir=<path>}, and
+     * suffixed with the port when it is not the default so that nodes on one host keep apart.
+     */
+    private static Path dataDirectory;
+    /**
+     * Number of single-threaded shards the rooms are spread across; configurable with
+     * {@code -Dchat.shards=<count>}, defaults to the number of available processors.
+     */
+    private static final int SHARD_COUNT = Integer.getInteger("chat.shards", Runtime.getRuntime().availableProcessors());
+    /**
+     * Maximum number of frames that may wait for one client before it is disconnected.
+     */
+    private static final int OUTBOX_CAPACITY = 256;
+    /**
+     * Messages per second a participant may send before the server stops reading from it;
+     * configurable with {@code -Dadmission.rate}.
+     */
+    private static final double MESSAGES_PER_SECOND = 50;
+    /**
+     * Preset dictionary for clients that negotiate compression: text that recurs in chat
+     * history frames and room listings, the most frequent last.
+     */
+    static final byte[] COMPRESSION_DICTIONARY = ("Rooms (you are in  participants,  messages"
+            + "Chat history of , messages  to  (/history  for older):"
+            + "Recent Chat History of :\nRecent Chat History:\n"
+            + ", has entered the chat.\n[]: ").getBytes(StandardCharsets.UTF_8);
+    /**
+     * The rooms and the shards running them; opened by {@link #main}.
+     */
+    private static ChatRooms rooms;
+    /**
+     * Relays this node's messages to its peers and applies theirs; idle without peers.
+     */
+    private static ChatCluster cluster;
+    /**
+     * Writes queued frames to the participants' sockets, off the threads reading from clients.
+     */
+    private static final ExecutorService writerExecutor = Executors.newCachedThreadPool();
+    private static final LongAdder messagesPublished = Metrics.counter("chat.messages");
+    private static final LongAdder bytesIn = Metrics.counter("chat.bytesIn");
+    private static final LongAdder historyRequests = Metrics.counter("chat.history.requests");
+    private static final LongAdder searchRequests = Metrics.counter("chat.search.requests");
+    /**
+     * Time spent finding and rendering the results of one search on its room's shard, in nanoseconds.
+     */
+    private static final LatencyHistogram searchLatency = Metrics.histogram("chat.search.latency");
+    private static final LongAdder activeConnections = Metrics.counter("chat.connections.active");
+    /**
+     * Time spent logging, recording and fanning out one message on its room's shard, in nanoseconds.
+     */
+    private static final LatencyHistogram publishLatency = Metrics.histogram("chat.publish.latency");
+    /**
+     * Per-connection and per-message logging, printed off the connection threads at a bounded rate.
+     */
+    private static final AsyncLogger log = new AsyncLogger("chat", 100, 1000);
+    /**
+     * Limits the participants handled at once and the rate of each; created by {@link #main}.
+     */
+    private static AdmissionController admission;
 
+    /**
+     * Starts the chat server, alone or as one node of a cluster.
+     * <p>
+     * Usage: {@code ChatRoomServer [port [peer ...]]}, where each peer is the {@code host:port} or
+     * just the port of another node. A cluster of three nodes on one host, for example, is started
+     * with {@code ChatRoomServer 5555 5556 5557}, {@code ChatRoomServer 5556 5555 5557} and
+     * {@code ChatRoomServer 5557 5555 5556}; see {@link ChatCluster}. The node name used in the
+     * cluster defaults to {@code node-<port>} and is configurable with {@code -Dchat.node=<name>}.
+     * </p>
+     *
+     * @param args the optional port followed by the peers.
+     */
     public static void main(String[] args) {
-        try (ServerSocket serverSocket = new ServerSocket(ChatRoomServer.PORT_NUMBER)) {
-            // Initialization and display of server details.
-            System.out.println("Server started, waiting for client:" +
-                    " HostAddress: " + serverSocket.getInetAddress() +
-                    " PortNumber: " + PORT_NUMBER);
-
-            // ThreadPoolExecutor setup with specified parameters.
-            int corePoolSize = 5;
-            int maximumPoolSize = 50;
-            long keepAliveTime = 60L;
-            TimeUnit unit = TimeUnit.SECONDS;
-            BlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>(1000);
-            ThreadPoolExecutor executorService = new ThreadPoolExecutor(
-                    corePoolSize,
-                    maximumPoolSize,
-                    keepAliveTime,
-                    unit,
-                    workQueue
-            );
+        port = args.length > 0 ? Integer.parseInt(args[0]) : PORT_NUMBER;
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            peers.add(parsePeer(args[i]));
+        }
+        String defaultDirectory = port == PORT_NUMBER ? "chat-server-data" : "chat-server-data-" + port;
+        dataDirectory = Path.of(System.getProperty("chat.dir", defaultDirectory));
+
+        // Connection handling: a bounded thread pool or one virtual thread per client, shared out
+        // among the accept loops, pausing while the server is full and turning away clients that
+        // cannot be admitted.
+        int maximumPoolSize = 50;
+        int queueCapacity = 1000;
+        admission = new AdmissionController("chat",
+                AdmissionController.defaultMaxConnections(maximumPoolSize), MESSAGES_PER_SECOND);
 
-            // Adding a shutdown hook to gracefully shutdown the executor service.
+        // Server socket channels rather than plain server sockets, so that client sockets have a
+        // channel that chat log regions can be transferred to without copying.
+        try (AcceptorGroup acceptors = new AcceptorGroup("chat", port, maximumPoolSize, queueCapacity,
+                admission, ChatRoomServer.SOCKET_TIMEOUT, ChatRoomServer::handleClient)) {
+
+            // Open the rooms, restoring their recent history from their logs.
+            rooms = new ChatRooms(dataDirectory, SHARD_COUNT, N_CHAT_HISTORY_MESSAGES);
+            System.out.println("Chat logs at " + dataDirectory.toAbsolutePath() + " hold " + rooms.messages()
+                    + " messages in " + rooms.size() + " rooms, served by " + SHARD_COUNT + " shards");
+
+            // Join the cluster: peers receive this node's messages and send theirs.
+            cluster = new ChatCluster(System.getProperty("chat.node", "node-" + port), dataDirectory,
+                    ChatRoomServer::deliverRelayed);
+            cluster.start(peers);
+            if (!peers.isEmpty()) {
+                System.out.println("Cluster node " + cluster.origin() + " relaying to " + peers);
+            }
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                System.out.println("Shutting down executor...");
-                executorService.shutdown();
-                try {
-                    if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                        executorService.shutdownNow();
-                    }
-                } catch (InterruptedException e) {
-                    executorService.shutdownNow();
-                    e.printStackTrace();
-                }
-                System.out.println("Executor shutdown complete");
+                cluster.close();
+                rooms.close();
             }));
 
-            // Continuously accept incoming client connections and handle using the executor service.
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                clientSocket.setSoTimeout(ChatRoomServer.SOCKET_TIMEOUT);
-                executorService.execute(() -> handleClient(clientSocket));
-            }
+            // Publish the metrics over JMX and, with -Dmetrics.port, over plaintext HTTP.
+            Metrics.gauge("chat.rooms", () -> rooms.size());
+            Metrics.gauge("chat.participants", () -> rooms.participants());
+            Metrics.gauge("chat.log.messages", () -> rooms.messages());
+            Metrics.gauge("chat.search.bytes", () -> rooms.searchIndexBytes());
+            Metrics.expose("ChatRoomServer");
+
+            // Initialization and display of server details.
+            System.out.println("Server started, waiting for client:" +
+                    " HostAddress: " + acceptors.localAddress() +
+                    " PortNumber: " + port);
+
+            // Continuously accept incoming client connections, on one or more accept loops.
+            acceptors.run();
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -79,78 +196,255 @@ public class ChatRoomServer {
     }
 
     private static void handleClient(Socket clientSocket) {
-        try (
-                // Create output stream to send data to the client
-                DataOutputStream out = new DataOutputStream(clientSocket.getOutputStream());
+        ClientOutbox outbox = null;
+        FrameReader in = null;
+        ChatRoom room = rooms.lobby();
+        try (clientSocket) {
+            // Create a reader that receives frames from the client into a reusable buffer
+            in = new FrameReader(clientSocket.getInputStream(), ChatRoomServer.MAX_MESSAGE_LENGTH);
+            activeConnections.increment();
 
-                // Create input stream to receive data from the client
-                DataInputStream in = new DataInputStream(clientSocket.getInputStream())
-        ) {
             // Log the connection details for debugging purposes
-            System.out.println("Server connected to client through:" +
+            log.log("Server connected to client through:" +
                     " HostAddress: " + clientSocket.getInetAddress().getHostAddress() +
-                    " PortNumber: " + ChatRoomServer.PORT_NUMBER
+                    " PortNumber: " + ChatRoomServer.port
             );
 
+            // The first frame is the username announcement of a client, or the handshake of a peer node
+            if (in.readFrame() < 0) {
+                System.out.println("Invalid message length received");
+                return;
+            }
+            String firstMessage = in.payloadAsString();
+            if (firstMessage.equals(ChatCluster.HANDSHAKE)) {
+                cluster.serveInbound(clientSocket, in);
+                return;
+            }
 
-            // wait for username and print it
-            handleIncomingMessage(in);
+            // A client may first ask for compressed frames; confirm, then read its announcement
+            FrameCompressor compressor = null;
+            if (firstMessage.equals(FrameCompressor.HANDSHAKE)) {
+                clientSocket.getOutputStream().write(FrameCodec.encode(FrameCompressor.HANDSHAKE));
+                compressor = new FrameCompressor(COMPRESSION_DICTIONARY);
+                if (in.readFrame() < 0) {
+                    System.out.println("Invalid message length received");
+                    return;
+                }
+                firstMessage = in.payloadAsString();
+            }
+
+            // Everything sent to the client goes through its outbox
+            outbox = new ClientOutbox(clientSocket, OUTBOX_CAPACITY, writerExecutor, compressor);
 
-            // Sends the chat history message
-            out.writeInt(("Recent Chat History:\n" + getChat()).getBytes(StandardCharsets.UTF_8).length);
-            out.write(("Recent Chat History:\n" + getChat()).getBytes(StandardCharsets.UTF_8));
+            // Limit the rate at which messages are read from this participant, if configured
+            TokenBucket rateLimiter = admission.newRateLimiter();
 
+            // Sends the lobby's chat history and starts receiving its messages, then announces
+            // the username to the lobby
+            enterRoom(room, outbox);
+            bytesIn.add(FrameCodec.HEADER_LENGTH + in.length());
+            room = handleMessage(firstMessage, outbox, room);
 
             while (true) {
-                handleIncomingMessage(in);
+                admission.throttle(rateLimiter);
+                room = handleIncomingMessage(in, outbox, room);
             }
         } catch (SocketException e) {
             // Handle socket-related exceptions (e.g., connection reset or connection aborted)
-            System.out.println("Socket error on port " + ChatRoomServer.PORT_NUMBER);
+            System.out.println("Socket error on port " + ChatRoomServer.port);
             System.out.println("Message: " + e.getMessage());
         } catch (EOFException e) {
             // Handle cases where the client disconnects abruptly without a proper closure
             System.out.println("Client disconnected abruptly.");
         } catch (IOException e) {
             // Handle generic I/O exceptions
-            System.out.println("Exception caught when trying to communicate on port " + ChatRoomServer.PORT_NUMBER);
+            System.out.println("Exception caught when trying to communicate on port " + ChatRoomServer.port);
             System.out.println("Message: " + e.getMessage());
+        } finally {
+            if (outbox != null) {
+                ChatRoom current = room;
+                ClientOutbox closing = outbox;
+                onShard(current, () -> current.leave(closing));
+                outbox.close();
+            }
+            if (in != null) {
+                activeConnections.decrement();
+                in.release();
+            }
         }
     }
 
-    private synchronized static void updateChatHistory(String message) {
-        if (chatHistory.size() >= N_CHAT_HISTORY_MESSAGES) {
-            chatHistory.removeFirst();
-        }
-        chatHistory.addLast(message + "\n");
+    /**
+     * Sends a room's recent history to a participant and registers it for subsequent messages.
+     *
+     * @param room   the room to enter.
+     * @param outbox the participant's outbox.
+     */
+    private static void enterRoom(ChatRoom room, ClientOutbox outbox) {
+        onShard(room, () -> room.join(outbox));
     }
 
-    private synchronized static String getChat() {
-        StringBuilder chat = new StringBuilder();
-        for (String message : chatHistory) {
-            chat.append(message);
+    /**
+     * Moves a participant from one room to another.
+     * <p>
+     * The participant is removed from the old room by a task queued behind the messages it already
+     * sent there, and added to the new room by a task queued ahead of the messages it sends next,
+     * so each message lands in the room that was current when it was sent.
+     * </p>
+     *
+     * @param from   the current room.
+     * @param to     the room to move to.
+     * @param outbox the participant's outbox.
+     * @return the new current room.
+     */
+    private static ChatRoom switchRoom(ChatRoom from, ChatRoom to, ClientOutbox outbox) {
+        if (from == to) {
+            outbox.offer(FrameCodec.encode("You are already in " + to.name() + "."));
+            return from;
         }
-        return chat.toString();
+        onShard(from, () -> from.leave(outbox));
+        outbox.offer(FrameCodec.encode("Joined " + to.name() + ", " + to.participants() + " other participants."));
+        enterRoom(to, outbox);
+        return to;
     }
 
-    private static void handleIncomingMessage(DataInputStream in) throws IOException {
-        // Receive the length of the incoming message
-        int length = in.readInt();
+    /**
+     * Records a message in a room's log and history and delivers it to the room's other participants.
+     *
+     * @param room    the sender's current room.
+     * @param message the received message.
+     * @param sender  the outbox of the sending participant.
+     */
+    private static void publishMessage(ChatRoom room, String message, ClientOutbox sender) {
+        onShard(room, () -> {
+            long start = System.nanoTime();
+            room.publish(message, sender);
+            cluster.relay(room.name(), message);
+            messagesPublished.increment();
+            long latency = System.nanoTime() - start;
+            publishLatency.record(latency);
+            admission.recordLatency(latency);
+        });
+    }
 
-        // Check the validity of the received message length
-        if (length < 0 || length > ChatRoomServer.MAX_MESSAGE_LENGTH) {
-            System.out.println("Invalid message length received");
+    /**
+     * Publishes a message relayed by a peer node to the participants of its room on this node.
+     *
+     * @param roomName the room name.
+     * @param message  the message text.
+     */
+    private static void deliverRelayed(String roomName, String message) {
+        ChatRoom room;
+        try {
+            room = rooms.room(roomName);
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println("Dropped relayed message for room " + roomName + ": " + e.getMessage());
             return;
         }
+        onShard(room, () -> room.publish(message, null));
+    }
+
+    /**
+     * Parses a peer given as {@code host:port}, or as a port on the local host.
+     */
+    private static InetSocketAddress parsePeer(String peer) {
+        int separator = peer.lastIndexOf(':');
+        if (separator < 0) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(peer));
+        }
+        return new InetSocketAddress(peer.substring(0, separator), Integer.parseInt(peer.substring(separator + 1)));
+    }
+
+    /**
+     * Sends the list of rooms with their participant and message counts.
+     *
+     * @param current the requesting participant's room.
+     * @param outbox  the requesting participant's outbox.
+     */
+    private static void sendRoomList(ChatRoom current, ClientOutbox outbox) {
+        StringBuilder list = new StringBuilder("Rooms (you are in ").append(current.name()).append("):");
+        for (ChatRoom room : rooms.rooms()) {
+            list.append("\n  ").append(room.name())
+                    .append(" - ").append(room.participants()).append(" participants, ")
+                    .append(room.messages()).append(" messages");
+        }
+        outbox.offer(FrameCodec.encode(list.toString()));
+    }
 
-        // Read the actual message based on the provided length
-        byte[] bytes = new byte[length];
-        in.readFully(bytes);
+    /**
+     * Runs a task on a room's shard; tasks submitted while the server shuts down are dropped.
+     */
+    private static void onShard(ChatRoom room, Runnable task) {
+        try {
+            room.shard().execute(task);
+        } catch (RejectedExecutionException e) {
+            // The shards are stopping; the server is shutting down.
+        }
+    }
+
+    /**
+     * Receives one message and publishes it to the current room or carries out the command it holds.
+     *
+     * @return the participant's room after the message, which a join or leave command changes.
+     */
+    private static ChatRoom handleIncomingMessage(FrameReader in, ClientOutbox sender, ChatRoom room) throws IOException {
+        // Receive the next message, checking the validity of its length
+        if (in.readFrame() < 0) {
+            System.out.println("Invalid message length received");
+            return room;
+        }
 
         // Convert the received bytes to a string for logging and processing
-        String receivedMessage = new String(bytes, StandardCharsets.UTF_8);
-        System.out.println(receivedMessage);
-        updateChatHistory(receivedMessage);
+        String receivedMessage = in.payloadAsString();
+        bytesIn.add(FrameCodec.HEADER_LENGTH + in.length());
+        return handleMessage(receivedMessage, sender, room);
+    }
+
+    /**
+     * Publishes a message to the current room or carries out the command it holds.
+     *
+     * @return the participant's room after the message, which a join or leave command changes.
+     */
+    private static ChatRoom handleMessage(String receivedMessage, ClientOutbox sender, ChatRoom room) {
+
+        // Commands are answered to the sender only and never published
+        if (receivedMessage.equals(HISTORY_COMMAND) || receivedMessage.startsWith(HISTORY_COMMAND + " ")) {
+            historyRequests.increment();
+            String arguments = receivedMessage.substring(HISTORY_COMMAND.length()).trim();
+            onShard(room, () -> room.sendHistoryPage(arguments, sender));
+            return room;
+        }
+        if (receivedMessage.equals(SEARCH_COMMAND) || receivedMessage.startsWith(SEARCH_COMMAND + " ")) {
+            searchRequests.increment();
+            String query = receivedMessage.substring(SEARCH_COMMAND.length()).trim();
+            onShard(room, () -> {
+                long start = System.nanoTime();
+                room.sendSearchResults(query, sender);
+                searchLatency.record(System.nanoTime() - start);
+            });
+            return room;
+        }
+        if (receivedMessage.startsWith(JOIN_COMMAND + " ")) {
+            try {
+                return switchRoom(room, rooms.room(receivedMessage.substring(JOIN_COMMAND.length()).trim()), sender);
+            } catch (IllegalArgumentException | IOException e) {
+                sender.offer(FrameCodec.encode("Cannot join: " + e.getMessage()));
+                return room;
+            }
+        }
+        if (receivedMessage.equals(LEAVE_COMMAND)) {
+            return switchRoom(room, rooms.lobby(), sender);
+        }
+        if (receivedMessage.equals(ROOMS_COMMAND)) {
+            sendRoomList(room, sender);
+            return room;
+        }
+
+        if (log.admit()) {
+            log.write("[" + room.name() + "] " + receivedMessage);
+        }
+        publishMessage(room, receivedMessage, sender);
+        return room;
     }
 
 }
\ No newline at end of file
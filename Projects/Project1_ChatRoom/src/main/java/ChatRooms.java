@@ -0,0 +1,207 @@
+package Projects.Project1_ChatRoom.src.main.java;
+
+import Common.src.main.java.Metrics;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The chat rooms of the server, spread across a fixed number of single-threaded shards.
+ * <p>
+ * Each room is pinned to the shard its name hashes to, and all its work runs on that shard's
+ * thread (see {@link ChatRoom}). Busy rooms on different shards therefore proceed in parallel on
+ * different cores, while rooms sharing a shard take turns without ever contending on a lock.
+ * Rooms are created on first join and kept for the lifetime of the server; rooms found on disk
+ * are reopened at startup.
+ * </p>
+ * <p>
+ * The default room, {@value #DEFAULT_ROOM}, keeps its log directly in the data directory, as the
+ * single room of earlier versions did; every other room has its own log under {@code rooms/<name>}.
+ * </p>
+ */
+public class ChatRooms {
+    /**
+     * The room every participant starts in and returns to on {@code /leave}.
+     */
+    public static final String DEFAULT_ROOM = "lobby";
+    /**
+     * Maximum number of rooms, bounding the number of open log files.
+     */
+    static final int MAX_ROOMS = 256;
+    /**
+     * Valid room names; they double as directory names.
+     */
+    private static final Pattern ROOM_NAME = Pattern.compile("[a-z0-9_-]{1,32}");
+
+    private final Path roomsDirectory;
+    private final int historyCapacity;
+    private final ThreadPoolExecutor[] shards;
+    /**
+     * Rooms by name. Only used to route participants to rooms; room state lives on the shards.
+     */
+    private final ConcurrentHashMap<String, ChatRoom> rooms = new ConcurrentHashMap<>();
+    private final ChatRoom lobby;
+
+    /**
+     * Starts the shards and opens the default room and every room stored in the data directory.
+     *
+     * @param directory       the data directory.
+     * @param shardCount      the number of shards.
+     * @param historyCapacity the number of recent messages sent to joining participants.
+     * @throws IOException if a room's log cannot be opened.
+     */
+    public ChatRooms(Path directory, int shardCount, int historyCapacity) throws IOException {
+        this.roomsDirectory = directory.resolve("rooms");
+        this.historyCapacity = historyCapacity;
+        this.shards = new ThreadPoolExecutor[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            String threadName = "chat-shard-" + i;
+            shards[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), task -> new Thread(task, threadName));
+            Metrics.executorGauges("chat.shard" + i, shards[i]);
+        }
+
+        lobby = new ChatRoom(DEFAULT_ROOM, directory, historyCapacity, "Recent Chat History:\n", shardFor(DEFAULT_ROOM));
+        rooms.put(DEFAULT_ROOM, lobby);
+        if (Files.isDirectory(roomsDirectory)) {
+            try (DirectoryStream<Path> stored = Files.newDirectoryStream(roomsDirectory, Files::isDirectory)) {
+                for (Path room : stored) {
+                    String name = room.getFileName().toString();
+                    if (ROOM_NAME.matcher(name).matches()) {
+                        rooms.put(name, open(name));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the default room.
+     */
+    public ChatRoom lobby() {
+        return lobby;
+    }
+
+    /**
+     * Returns the room with a name, creating it if it does not exist yet.
+     *
+     * @param name the room name, case-insensitive.
+     * @return the room.
+     * @throws IllegalArgumentException if the name is invalid or the maximum number of rooms exists.
+     * @throws IOException              if the room's log cannot be created.
+     */
+    public ChatRoom room(String name) throws IOException {
+        String key = name.toLowerCase(Locale.ROOT);
+        ChatRoom room = rooms.get(key);
+        if (room != null) {
+            return room;
+        }
+        if (!ROOM_NAME.matcher(key).matches()) {
+            throw new IllegalArgumentException("Room names are 1 to 32 letters, digits, '-' or '_'.");
+        }
+        // Creating a room is rare; serialize it so that a room's log is opened only once.
+        synchronized (this) {
+            room = rooms.get(key);
+            if (room == null) {
+                if (rooms.size() >= MAX_ROOMS) {
+                    throw new IllegalArgumentException("There are already " + MAX_ROOMS + " rooms.");
+                }
+                room = open(key);
+                rooms.put(key, room);
+            }
+            return room;
+        }
+    }
+
+    /**
+     * @return the rooms, ordered by name.
+     */
+    public List<ChatRoom> rooms() {
+        List<ChatRoom> list = new ArrayList<>(rooms.values());
+        list.sort(Comparator.comparing(ChatRoom::name));
+        return list;
+    }
+
+    /**
+     * @return the number of participants in all rooms.
+     */
+    public long participants() {
+        long total = 0;
+        for (ChatRoom room : rooms.values()) {
+            total += room.participants();
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of messages logged in all rooms.
+     */
+    public long messages() {
+        long total = 0;
+        for (ChatRoom room : rooms.values()) {
+            total += room.messages();
+        }
+        return total;
+    }
+
+    /**
+     * @return the estimated memory taken by the search indexes of all rooms, in bytes.
+     */
+    public long searchIndexBytes() {
+        long total = 0;
+        for (ChatRoom room : rooms.values()) {
+            total += room.searchIndexBytes();
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of rooms.
+     */
+    public int size() {
+        return rooms.size();
+    }
+
+    /**
+     * Lets the shards finish the tasks already submitted, then closes every room's log.
+     */
+    public void close() {
+        for (ThreadPoolExecutor shard : shards) {
+            shard.shutdown();
+        }
+        try {
+            for (ThreadPoolExecutor shard : shards) {
+                shard.awaitTermination(10, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ChatRoom room : rooms.values()) {
+            try {
+                room.close();
+            } catch (IOException e) {
+                System.out.println("Could not close the log of room " + room.name() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private ChatRoom open(String name) throws IOException {
+        return new ChatRoom(name, roomsDirectory.resolve(name), historyCapacity,
+                "Recent Chat History of " + name + ":\n", shardFor(name));
+    }
+
+    private ThreadPoolExecutor shardFor(String name) {
+        return shards[Math.floorMod(name.hashCode(), shards.length)];
+    }
+}
@@ -0,0 +1,398 @@
+package Projects.Project1_ChatRoom.src.main.java;
+
+import Common.src.main.java.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory inverted index of the recent messages of one chat room, for {@code /search}.
+ * <p>
+ * Messages are identified by their offset in the room's {@link ChatLog}, so the index holds no
+ * message text: it maps every term to the ascending list of offsets of the messages containing
+ * it, and the matching messages are read back from the log. The terms of a message are its words,
+ * lower-cased, and {@code @name} for the sender of a message of the form {@code [name]: text},
+ * whose name is not indexed as a word, so searching for a word only finds messages mentioning it.
+ * Posting lists are stored as variable-length deltas between consecutive offsets, which are
+ * small for any term in regular use, so most postings take one or two bytes.
+ * </p>
+ * <p>
+ * The index is split into blocks of {@value #BLOCK_MESSAGES} consecutive messages, each with its
+ * own terms. The memory they take is estimated as they grow, and once the estimate exceeds the
+ * budget, {@code -Dchat.search.bytes} per room, the oldest blocks are dropped whole: older
+ * messages remain in the log and in {@code /history}, but are no longer found by a search.
+ * Dropping a block costs nothing, where trimming the head of every posting list would not.
+ * </p>
+ * <p>
+ * Like the rest of a room's state, the index is confined to the room's shard: {@link #add} and
+ * {@link #search} must not be called concurrently. Only {@link #bytes()} may be read from other
+ * threads.
+ * </p>
+ */
+public class ChatSearchIndex {
+    /**
+     * Number of messages per block, the unit of eviction.
+     */
+    static final int BLOCK_MESSAGES = 4096;
+    /**
+     * Default memory budget of one room's index, configurable with {@code -Dchat.search.bytes}.
+     */
+    static final long DEFAULT_BUDGET = Long.getLong("chat.search.bytes", 4L * 1024 * 1024);
+    /**
+     * Longest term indexed; longer words are not indexed.
+     */
+    static final int MAX_TERM_LENGTH = 32;
+    /**
+     * Maximum number of terms in a query.
+     */
+    static final int MAX_QUERY_TERMS = 8;
+    /**
+     * Estimated size of a term's map entry, key and posting list object, besides its characters and postings.
+     */
+    private static final int TERM_OVERHEAD = 128;
+    /**
+     * Bits of a ranking key holding the offset; the score is kept above them.
+     */
+    private static final long OFFSET_MASK = (1L << 56) - 1;
+
+    private static final LongAdder evictedBlocks = Metrics.counter("chat.search.evictedBlocks");
+
+    /**
+     * The top matches of a search.
+     *
+     * @param offsets the log offsets of the best matching messages, best first.
+     * @param matches the number of messages that matched at all.
+     */
+    public record Result(long[] offsets, long matches) {
+    }
+
+    /**
+     * The postings of one term in one block: variable-length deltas between ascending offsets.
+     */
+    private static final class Postings {
+        private byte[] data = new byte[4];
+        private int length;
+        private int count;
+        private long last;
+
+        private Postings(long before) {
+            this.last = before;
+        }
+
+        /**
+         * @return the number of bytes by which the array grew.
+         */
+        private int add(long offset) {
+            int grown = 0;
+            if (length + 10 > data.length) {
+                int capacity = Math.max(data.length * 2, length + 10);
+                grown = capacity - data.length;
+                data = Arrays.copyOf(data, capacity);
+            }
+            long delta = offset - last;
+            while ((delta & ~0x7FL) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+            last = offset;
+            count++;
+            return grown;
+        }
+
+        private long[] decode(long before) {
+            long[] offsets = new long[count];
+            long offset = before;
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                offset += delta;
+                offsets[i] = offset;
+            }
+            return offsets;
+        }
+    }
+
+    /**
+     * The terms of consecutive messages starting at {@link #firstOffset}.
+     */
+    private static final class Block {
+        private final long firstOffset;
+        private final HashMap<String, Postings> terms = new HashMap<>();
+        private int messages;
+        private long bytes;
+
+        private Block(long firstOffset) {
+            this.firstOffset = firstOffset;
+        }
+
+        private long[] postings(String term) {
+            Postings postings = terms.get(term);
+            return postings == null ? null : postings.decode(firstOffset - 1);
+        }
+    }
+
+    private final long budget;
+    /**
+     * Blocks in offset order; messages are added to the last one.
+     */
+    private final ArrayDeque<Block> blocks = new ArrayDeque<>();
+    /**
+     * The distinct terms of the message being added, reused between messages.
+     */
+    private final Set<String> messageTerms = new HashSet<>();
+    /**
+     * Estimated memory taken by the blocks; written on the shard, read by the metrics.
+     */
+    private volatile long bytes;
+
+    /**
+     * Creates an empty index.
+     *
+     * @param budget the estimated memory in bytes above which the oldest blocks are evicted.
+     */
+    public ChatSearchIndex(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Indexes a message, evicting the oldest blocks if the index outgrows its budget.
+     *
+     * @param offset  the message's offset in the log, greater than that of every message added before.
+     * @param message the message text.
+     */
+    public void add(long offset, String message) {
+        Block block = blocks.peekLast();
+        if (block == null || block.messages == BLOCK_MESSAGES) {
+            block = new Block(offset);
+            blocks.addLast(block);
+        }
+
+        messageTerms.clear();
+        String sender = senderOf(message);
+        if (sender != null) {
+            // The sender is only a name term: the words are those of the text after the prefix.
+            messageTerms.add(sender);
+            tokenize(message.substring(message.indexOf("]: ") + 3), messageTerms);
+        } else {
+            tokenize(message, messageTerms);
+        }
+
+        long added = 0;
+        for (String term : messageTerms) {
+            Postings postings = block.terms.get(term);
+            if (postings == null) {
+                postings = new Postings(block.firstOffset - 1);
+                block.terms.put(term, postings);
+                added += TERM_OVERHEAD + 2L * term.length() + postings.data.length;
+            }
+            added += postings.add(offset);
+        }
+        block.messages++;
+        block.bytes += added;
+        long total = bytes + added;
+
+        // Evict whole blocks, oldest first, but never the one being filled.
+        while (total > budget && blocks.size() > 1) {
+            total -= blocks.removeFirst().bytes;
+            evictedBlocks.increment();
+        }
+        bytes = total;
+    }
+
+    /**
+     * Finds the messages best matching a query.
+     * <p>
+     * A query is a list of words and at most one {@code @name}. Messages are ranked by the number
+     * of query words they contain, then newest first; with a name, only that participant's
+     * messages match, and a query of just a name finds its latest messages.
+     * </p>
+     *
+     * @param query the query text.
+     * @param limit the maximum number of messages returned.
+     * @return the best matches.
+     * @throws IllegalArgumentException if the query has no terms, too many, or more than one name.
+     */
+    public Result search(String query, int limit) {
+        String sender = null;
+        Set<String> words = new HashSet<>();
+        for (String token : query.trim().split("\\s+")) {
+            if (token.startsWith("@") && token.length() > 1) {
+                if (sender != null) {
+                    throw new IllegalArgumentException("Search for one @name at a time.");
+                }
+                sender = "@" + token.substring(1).toLowerCase(Locale.ROOT);
+            } else {
+                tokenize(token, words);
+            }
+        }
+        if (sender == null && words.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to search for.");
+        }
+        if (words.size() + (sender == null ? 0 : 1) > MAX_QUERY_TERMS) {
+            throw new IllegalArgumentException("At most " + MAX_QUERY_TERMS + " terms per search.");
+        }
+
+        // The best matches so far, worst first. A key holds the score above the offset, so larger keys rank higher.
+        PriorityQueue<Long> best = new PriorityQueue<>();
+        long matches = 0;
+        // Newest blocks first: once the best matches are full, older messages only replace them with a higher score.
+        for (Iterator<Block> newestFirst = blocks.descendingIterator(); newestFirst.hasNext(); ) {
+            Block block = newestFirst.next();
+            List<long[]> lists = new ArrayList<>(words.size());
+            for (String word : words) {
+                long[] postings = block.postings(word);
+                if (postings != null) {
+                    lists.add(postings);
+                }
+            }
+            long[] required = sender == null ? null : block.postings(sender);
+            if ((sender != null && required == null) || (sender == null && lists.isEmpty())) {
+                continue;
+            }
+            matches += required != null
+                    ? scoreCandidates(required, lists, !words.isEmpty(), best, limit)
+                    : scoreUnion(lists, best, limit);
+        }
+
+        long[] offsets = new long[best.size()];
+        for (int i = offsets.length - 1; i >= 0; i--) {
+            offsets[i] = best.poll() & OFFSET_MASK;
+        }
+        return new Result(offsets, matches);
+    }
+
+    /**
+     * @return the offset of the oldest message still indexed, or -1 if the index is empty.
+     */
+    public long oldestOffset() {
+        Block first = blocks.peekFirst();
+        return first == null ? -1 : first.firstOffset;
+    }
+
+    /**
+     * @return the estimated memory taken by the index, in bytes.
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Scores the messages of any of the lists by the number of lists containing them, merging the
+     * ascending lists in one pass.
+     *
+     * @return the number of messages scored.
+     */
+    private static long scoreUnion(List<long[]> postings, PriorityQueue<Long> best, int limit) {
+        long[][] lists = postings.toArray(new long[0][]);
+        int[] positions = new int[lists.length];
+        long scored = 0;
+        while (true) {
+            long next = Long.MAX_VALUE;
+            for (int i = 0; i < positions.length; i++) {
+                long[] list = lists[i];
+                if (positions[i] < list.length) {
+                    next = Math.min(next, list[positions[i]]);
+                }
+            }
+            if (next == Long.MAX_VALUE) {
+                return scored;
+            }
+            int score = 0;
+            for (int i = 0; i < positions.length; i++) {
+                long[] list = lists[i];
+                if (positions[i] < list.length && list[positions[i]] == next) {
+                    positions[i]++;
+                    score++;
+                }
+            }
+            offer(best, limit, score, next);
+            scored++;
+        }
+    }
+
+    /**
+     * Scores the messages of the required list by the number of other lists containing them.
+     *
+     * @param anyWord whether a message must also contain one of the other lists to match.
+     * @return the number of messages scored.
+     */
+    private static long scoreCandidates(long[] required, List<long[]> postings, boolean anyWord,
+                                        PriorityQueue<Long> best, int limit) {
+        long[][] lists = postings.toArray(new long[0][]);
+        int[] positions = new int[lists.length];
+        long scored = 0;
+        for (long candidate : required) {
+            int score = 0;
+            for (int i = 0; i < positions.length; i++) {
+                long[] list = lists[i];
+                while (positions[i] < list.length && list[positions[i]] < candidate) {
+                    positions[i]++;
+                }
+                if (positions[i] < list.length && list[positions[i]] == candidate) {
+                    score++;
+                }
+            }
+            if (score > 0 || !anyWord) {
+                offer(best, limit, score, candidate);
+                scored++;
+            }
+        }
+        return scored;
+    }
+
+    private static void offer(PriorityQueue<Long> best, int limit, int score, long offset) {
+        long key = (long) score << 56 | offset;
+        if (best.size() < limit) {
+            best.add(key);
+        } else if (limit > 0 && key > best.peek()) {
+            best.poll();
+            best.add(key);
+        }
+    }
+
+    /**
+     * @return the {@code @name} term of a message of the form {@code [name]: text}, or null.
+     */
+    private static String senderOf(String message) {
+        int end = message.indexOf("]: ");
+        if (!message.startsWith("[") || end < 2 || end > MAX_TERM_LENGTH + 1) {
+            return null;
+        }
+        return "@" + message.substring(1, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds the lower-cased words of a text, runs of letters and digits, to a set of terms.
+     */
+    private static void tokenize(String text, Set<String> terms) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package Projects.Project1_ChatRoom.src.main.java;
+
+import Common.src.main.java.FrameCodec;
+import Common.src.main.java.FrameCompressor;
+import Common.src.main.java.Metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The outbound side of one chat participant.
+ * <p>
+ * Frames destined for the client are placed into a bounded queue and written to the socket by a
+ * drain task running on a shared writer executor, so the thread that publishes a message never
+ * blocks on a recipient's socket. At most one drain task per outbox runs at a time, which keeps
+ * the frames of one client in order. A client that lets its queue fill up is disconnected rather
+ * than allowed to slow down the rest of the room.
+ * </p>
+ * <p>
+ * Besides encoded frames, an outbox accepts {@link ChatLog.Region}s of the on-disk chat log,
+ * which are sent with {@link java.nio.channels.FileChannel#transferTo} straight from the file to
+ * the socket, without copying the history through the heap.
+ * </p>
+ * <p>
+ * For a client that negotiated compression, frames above the compressor's threshold, such as the
+ * history sent on joining a room, are compressed by the drain task as they are written. Log
+ * regions are always sent uncompressed, since compressing them would forgo the zero-copy transfer.
+ * </p>
+ */
+public class ClientOutbox {
+    private static final LongAdder bytesOut = Metrics.counter("chat.bytesOut");
+    /**
+     * Clients disconnected because their outbox filled up.
+     */
+    private static final LongAdder slowDisconnects = Metrics.counter("chat.outbox.slowDisconnects");
+
+    /**
+     * The socket of the client this outbox writes to.
+     */
+    private final Socket socket;
+    /**
+     * Buffered stream so that the frames of one drain pass are coalesced into few writes.
+     */
+    private final OutputStream out;
+    /**
+     * Channel view of the socket used for log regions; the socket's own channel when it has one.
+     */
+    private final WritableByteChannel channel;
+    /**
+     * Encoded frames ({@code byte[]}) and log regions ({@link ChatLog.Region}) waiting to be written.
+     */
+    private final ArrayBlockingQueue<Object> queue;
+    /**
+     * Executor running the drain tasks.
+     */
+    private final Executor writerExecutor;
+    /**
+     * Whether a drain task is scheduled or running.
+     */
+    private final AtomicBoolean draining = new AtomicBoolean();
+    /**
+     * Compresses large frames if the client negotiated compression, or null; only used by the drain task.
+     */
+    private final FrameCompressor compressor;
+    private volatile boolean closed;
+
+    /**
+     * Creates an outbox for a connected client.
+     *
+     * @param socket         the client's socket.
+     * @param capacity       maximum number of frames that may wait for the client.
+     * @param writerExecutor executor running the drain tasks.
+     * @param compressor     compresses large frames for the client, or null to send them as they are.
+     * @throws IOException if the socket's output stream cannot be obtained.
+     */
+    public ClientOutbox(Socket socket, int capacity, Executor writerExecutor, FrameCompressor compressor) throws IOException {
+        this.socket = socket;
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.channel = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(socket.getOutputStream());
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writerExecutor = writerExecutor;
+        this.compressor = compressor;
+    }
+
+    /**
+     * Queues an encoded frame for the client without blocking.
+     * <p>
+     * The same frame array may be queued to many outboxes; it is never modified.
+     * </p>
+     *
+     * @param frame a complete length-prefixed frame.
+     * @return false if the outbox is closed or the client was too slow and has been disconnected.
+     */
+    public boolean offer(byte[] frame) {
+        return enqueue(frame);
+    }
+
+    /**
+     * Queues a region of the chat log for the client without blocking.
+     *
+     * @param region consecutive message frames of the log.
+     * @return false if the outbox is closed or the client was too slow and has been disconnected.
+     */
+    public boolean offer(ChatLog.Region region) {
+        return enqueue(region);
+    }
+
+    private boolean enqueue(Object item) {
+        if (closed) {
+            return false;
+        }
+        if (!queue.offer(item)) {
+            System.out.println("Client " + socket.getRemoteSocketAddress() + " is too slow, disconnecting.");
+            slowDisconnects.increment();
+            close();
+            return false;
+        }
+        if (draining.compareAndSet(false, true)) {
+            writerExecutor.execute(this::drain);
+        }
+        return true;
+    }
+
+    /**
+     * Writes queued frames and regions until the queue is empty.
+     */
+    private void drain() {
+        try {
+            while (true) {
+                Object item;
+                while ((item = queue.poll()) != null) {
+                    if (item instanceof byte[] frame) {
+                        write(frame);
+                    } else {
+                        transfer((ChatLog.Region) item);
+                    }
+                }
+                out.flush();
+                draining.set(false);
+                if (closed) {
+                    releaseCompressor();
+                    return;
+                }
+                // A frame may have been queued after the last poll but before the flag was cleared.
+                if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            draining.set(false);
+            close();
+        }
+    }
+
+    /**
+     * Frees the compressor's native memory unless a drain task is using it, in which case the
+     * task frees it when it sees the outbox closed. Claims the drain flag for good, so no drain
+     * task can run afterwards.
+     */
+    private void releaseCompressor() {
+        if (compressor != null && draining.compareAndSet(false, true)) {
+            compressor.close();
+        }
+    }
+
+    /**
+     * Writes a frame, compressed if the client negotiated compression and the frame is large enough.
+     */
+    private void write(byte[] frame) throws IOException {
+        int payloadLength = frame.length - FrameCodec.HEADER_LENGTH;
+        if (compressor != null && compressor.accepts(payloadLength)) {
+            bytesOut.add(compressor.writeFrame(out, frame, FrameCodec.HEADER_LENGTH, payloadLength));
+        } else {
+            out.write(frame);
+            bytesOut.add(frame.length);
+        }
+    }
+
+    /**
+     * Sends a region of the chat log directly from the file to the socket.
+     *
+     * @param region the region to send.
+     * @throws IOException if the region cannot be read or sent.
+     */
+    private void transfer(ChatLog.Region region) throws IOException {
+        // Buffered frames queued before the region must reach the socket first.
+        out.flush();
+        long position = region.position();
+        long end = region.position() + region.count();
+        while (position < end) {
+            position += region.channel().transferTo(position, end - position, channel);
+        }
+        bytesOut.add(region.count());
+    }
+
+    /**
+     * @return true once the outbox has been closed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Discards queued frames and closes the client's socket.
+     */
+    public void close() {
+        closed = true;
+        queue.clear();
+        releaseCompressor();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("Could not close client socket: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package Projects.Project2_SharedResources.src.main.java;
+
+import Common.src.main.java.FrameCodec;
+import Common.src.main.java.FrameCompressor;
+import Common.src.main.java.FrameReader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Automated client that talks to the resource server over the binary {@link TodoProtocol}.
+ * <p>
+ * After the handshake it pipelines a number of adds without waiting for their responses, reading
+ * the responses on a separate thread, then lists the todos and deletes everything it added with
+ * one batch request, and reports how many operations per second the server answered. Finally it
+ * asks for the changes since the version it saw at the start, as a poller would.
+ * </p>
+ * <p>
+ * In watch mode it instead subscribes and prints the changes the server pushes as other clients
+ * edit the todos.
+ * </p>
+ * <p>
+ * The client asks the server to compress large frames, such as the listing, unless started with
+ * {@code -Dcompression=false}.
+ * </p>
+ * <p>
+ * Usage: {@code BinaryClient [todos]} or {@code BinaryClient watch}.
+ * </p>
+ */
+public class BinaryClient {
+
+    private static final String SERVER_HOSTNAME = "localhost";
+    private static final int SERVER_PORT = 5555;
+
+    public static void main(String[] args) throws Exception {
+        boolean watch = args.length > 0 && args[0].equals("watch");
+        int todos = args.length > 0 && !watch ? Integer.parseInt(args[0]) : 10_000;
+
+        try (Socket socket = new Socket(SERVER_HOSTNAME, SERVER_PORT)) {
+            socket.setTcpNoDelay(true);
+            FrameReader in = new FrameReader(socket.getInputStream(), NetworkUtils.MAX_MESSAGE_LENGTH);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+
+            // Ask for compressed frames unless -Dcompression=false, skip the menu and switch the
+            // connection to binary mode.
+            in.readFrame();
+            if (Boolean.parseBoolean(System.getProperty(FrameCompressor.ENABLED_PROPERTY, "true"))) {
+                out.write(FrameCodec.encode(FrameCompressor.HANDSHAKE));
+                out.flush();
+                in.readFrame();
+                if (in.payloadAsString().equals(FrameCompressor.HANDSHAKE)) {
+                    in.enableDecompression(TodoProtocol.COMPRESSION_DICTIONARY);
+                    in.readFrame();
+                }
+            }
+            out.write(FrameCodec.encode(TodoProtocol.HANDSHAKE));
+            out.flush();
+            in.readFrame();
+            if (!in.payloadAsString().equals(TodoProtocol.HANDSHAKE)) {
+                System.err.println("Server does not support the binary protocol.");
+                return;
+            }
+
+            if (watch) {
+                watch(in, out);
+                return;
+            }
+
+            // Remember the version before our changes.
+            long startVersion = requestChanges(in, out, Long.MAX_VALUE).getLong(6);
+
+            // Pipeline the adds; the responses carry the ids assigned to the todos.
+            long start = System.nanoTime();
+            long[] ids = new long[todos];
+            Thread receiver = new Thread(() -> {
+                try {
+                    for (int i = 0; i < todos; i++) {
+                        ByteBuffer response = readResponse(in);
+                        int requestId = response.getInt(1);
+                        ids[requestId] = response.get(5) == TodoProtocol.OK ? response.getLong(6) : -1;
+                    }
+                } catch (IOException e) {
+                    System.err.println("IOException: " + e.getMessage());
+                }
+            });
+            receiver.start();
+            for (int i = 0; i < todos; i++) {
+                byte[] text = ("Generated todo " + i + " @" + start).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(1 + Integer.BYTES + text.length);
+                out.writeByte(TodoProtocol.ADD);
+                out.writeInt(i);
+                out.write(text);
+            }
+            out.flush();
+            receiver.join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Added %d todos in %.3f s (%.0f ops/s)%n", todos, seconds, todos / seconds);
+
+            // List everything, then remove the added todos with one batch request.
+            out.writeInt(1 + Integer.BYTES);
+            out.writeByte(TodoProtocol.LIST);
+            out.writeInt(todos);
+            out.flush();
+            ByteBuffer listing = readResponse(in);
+            System.out.println("Server holds " + listing.getInt(6) + " todos");
+
+            out.writeInt(1 + Integer.BYTES + Integer.BYTES + todos * (1 + Long.BYTES));
+            out.writeByte(TodoProtocol.BATCH);
+            out.writeInt(todos + 1);
+            out.writeInt(todos);
+            for (long id : ids) {
+                out.writeByte(TodoProtocol.DELETE);
+                out.writeLong(id);
+            }
+            out.flush();
+            ByteBuffer batch = readResponse(in);
+            int deleted = 0;
+            for (int i = 0; i < batch.getInt(6); i++) {
+                if (batch.get(10 + i * (1 + Long.BYTES)) == TodoProtocol.OK) {
+                    deleted++;
+                }
+            }
+            System.out.println("Deleted " + deleted + " todos with one batch request");
+
+            // Only the changes since the starting version, unless they are too many to be retained.
+            ByteBuffer changes = requestChanges(in, out, startVersion);
+            System.out.println((changes.get(14) != 0 ? "Full resync" : "Delta") + " of " + changes.getInt(15)
+                    + " changes from version " + startVersion + " to " + changes.getLong(6));
+            in.release();
+        }
+    }
+
+    /**
+     * Subscribes to the server's changes and prints them until the connection is lost.
+     */
+    private static void watch(FrameReader in, DataOutputStream out) throws IOException {
+        // Subscribing from an unknown version yields the full listing first.
+        out.writeInt(1 + Integer.BYTES + Long.BYTES);
+        out.writeByte(TodoProtocol.SUBSCRIBE);
+        out.writeInt(1);
+        out.writeLong(Long.MAX_VALUE);
+        out.flush();
+        while (true) {
+            ByteBuffer event = readResponse(in);
+            event.position(6);
+            long version = event.getLong();
+            boolean full = event.get() != 0;
+            int count = event.getInt();
+            System.out.println((full ? "Full listing" : "Changes") + " at version " + version + ":");
+            for (int i = 0; i < count; i++) {
+                byte operation = event.get();
+                long id = event.getLong();
+                if (operation == TodoProtocol.ADD) {
+                    byte[] text = new byte[event.getInt()];
+                    event.get(text);
+                    System.out.println("  + " + id + ". " + new String(text, StandardCharsets.UTF_8));
+                } else {
+                    System.out.println("  - " + id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a {@link TodoProtocol#CHANGES} request and waits for its response.
+     *
+     * @return a buffer over the response payload, valid until the next read.
+     */
+    private static ByteBuffer requestChanges(FrameReader in, DataOutputStream out, long since) throws IOException {
+        out.writeInt(1 + Integer.BYTES + Long.BYTES);
+        out.writeByte(TodoProtocol.CHANGES);
+        out.writeInt(0);
+        out.writeLong(since);
+        out.flush();
+        return readResponse(in);
+    }
+
+    /**
+     * Reads one response frame.
+     *
+     * @return a buffer over the response payload, valid until the next read.
+     */
+    private static ByteBuffer readResponse(FrameReader in) throws IOException {
+        if (in.readFrame() < 0) {
+            throw new IOException("Invalid response length");
+        }
+        return ByteBuffer.wrap(in.buffer(), 0, in.length());
+    }
+}
@@ -0,0 +1,379 @@
+package Projects.Project2_SharedResources.src.main.java;
+
+import Common.src.main.java.FrameCodec;
+import Common.src.main.java.FrameCompressor;
+import Common.src.main.java.FrameReader;
+import Common.src.main.java.LatencyHistogram;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Serves one connection that has switched to the binary {@link TodoProtocol}.
+ * <p>
+ * Each request frame is decoded in place from the reader's reusable buffer and answered with one
+ * response frame. Responses are buffered and only flushed once no further pipelined request is
+ * already waiting in the input buffer, so a burst of pipelined requests is answered with a few
+ * large writes instead of one write per request. Malformed requests are answered with
+ * {@link TodoProtocol#BAD_REQUEST} and do not end the connection.
+ * </p>
+ * <p>
+ * On a read-only replica, mutations are answered with {@link TodoProtocol#READ_ONLY}, and once
+ * the store's journal has failed, with {@link TodoProtocol#STORAGE_FAILED}.
+ * </p>
+ * <p>
+ * A connection may subscribe to the store, after which a {@link TodoSubscriber} pushes events
+ * into the same output; every frame is therefore written while holding the output's monitor.
+ * </p>
+ * <p>
+ * If the client negotiated compression, responses and events above the compressor's threshold,
+ * typically listings and resyncs, are sent compressed.
+ * </p>
+ */
+public class BinaryCommandHandler {
+    /**
+     * Length of the opcode, request id and status that start every response payload.
+     */
+    static final int RESPONSE_HEADER_LENGTH = 1 + Integer.BYTES + 1;
+
+    private final TodoStore store;
+    private final FrameReader in;
+    private final DataOutputStream out;
+    /**
+     * Reusable buffer for response bodies that are not already encoded.
+     */
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final DataOutputStream bodyData = new DataOutputStream(body);
+    /**
+     * Executor running the push tasks of subscriptions.
+     */
+    private final Executor pushExecutor;
+    /**
+     * Whether the store accepts mutations, i.e. this server is not a read-only replica.
+     */
+    private final BooleanSupplier writable;
+    /**
+     * Compresses large responses and events if the client negotiated compression, or null; only
+     * used while holding the output's monitor.
+     */
+    private final FrameCompressor compressor;
+    /**
+     * The connection's subscription, or null.
+     */
+    private TodoSubscriber subscriber;
+
+    /**
+     * Creates a handler for a connection.
+     *
+     * @param store        the todos to operate on.
+     * @param in           the connection's input; the handshake must already have been consumed.
+     * @param out          the connection's output.
+     * @param pushExecutor executor running the push tasks if the connection subscribes.
+     * @param writable     tells whether mutations are accepted; checked on every mutation.
+     * @param compressor   compresses large responses and events, or null if the client did not ask for it.
+     */
+    public BinaryCommandHandler(TodoStore store, InputStream in, OutputStream out, Executor pushExecutor,
+                                BooleanSupplier writable, FrameCompressor compressor) {
+        this.store = store;
+        this.in = new FrameReader(in, TodoProtocol.MAX_REQUEST_LENGTH);
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.pushExecutor = pushExecutor;
+        this.writable = writable;
+        this.compressor = compressor;
+    }
+
+    /**
+     * Answers requests until the client disconnects or sends a frame with an invalid length.
+     *
+     * @throws IOException if the connection fails; {@link java.io.EOFException} when the client disconnects.
+     */
+    public void serve() throws IOException {
+        try {
+            // Confirm the switch to binary mode
+            byte[] handshake = TodoProtocol.HANDSHAKE.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(handshake.length);
+            out.write(handshake);
+            out.flush();
+
+            while (true) {
+                if (in.readFrame() < 0) {
+                    System.out.println("Invalid request length received, closing binary connection.");
+                    return;
+                }
+                TodoMetrics.BYTES_IN.add(FrameCodec.HEADER_LENGTH + in.length());
+                handleRequest(ByteBuffer.wrap(in.buffer(), 0, in.length()));
+
+                // Only flush when no pipelined request is already waiting
+                if (in.stream().available() == 0) {
+                    synchronized (out) {
+                        out.flush();
+                    }
+                }
+            }
+        } finally {
+            if (subscriber != null) {
+                subscriber.close();
+            }
+            in.release();
+        }
+    }
+
+    private void handleRequest(ByteBuffer request) throws IOException {
+        byte opcode = 0;
+        int requestId = 0;
+        long start = System.nanoTime();
+        try {
+            opcode = request.get();
+            requestId = request.getInt();
+            if (isMutation(opcode) && !writable.getAsBoolean()) {
+                respond(opcode, requestId, TodoProtocol.READ_ONLY, null, 0);
+                return;
+            }
+            switch (opcode) {
+                case TodoProtocol.LIST -> {
+                    byte[] listing = store.binaryListing();
+                    respond(opcode, requestId, TodoProtocol.OK, listing, listing.length);
+                }
+                case TodoProtocol.ADD -> {
+                    String todo = new String(request.array(), request.position(), request.remaining(), StandardCharsets.UTF_8);
+                    long id = store.add(todo);
+                    body.reset();
+                    bodyData.writeLong(id);
+                    respondWithBody(opcode, requestId, id < 0 ? TodoProtocol.DUPLICATE : TodoProtocol.OK);
+                }
+                case TodoProtocol.DELETE -> {
+                    long id = request.getLong();
+                    byte status = store.delete(id) == null ? TodoProtocol.NOT_FOUND : TodoProtocol.OK;
+                    respond(opcode, requestId, status, null, 0);
+                }
+                case TodoProtocol.BATCH -> handleBatch(requestId, decodeBatch(request));
+                case TodoProtocol.CHANGES -> handleChanges(requestId, request.getLong());
+                case TodoProtocol.PAGE -> {
+                    long after = request.getLong();
+                    int limit = request.getInt();
+                    String prefix = new String(request.array(), request.position(), request.remaining(), StandardCharsets.UTF_8);
+                    handlePage(requestId, store.page(after, prefix, limit));
+                }
+                case TodoProtocol.SUBSCRIBE -> handleSubscribe(requestId, request.getLong());
+                case TodoProtocol.UNSUBSCRIBE -> {
+                    byte status = subscriber == null ? TodoProtocol.NOT_FOUND : TodoProtocol.OK;
+                    if (subscriber != null) {
+                        subscriber.close();
+                        subscriber = null;
+                    }
+                    respond(opcode, requestId, status, null, 0);
+                }
+                default -> respond(opcode, requestId, TodoProtocol.BAD_REQUEST, null, 0);
+            }
+            LatencyHistogram latency = latencyOf(opcode);
+            if (latency != null) {
+                latency.record(System.nanoTime() - start);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            respond(opcode, requestId, TodoProtocol.BAD_REQUEST, null, 0);
+        } catch (TodoJournal.JournalException e) {
+            TodoMetrics.STORAGE_FAILURES.increment();
+            respond(opcode, requestId, TodoProtocol.STORAGE_FAILED, null, 0);
+        }
+    }
+
+    private static boolean isMutation(byte opcode) {
+        return opcode == TodoProtocol.ADD || opcode == TodoProtocol.DELETE || opcode == TodoProtocol.BATCH;
+    }
+
+    /**
+     * @return the latency histogram of an operation, or null for requests that are not measured.
+     */
+    private static LatencyHistogram latencyOf(byte opcode) {
+        return switch (opcode) {
+            case TodoProtocol.LIST -> TodoMetrics.LIST_LATENCY;
+            case TodoProtocol.ADD -> TodoMetrics.ADD_LATENCY;
+            case TodoProtocol.DELETE -> TodoMetrics.DELETE_LATENCY;
+            case TodoProtocol.BATCH -> TodoMetrics.BATCH_LATENCY;
+            case TodoProtocol.CHANGES -> TodoMetrics.CHANGES_LATENCY;
+            case TodoProtocol.PAGE -> TodoMetrics.PAGE_LATENCY;
+            default -> null;
+        };
+    }
+
+    /**
+     * Decodes all operations of a batch before any is applied, so a malformed batch changes nothing.
+     */
+    private static List<TodoStore.Mutation> decodeBatch(ByteBuffer request) {
+        int count = request.getInt();
+        if (count < 0 || count > request.remaining()) {
+            throw new IllegalArgumentException("Invalid batch size " + count);
+        }
+        List<TodoStore.Mutation> mutations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte opcode = request.get();
+            if (opcode == TodoProtocol.ADD) {
+                int length = request.getInt();
+                if (length < 0 || length > request.remaining()) {
+                    throw new IllegalArgumentException("Invalid todo length " + length);
+                }
+                String text = new String(request.array(), request.position(), length, StandardCharsets.UTF_8);
+                request.position(request.position() + length);
+                mutations.add(TodoStore.Mutation.add(text));
+            } else if (opcode == TodoProtocol.DELETE) {
+                mutations.add(TodoStore.Mutation.delete(request.getLong()));
+            } else {
+                throw new IllegalArgumentException("Invalid batch opcode " + opcode);
+            }
+        }
+        return mutations;
+    }
+
+    /**
+     * Applies a batch as one unit in the store and reports the outcome of every operation.
+     */
+    private void handleBatch(int requestId, List<TodoStore.Mutation> mutations) throws IOException {
+        long[] results = store.apply(mutations);
+        body.reset();
+        bodyData.writeInt(mutations.size());
+        for (int i = 0; i < results.length; i++) {
+            TodoStore.Mutation mutation = mutations.get(i);
+            if (mutation.operation() == TodoJournal.ADD) {
+                bodyData.writeByte(results[i] < 0 ? TodoProtocol.DUPLICATE : TodoProtocol.OK);
+                bodyData.writeLong(results[i]);
+            } else {
+                bodyData.writeByte(results[i] < 0 ? TodoProtocol.NOT_FOUND : TodoProtocol.OK);
+                bodyData.writeLong(mutation.id());
+            }
+        }
+        respondWithBody(TodoProtocol.BATCH, requestId, TodoProtocol.OK);
+    }
+
+    /**
+     * Sends the changes committed after the version the client last saw.
+     */
+    private void handleChanges(int requestId, long since) throws IOException {
+        TodoStore.Delta delta = store.changesSince(since);
+        body.reset();
+        writeChanges(bodyData, delta.version(), delta.full(), delta.changes());
+        respondWithBody(TodoProtocol.CHANGES, requestId, TodoProtocol.OK);
+    }
+
+    /**
+     * Sends one page of the listing, encoded straight from the store's page.
+     */
+    private void handlePage(int requestId, TodoStore.Page page) throws IOException {
+        body.reset();
+        bodyData.writeLong(page.cursor());
+        bodyData.writeBoolean(page.more());
+        bodyData.writeInt(page.ids().length);
+        for (int i = 0; i < page.ids().length; i++) {
+            byte[] text = page.texts()[i].getBytes(StandardCharsets.UTF_8);
+            bodyData.writeLong(page.ids()[i]);
+            bodyData.writeInt(text.length);
+            bodyData.write(text);
+        }
+        respondWithBody(TodoProtocol.PAGE, requestId, TodoProtocol.OK);
+    }
+
+    /**
+     * Subscribes the connection; the subscriber sends the catch-up response itself.
+     */
+    private void handleSubscribe(int requestId, long since) throws IOException {
+        if (subscriber != null) {
+            respond(TodoProtocol.SUBSCRIBE, requestId, TodoProtocol.BAD_REQUEST, null, 0);
+            return;
+        }
+        subscriber = new TodoSubscriber(store, requestId, out, pushExecutor, compressor);
+        subscriber.start(since);
+    }
+
+    /**
+     * Encodes a version and a list of changes in the format of {@link TodoProtocol#CHANGES}
+     * responses and {@link TodoProtocol#EVENT} frames.
+     *
+     * @param target  the stream to write to.
+     * @param version the version the changes lead to.
+     * @param full    whether the changes replace the client's copy.
+     * @param changes the changes.
+     * @throws IOException if writing fails.
+     */
+    static void writeChanges(DataOutputStream target, long version, boolean full, Collection<TodoStore.Change> changes) throws IOException {
+        target.writeLong(version);
+        target.writeBoolean(full);
+        target.writeInt(changes.size());
+        for (TodoStore.Change change : changes) {
+            boolean added = change.operation() == TodoJournal.ADD;
+            target.writeByte(added ? TodoProtocol.ADD : TodoProtocol.DELETE);
+            target.writeLong(change.id());
+            if (added) {
+                byte[] text = change.text().getBytes(StandardCharsets.UTF_8);
+                target.writeInt(text.length);
+                target.write(text);
+            }
+        }
+    }
+
+    /**
+     * Buffers one response frame whose body has been written to {@link #body}.
+     */
+    private void respondWithBody(byte opcode, int requestId, byte status) throws IOException {
+        synchronized (out) {
+            if (compressor != null && compressor.accepts(RESPONSE_HEADER_LENGTH + body.size())) {
+                DataOutputStream payload = compressor.begin();
+                writeResponseHeader(payload, opcode, requestId, status);
+                body.writeTo(payload);
+                TodoMetrics.BYTES_OUT.add(compressor.writeFrame(out));
+                return;
+            }
+            respond(opcode, requestId, status, null, body.size());
+            body.writeTo(out);
+        }
+    }
+
+    /**
+     * Buffers one response frame; without a body array only the header is written.
+     */
+    private void respond(byte opcode, int requestId, byte status, byte[] responseBody, int length) throws IOException {
+        if (status == TodoProtocol.BAD_REQUEST) {
+            TodoMetrics.BAD_REQUESTS.increment();
+        }
+        synchronized (out) {
+            if (responseBody != null && compressor != null && compressor.accepts(RESPONSE_HEADER_LENGTH + length)) {
+                DataOutputStream payload = compressor.begin();
+                writeResponseHeader(payload, opcode, requestId, status);
+                payload.write(responseBody, 0, length);
+                TodoMetrics.BYTES_OUT.add(compressor.writeFrame(out));
+                return;
+            }
+            TodoMetrics.BYTES_OUT.add(FrameCodec.HEADER_LENGTH + RESPONSE_HEADER_LENGTH + length);
+            out.writeInt(RESPONSE_HEADER_LENGTH + length);
+            writeResponseHeader(out, opcode, requestId, status);
+            if (responseBody != null) {
+                out.write(responseBody, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Writes the start of a response or event payload: opcode, request id and status.
+     *
+     * @param target the stream to write to.
+     * @param opcode the opcode of the request, or {@link TodoProtocol#EVENT}.
+     * @param requestId the id of the request.
+     * @param status the status.
+     * @throws IOException if writing fails.
+     */
+    static void writeResponseHeader(DataOutputStream target, byte opcode, int requestId, byte status) throws IOException {
+        target.writeByte(opcode);
+        target.writeInt(requestId);
+        target.writeByte(status);
+    }
+}
@@ -20,13 +20,13 @@ public class Client {
 
             while (true) {
                 // Read options
-                System.out.println(NetworkUtils.readMessage(in));
+                NetworkUtils.printMessage(in, System.out);
                 // Get users choice
                 String userChoice = stdIn.readLine();
                 // Send users choice
                 NetworkUtils.sendMessage(out, userChoice);
                 // Read list or get prompt
-                System.out.println(NetworkUtils.readMessage(in));
+                NetworkUtils.printMessage(in, System.out);
                 // if only reading list end here
                 if (userChoice.equals("1")) {
                     continue;
@@ -1,33 +1,125 @@
 package Projects.Project2_SharedResources.src.main.java;
 
+import Common.src.main.java.FrameCodec;
+import Common.src.main.java.FrameCompressor;
+
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public class NetworkUtils {
     /**
-     * Reads a message from a client.
+     * Largest message read by {@link #readMessage(DataInputStream)}, enough for the listing of a large store.
+     */
+    public static final int MAX_MESSAGE_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Reads a message of at most {@link #MAX_MESSAGE_LENGTH} bytes.
      *
      * @param in the input stream from the client's socket
-     * @return the message read from the client, or null if the end of the stream has been reached
-     * @throws IOException if an I/O error occurs while reading from the stream
+     * @return the message read from the client, or null if the announced length is negative
+     * @throws IOException if an I/O error occurs while reading from the stream, or the message is too long
      */
     public static String readMessage(DataInputStream in) throws IOException {
+        return readMessage(in, MAX_MESSAGE_LENGTH);
+    }
+
+    /**
+     * Reads a message, sent either as one frame or as a {@link FrameCodec#STREAMED streamed frame}.
+     * <p>
+     * The length is checked before anything is allocated: a frame announcing more than
+     * {@code maxLength} bytes is rejected without reading its payload, and a streamed frame is
+     * rejected as soon as its chunks add up to more, so a peer cannot make the reader allocate
+     * more than {@code maxLength} bytes whatever length it announces.
+     * </p>
+     *
+     * @param in the input stream from the peer's socket
+     * @param maxLength the largest message accepted, in bytes
+     * @return the message read, or null if the announced length is negative
+     * @throws IOException if an I/O error occurs while reading from the stream, or the message is
+     * longer than {@code maxLength}; the connection should then be closed
+     */
+    public static String readMessage(DataInputStream in, int maxLength) throws IOException {
         // Read the length of the incoming message
         int length = in.readInt();
 
+        // A streamed message arrives in chunks
+        if (length == FrameCodec.STREAMED) {
+            return readStreamed(in, maxLength);
+        }
+
         // If length is negative, there is no message to read
         if (length < 0) {
             return null;
         }
 
-        // Read the message bytes
-        byte[] messageBytes = new byte[length];
-        in.readFully(messageBytes);
+        // Read the message bytes and convert them to a String
+        return readPayload(in, length, maxLength);
+    }
 
-        // Convert the byte array to a String and return
-        return new String(messageBytes, StandardCharsets.UTF_8);
+    /**
+     * Reads the chunks of a streamed message into one array that grows with them, up to the limit.
+     */
+    private static String readStreamed(DataInputStream in, int maxLength) throws IOException {
+        byte[] messageBytes = new byte[Math.min(maxLength, 8 * 1024)];
+        int length = 0;
+        long bytes = 2 * FrameCodec.HEADER_LENGTH; // The stream prefix and the empty chunk ending it
+        int chunk;
+        while ((chunk = in.readInt()) != 0) {
+            if (chunk < 0 || chunk > maxLength - length) {
+                throw new IOException("Streamed message exceeds the limit of " + maxLength + " bytes");
+            }
+            if (length + chunk > messageBytes.length) {
+                messageBytes = Arrays.copyOf(messageBytes, (int) Math.min(maxLength, Math.max(length + chunk, 2L * messageBytes.length)));
+            }
+            in.readFully(messageBytes, length, chunk);
+            length += chunk;
+            bytes += FrameCodec.HEADER_LENGTH + chunk;
+        }
+        TodoMetrics.BYTES_IN.add(bytes);
+        return new String(messageBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Prints a message as it arrives, followed by a line separator.
+     * <p>
+     * A message sent as one frame is printed once read, as with {@link #readMessage(DataInputStream)}.
+     * A streamed message, such as a listing, is printed chunk by chunk, so the first lines appear
+     * after the first chunk and only one chunk is held at a time whatever the length of the
+     * message. The server splits streamed text between characters, so every chunk decodes on its own.
+     * </p>
+     *
+     * @param in the input stream from the server's socket
+     * @param target where to print the message
+     * @throws IOException if an I/O error occurs while reading from the stream, or a frame or chunk
+     * is longer than {@link #MAX_MESSAGE_LENGTH}
+     */
+    public static void printMessage(DataInputStream in, PrintStream target) throws IOException {
+        int length = in.readInt();
+        if (length != FrameCodec.STREAMED) {
+            target.println(length < 0 ? null : readPayload(in, length, MAX_MESSAGE_LENGTH));
+            return;
+        }
+        while ((length = in.readInt()) != 0) {
+            target.print(readPayload(in, length, MAX_MESSAGE_LENGTH));
+        }
+        target.println();
+    }
+
+    /**
+     * Reads the payload of one frame or chunk whose length has been read.
+     */
+    private static String readPayload(DataInputStream in, int length, int maxLength) throws IOException {
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Message of " + length + " bytes exceeds the limit of " + maxLength);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        TodoMetrics.BYTES_IN.add(FrameCodec.HEADER_LENGTH + length);
+        return new String(payload, StandardCharsets.UTF_8);
     }
 
     /**
@@ -38,14 +130,27 @@ public class NetworkUtils {
      * @throws IOException if an I/O error occurs while writing to the stream
      */
     public static void sendMessage(DataOutputStream out, String message) throws IOException {
-        // Convert the message to a byte array
-        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
-
-        // Write the length of the message
-        out.writeInt(messageBytes.length);
+        // Encode the length and the message into one frame so it is sent with a single write
+        byte[] frame = FrameCodec.encode(message);
+        out.write(frame);
+        TodoMetrics.BYTES_OUT.add(frame.length);
+    }
 
-        // Write the message
-        out.write(messageBytes);
+    /**
+     * Sends a message to a client that may have negotiated compression.
+     *
+     * @param out the output stream to the client's socket
+     * @param message the message to be sent
+     * @param compressor the connection's compressor, or null if the client did not ask for compression
+     * @throws IOException if an I/O error occurs while writing to the stream
+     */
+    public static void sendMessage(DataOutputStream out, String message, FrameCompressor compressor) throws IOException {
+        if (compressor == null) {
+            sendMessage(out, message);
+            return;
+        }
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        TodoMetrics.BYTES_OUT.add(compressor.writeFrame(out, payload, 0, payload.length));
     }
 }
 
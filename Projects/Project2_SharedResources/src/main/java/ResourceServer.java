@@ -1,27 +1,122 @@
 package Projects.Project2_SharedResources.src.main.java;
 
+import Common.src.main.java.AcceptorGroup;
+import Common.src.main.java.AdmissionController;
+import Common.src.main.java.AsyncLogger;
+import Common.src.main.java.FrameCodec;
+import Common.src.main.java.FrameCompressor;
+import Common.src.main.java.Metrics;
+
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class ResourceServer {
+    /**
+     * The port number on which the server listens unless another one is given on the command line.
+     */
     private static final int PORT_NUMBER = 5555;
-    private static final ArrayList<String> projectTodos = new ArrayList<>();
+    private static TodoPersistence persistence;
+    private static TodoStore projectTodos;
+    /**
+     * The server's role in its replica set; a server started without members always leads.
+     */
+    private static TodoReplication replication;
+    /**
+     * Pushes change events to subscribed binary connections, off the threads serving requests.
+     */
+    private static final ExecutorService pushExecutor = Executors.newCachedThreadPool();
+    /**
+     * Per-connection and per-operation logging, printed off the connection threads at a bounded rate.
+     */
+    private static final AsyncLogger log = new AsyncLogger("todos", 100, 1000);
+    /**
+     * Todos per chunk of the menu listing.
+     */
+    private static final int LISTING_PAGE_SIZE = 256;
+    /**
+     * The length prefix starting a streamed frame.
+     */
+    private static final byte[] STREAM_PREFIX = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH).putInt(FrameCodec.STREAMED).array();
+    /**
+     * The empty chunk ending a streamed frame.
+     */
+    private static final byte[] STREAM_END = new byte[FrameCodec.HEADER_LENGTH];
 
+    /**
+     * Starts the server, alone or as one member of a replica set.
+     * <p>
+     * Usage: {@code ResourceServer [port [member ...]]}, where the members are the {@code host:port}
+     * or just the port of every server of the replica set, this one included, in the same order on
+     * every server. The first member to start leads; the others serve reads and take over in list
+     * order when the leader fails, see {@link TodoReplication}. A replica set of three servers on one
+     * host, for example, is started with {@code ResourceServer 5555 5555 5556 5557},
+     * {@code ResourceServer 5556 5555 5556 5557} and {@code ResourceServer 5557 5555 5556 5557}.
+     * The todos are stored in {@code resource-server-data}, suffixed with the port when it is not
+     * the default, or in the directory set with {@code -Dtodos.dir=<path>}.
+     * </p>
+     *
+     * @param args the optional port followed by the members.
+     */
     public static void main(String[] args) {
-        ExecutorService executorService = Executors.newFixedThreadPool(5);
-        System.out.println("Resource Server is running on port " + PORT_NUMBER);
-        try (ServerSocket serverSocket = new ServerSocket(PORT_NUMBER)) {
-            while (true) {
-                Socket clientSocket = serverSocket.accept(); // Wait and accept a connection
-                executorService.execute(() -> handleClient(clientSocket)); // Handle the client connection
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : PORT_NUMBER;
+        List<InetSocketAddress> members = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            members.add(parseMember(args[i]));
+        }
+        int self = members.isEmpty() ? 0 : indexOfSelf(members, port);
+        if (self < 0) {
+            System.err.println("The members must include this server, on port " + port + ".");
+            return;
+        }
+        String defaultDirectory = port == PORT_NUMBER ? "resource-server-data" : "resource-server-data-" + port;
+        Path dataDirectory = Path.of(System.getProperty("todos.dir", defaultDirectory));
+
+        // Recover the todos from disk; every change is journaled before it is acknowledged.
+        try {
+            persistence = TodoPersistence.open(dataDirectory);
+        } catch (IOException e) {
+            System.err.println("Could not open todo storage: " + e.getMessage());
+            return;
+        }
+        projectTodos = persistence.store();
+        replication = new TodoReplication(persistence, members, self);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            replication.close();
+            try {
+                persistence.close();
+            } catch (IOException e) {
+                System.err.println("Could not close todo storage: " + e.getMessage());
             }
+        }));
+
+        // Bounded thread pool or one virtual thread per client, selected at startup and shared out
+        // among the accept loops.
+        AdmissionController admission = new AdmissionController("todos",
+                AdmissionController.defaultMaxConnections(50), 0);
+
+        // Publish the metrics over JMX and, with -Dmetrics.port, over plaintext HTTP.
+        Metrics.gauge("todos.count", projectTodos::size);
+        Metrics.expose("ResourceServer");
+        System.out.println("Resource Server is running on port " + port);
+        try (AcceptorGroup acceptors = new AcceptorGroup("todos", port, 50, 1000, admission, 0,
+                ResourceServer::handleClient)) {
+            // Follow the leader, or lead, only once other members can connect to this one.
+            replication.start();
+            acceptors.run(); // Accept connections on one or more accept loops, handling or turning them away
         } catch (IOException e) {
             System.err.println("Server exception: " + e.getMessage());
             e.printStackTrace();
@@ -29,44 +124,83 @@ public class ResourceServer {
     }
 
     private static void handleClient(Socket clientSocket) {
-        addProjectTodo("Testing");
-        System.out.println("Client connected: " + clientSocket.getRemoteSocketAddress());
+        log.log("Client connected: " + clientSocket.getRemoteSocketAddress());
+        TodoMetrics.ACTIVE_CONNECTIONS.increment();
+        // Set once the client asks for compressed frames
+        FrameCompressor compressor = null;
+        // Shown above the next menu: the menu is the only reply that follows an answer to a prompt
+        String notice = "";
 
         try (
                 DataInputStream in = new DataInputStream(clientSocket.getInputStream());
                 DataOutputStream out = new DataOutputStream(clientSocket.getOutputStream())
         ) {
+            if (replication.isLeader()) {
+                notice = addProjectTodo("Testing");
+            }
             while (true) {
 
                 String optionsMessage = "What would you like to do:\n1. Print all todos\n2. Add a todo\n3. Remove a todo";
                 // send optionsMessage to ask for option
-                NetworkUtils.sendMessage(out, optionsMessage);
+                NetworkUtils.sendMessage(out, notice + optionsMessage, compressor);
+                notice = "";
                 // Receive chosenOption
-                String chosenOption = NetworkUtils.readMessage(in);
-                int choice = 0;
-                if (chosenOption.length() == 1) {
-                    choice = Integer.parseInt(chosenOption);
-                    if (choice > 0 && choice < 4) {
-                        switch (choice) {
-                            case 1 -> {
-                                NetworkUtils.sendMessage(out, getProjectTodos());
-                                continue;
-                            }
-                            case 2 -> NetworkUtils.sendMessage(out, "Please enter the todo to add.");
-                            case 3 -> NetworkUtils.sendMessage(out, "Please enter the index to delete:\n" + getProjectTodos());
-                        }
+                String chosenOption = NetworkUtils.readMessage(in, TodoProtocol.MAX_REQUEST_LENGTH);
+
+                // Clients that can decompress ask for large frames to be compressed, then see the menu again
+                if (chosenOption.equals(FrameCompressor.HANDSHAKE)) {
+                    NetworkUtils.sendMessage(out, FrameCompressor.HANDSHAKE);
+                    compressor = new FrameCompressor(TodoProtocol.COMPRESSION_DICTIONARY);
+                    continue;
+                }
+
+                // Automated clients switch to the binary protocol instead of choosing an option
+                if (chosenOption.equals(TodoProtocol.HANDSHAKE)) {
+                    log.log("Client " + clientSocket.getRemoteSocketAddress() + " switched to binary mode.");
+                    TodoMetrics.BINARY_CONNECTIONS.increment();
+                    new BinaryCommandHandler(projectTodos, in, out, pushExecutor, replication::isLeader, compressor).serve();
+                    return;
+                }
+                // Other members of the replica set stream the todos from the leader
+                if (chosenOption.equals(TodoReplication.HANDSHAKE)) {
+                    if (replication.isLeader()) {
+                        log.log("Member " + clientSocket.getRemoteSocketAddress() + " is following this server.");
                     }
+                    replication.serveFollower(in, out);
+                    return;
+                }
+
+                int choice = parseChoice(chosenOption);
+                if ((choice == 2 || choice == 3) && !replication.isLeader()) {
+                    // Sent in place of the prompt, so the client's answer is read and discarded
+                    // rather than taken for the next menu choice.
+                    NetworkUtils.sendMessage(out, "This server is a read-only replica; " + replication.describeLeader()
+                            + ". Press enter to continue.", compressor);
+                    NetworkUtils.readMessage(in, TodoProtocol.MAX_REQUEST_LENGTH);
+                    continue;
                 }
                 switch (choice) {
-                    case 2 -> addProjectTodo(NetworkUtils.readMessage(in));
-                    case 3 -> deleteProjectTodo(Integer.parseInt(NetworkUtils.readMessage(in)));
+                    case 1 -> {
+                        sendProjectTodos(out, "", compressor);
+                        continue;
+                    }
+                    case 2 -> NetworkUtils.sendMessage(out, "Please enter the todo to add.", compressor);
+                    case 3 -> sendProjectTodos(out, "Please enter the id to delete:\n", compressor);
+                }
+                switch (choice) {
+                    case 2 -> notice = addProjectTodo(NetworkUtils.readMessage(in, TodoProtocol.MAX_REQUEST_LENGTH));
+                    case 3 -> notice = deleteProjectTodo(NetworkUtils.readMessage(in, TodoProtocol.MAX_REQUEST_LENGTH));
                 }
             }
         } catch (EOFException e) {
-            System.out.println("Client " + clientSocket.getRemoteSocketAddress() + " closed connection.");
+            log.log("Client " + clientSocket.getRemoteSocketAddress() + " closed connection.");
         } catch (IOException e) {
             System.err.println("IOException with client " + clientSocket.getRemoteSocketAddress() + ": " + e.getMessage());
         } finally {
+            TodoMetrics.ACTIVE_CONNECTIONS.decrement();
+            if (compressor != null) {
+                compressor.close();
+            }
             try {
                 clientSocket.close(); // Always close the client socket after handling
             } catch (IOException e) {
@@ -76,30 +210,162 @@ public class ResourceServer {
     }
 
 
-    private synchronized static void addProjectTodo(String todo) {
-        if (projectTodos.contains(todo)) {
-            System.out.println(todo + " is already in the todo list.");
+    private static InetSocketAddress parseMember(String member) {
+        int separator = member.lastIndexOf(':');
+        if (separator < 0) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(member));
+        }
+        return new InetSocketAddress(member.substring(0, separator), Integer.parseInt(member.substring(separator + 1)));
+    }
+
+    /**
+     * @return the index of the member on this host listening on the port, or -1 if there is none.
+     */
+    private static int indexOfSelf(List<InetSocketAddress> members, int port) {
+        for (int i = 0; i < members.size(); i++) {
+            InetSocketAddress member = members.get(i);
+            InetAddress address = member.getAddress();
+            try {
+                if (member.getPort() == port && address != null
+                        && (address.isLoopbackAddress() || NetworkInterface.getByInetAddress(address) != null)) {
+                    return i;
+                }
+            } catch (SocketException e) {
+                // Not an address of this host.
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the menu option chosen, or 0 if the input is not one of the options.
+     */
+    private static int parseChoice(String chosenOption) {
+        if (chosenOption.length() != 1 || chosenOption.charAt(0) < '1' || chosenOption.charAt(0) > '3') {
+            return 0;
+        }
+        return chosenOption.charAt(0) - '0';
+    }
+
+    /**
+     * @return a notice for the client if the todo could not be stored, otherwise an empty string.
+     */
+    private static String addProjectTodo(String todo) {
+        long start = System.nanoTime();
+        long id;
+        try {
+            id = projectTodos.add(todo);
+        } catch (TodoJournal.JournalException e) {
+            return storageFailure(e);
+        }
+        TodoMetrics.ADD_LATENCY.record(System.nanoTime() - start);
+        if (id < 0) {
+            log.log(todo + " is already in the todo list.");
         } else {
-            projectTodos.add(todo);
-            System.out.println(todo + " has been added to the todo list.");
+            log.log(todo + " has been added to the todo list.");
         }
+        return "";
+    }
+
+    /**
+     * Sends the listing as a streamed frame with one chunk per page of the store.
+     * <p>
+     * Only one page is rendered and encoded at a time, so the memory used does not grow with the
+     * number of todos, and the first todos are on their way after reading a single page. The
+     * listing latency is the time spent reading the pages from the store.
+     * </p>
+     *
+     * @param out        the output stream to the client's socket
+     * @param heading    text preceding the listing, possibly empty
+     * @param compressor the connection's compressor, or null
+     * @throws IOException if an I/O error occurs while writing to the stream
+     */
+    private static void sendProjectTodos(DataOutputStream out, String heading, FrameCompressor compressor) throws IOException {
+        StringBuilder text = new StringBuilder(heading);
+        long storeNanos = 0;
+        long cursor = 0;
+        boolean first = true;
+        boolean more;
+        do {
+            long start = System.nanoTime();
+            TodoStore.Page page = projectTodos.page(cursor, "", LISTING_PAGE_SIZE);
+            storeNanos += System.nanoTime() - start;
+            for (int i = 0; i < page.ids().length; i++) {
+                text.append(page.ids()[i]).append(". ").append(page.texts()[i]).append("\n");
+            }
+            cursor = page.cursor();
+            more = page.more();
+            byte[] chunk = text.toString().getBytes(StandardCharsets.UTF_8);
+            text.setLength(0);
+            TodoMetrics.BYTES_OUT.add(writeListingChunk(out, chunk, first, !more, compressor));
+            first = false;
+        } while (more);
+        TodoMetrics.LIST_LATENCY.record(storeNanos);
     }
 
-    private synchronized static String getProjectTodos() {
-        StringBuilder todos = new StringBuilder();
-        for (int i = 0; i < projectTodos.size(); i++) {
-            String todo = projectTodos.get(i);
-            todos.append(i + 1).append(". ").append(todo).append("\n");
+    /**
+     * Writes one chunk of a streamed listing, preceded by the stream prefix on the first and
+     * followed by the empty chunk on the last, in a single write unless the chunk is compressed.
+     *
+     * @return the number of bytes written.
+     */
+    private static int writeListingChunk(DataOutputStream out, byte[] chunk, boolean first, boolean last,
+                                         FrameCompressor compressor) throws IOException {
+        // An empty chunk would end the stream early; only the prefix and the end are then written.
+        int chunkLength = chunk.length == 0 ? 0 : FrameCodec.HEADER_LENGTH + chunk.length;
+        if (compressor != null && chunkLength > 0) {
+            int written = 0;
+            if (first) {
+                out.write(STREAM_PREFIX);
+                written += FrameCodec.HEADER_LENGTH;
+            }
+            written += compressor.writeFrame(out, chunk, 0, chunk.length);
+            if (last) {
+                out.write(STREAM_END);
+                written += FrameCodec.HEADER_LENGTH;
+            }
+            return written;
         }
-        return todos.toString();
+        byte[] frame = new byte[(first ? FrameCodec.HEADER_LENGTH : 0) + chunkLength + (last ? FrameCodec.HEADER_LENGTH : 0)];
+        int position = 0;
+        if (first) {
+            FrameCodec.putHeader(frame, 0, FrameCodec.STREAMED);
+            position += FrameCodec.HEADER_LENGTH;
+        }
+        if (chunkLength > 0) {
+            FrameCodec.putHeader(frame, position, chunk.length);
+            System.arraycopy(chunk, 0, frame, position + FrameCodec.HEADER_LENGTH, chunk.length);
+        }
+        // The empty chunk ending the stream is already zero.
+        out.write(frame);
+        return frame.length;
     }
 
-    private synchronized static String deleteProjectTodo(int index) {
-        if (index <= 0 || index >= projectTodos.size()) {
+    /**
+     * @return a notice for the client if the delete could not be stored, otherwise an empty string.
+     */
+    private static String deleteProjectTodo(String id) {
+        // Input that is not an id deletes nothing instead of ending the connection.
+        long start = System.nanoTime();
+        try {
+            projectTodos.delete(Long.parseLong(id.trim()));
+        } catch (NumberFormatException e) {
+            log.log(id + " is not a todo id.");
             return "";
-        } else {
-            return projectTodos.remove(index - 1);
+        } catch (TodoJournal.JournalException e) {
+            return storageFailure(e);
         }
+        TodoMetrics.DELETE_LATENCY.record(System.nanoTime() - start);
+        return "";
+    }
+
+    /**
+     * Counts a mutation the journal refused and describes it to the client.
+     */
+    private static String storageFailure(TodoJournal.JournalException e) {
+        TodoMetrics.STORAGE_FAILURES.increment();
+        log.log("Todo storage failed: " + e.getMessage());
+        return "The change could not be saved: the server's storage failed.\n\n";
     }
 
 }
@@ -0,0 +1,546 @@
+package Projects.Project2_SharedResources.src.main.java;
+
+import Common.src.main.java.FrameCompressor;
+import Common.src.main.java.FrameReader;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe client library for {@link ResourceServer}, speaking the binary {@link TodoProtocol}
+ * over a small pool of connections.
+ * <p>
+ * Any number of application threads may call the client at once. Every call sends one request on
+ * one of the pooled connections, chosen round-robin, and returns a {@link CompletableFuture}
+ * without waiting for the server. Each connection carries many requests at a time: requests are
+ * tagged with a correlation id, a reader thread per connection matches every response to its
+ * request by that id and completes the request's future. Requests written while other threads
+ * are waiting to write on the same connection are flushed together, so a burst of calls costs a
+ * few system calls rather than one per request. Large responses are received compressed.
+ * </p>
+ * <p>
+ * Dependent actions attached with the non-async methods of the futures run on the connection's
+ * reader thread and must not block; use the {@code *Async} variants for anything slow.
+ * </p>
+ * <p>
+ * When a connection fails, the requests waiting on it fail with an {@link IOException}; whether a
+ * failed mutation was applied is unknown, so the client does not retry it. The connection is
+ * reopened in the background after an exponential backoff of 100 ms doubling up to 10 s, with
+ * jitter so that many clients do not reconnect in lockstep. Calls made while no connection is open
+ * fail at once with a {@link ConnectException}.
+ * </p>
+ * <p>
+ * Usage as a load generator: {@code TodoClient [threads [requestsPerThread [connections]]]}.
+ * </p>
+ */
+public class TodoClient implements AutoCloseable {
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    /**
+     * Length of the opcode and correlation id that start every request payload.
+     */
+    private static final int REQUEST_HEADER_LENGTH = 1 + Integer.BYTES;
+
+    /**
+     * Failure reported by the server for one request.
+     */
+    public static class RequestException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final byte status;
+
+        public RequestException(byte status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        /**
+         * @return the {@link TodoProtocol} status of the response, e.g. {@link TodoProtocol#READ_ONLY}.
+         */
+        public byte status() {
+            return status;
+        }
+    }
+
+    /**
+     * Decodes the body of a successful response on the reader thread, before the buffer is reused.
+     */
+    private interface Decoder<T> {
+        T decode(byte status, ByteBuffer body) throws RequestException;
+    }
+
+    private record Pending<T>(CompletableFuture<T> future, Decoder<T> decoder) {
+        void complete(byte status, ByteBuffer body) {
+            try {
+                future.complete(decoder.decode(status, body));
+            } catch (RequestException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final Slot[] slots;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Creates a client and starts opening its connections in the background.
+     *
+     * @param host        the server's host.
+     * @param port        the server's port.
+     * @param connections the number of pooled connections.
+     */
+    public TodoClient(String host, int port, int connections) {
+        this.address = new InetSocketAddress(host, port);
+        this.slots = new Slot[Math.max(1, connections)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(i);
+            slots[i].thread.start();
+        }
+    }
+
+    /**
+     * Waits until at least one connection is open.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit    the unit of {@code timeout}.
+     * @return true if a connection is open.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitConnected(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (connected() == 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of open connections.
+     */
+    public int connected() {
+        int count = 0;
+        for (Slot slot : slots) {
+            if (slot.connection != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fetches every todo in one response, which suits small stores. A response longer than
+     * {@link NetworkUtils#MAX_MESSAGE_LENGTH} fails the connection; list a large store with
+     * {@link #page} instead.
+     *
+     * @return the todos by id, in the server's order.
+     */
+    public CompletableFuture<Map<Long, String>> list() {
+        return send(TodoProtocol.LIST, new byte[0], (status, body) -> {
+            expectOk(TodoProtocol.LIST, status);
+            int count = body.getInt();
+            Map<Long, String> todos = new LinkedHashMap<>(Math.max(16, count * 4 / 3 + 1));
+            for (int i = 0; i < count; i++) {
+                long id = body.getLong();
+                todos.put(id, readText(body, body.getInt()));
+            }
+            return todos;
+        });
+    }
+
+    /**
+     * Fetches one page of the todos, see {@link TodoProtocol#PAGE}. A large store is listed by
+     * requesting pages with the returned cursor until {@link TodoStore.Page#more()} is false, which
+     * keeps every response small.
+     *
+     * @param after  0 for the first page, then the cursor of the previous page.
+     * @param prefix only return the todos starting with this prefix; empty for every todo.
+     * @param limit  the largest number of todos to return, at most {@link TodoStore#MAX_PAGE_SIZE}.
+     * @return the page.
+     */
+    public CompletableFuture<TodoStore.Page> page(long after, String prefix, int limit) {
+        byte[] text = prefix.getBytes(StandardCharsets.UTF_8);
+        byte[] request = ByteBuffer.allocate(Long.BYTES + Integer.BYTES + text.length)
+                .putLong(after).putInt(limit).put(text).array();
+        return send(TodoProtocol.PAGE, request, (status, body) -> {
+            expectOk(TodoProtocol.PAGE, status);
+            long cursor = body.getLong();
+            boolean more = body.get() != 0;
+            long[] ids = new long[body.getInt()];
+            String[] texts = new String[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = body.getLong();
+                texts[i] = readText(body, body.getInt());
+            }
+            return new TodoStore.Page(ids, texts, cursor, more);
+        });
+    }
+
+    /**
+     * @param todo the todo to add.
+     * @return the id of the new todo, or -1 if an identical todo exists.
+     */
+    public CompletableFuture<Long> add(String todo) {
+        return send(TodoProtocol.ADD, todo.getBytes(StandardCharsets.UTF_8), (status, body) -> {
+            if (status == TodoProtocol.DUPLICATE) {
+                return -1L;
+            }
+            expectOk(TodoProtocol.ADD, status);
+            return body.getLong();
+        });
+    }
+
+    /**
+     * @param id the id of the todo to delete.
+     * @return true if the todo existed.
+     */
+    public CompletableFuture<Boolean> delete(long id) {
+        byte[] request = ByteBuffer.allocate(Long.BYTES).putLong(id).array();
+        return send(TodoProtocol.DELETE, request, (status, body) -> {
+            if (status == TodoProtocol.NOT_FOUND) {
+                return false;
+            }
+            expectOk(TodoProtocol.DELETE, status);
+            return true;
+        });
+    }
+
+    /**
+     * Applies several mutations as one unit, see {@link TodoProtocol#BATCH}.
+     *
+     * @param mutations the adds and deletes, in order.
+     * @return per mutation the id of the added or deleted todo, or -1 if it was a duplicate or not found.
+     */
+    public CompletableFuture<long[]> apply(List<TodoStore.Mutation> mutations) {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream requestData = new DataOutputStream(request);
+        try {
+            requestData.writeInt(mutations.size());
+            for (TodoStore.Mutation mutation : mutations) {
+                if (mutation.operation() == TodoJournal.ADD) {
+                    byte[] text = mutation.text().getBytes(StandardCharsets.UTF_8);
+                    requestData.writeByte(TodoProtocol.ADD);
+                    requestData.writeInt(text.length);
+                    requestData.write(text);
+                } else {
+                    requestData.writeByte(TodoProtocol.DELETE);
+                    requestData.writeLong(mutation.id());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory cannot fail", e);
+        }
+        return send(TodoProtocol.BATCH, request.toByteArray(), (status, body) -> {
+            expectOk(TodoProtocol.BATCH, status);
+            long[] results = new long[body.getInt()];
+            for (int i = 0; i < results.length; i++) {
+                byte operationStatus = body.get();
+                long id = body.getLong();
+                results[i] = operationStatus == TodoProtocol.OK ? id : -1;
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Closes every connection and fails the requests still waiting.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Slot slot : slots) {
+            slot.thread.interrupt();
+            Connection connection = slot.connection;
+            if (connection != null) {
+                connection.fail(new IOException("Client closed"));
+            }
+        }
+    }
+
+    /**
+     * Sends a request on the next open connection.
+     */
+    private <T> CompletableFuture<T> send(byte opcode, byte[] body, Decoder<T> decoder) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Client closed"));
+        }
+        int start = nextSlot.getAndIncrement();
+        for (int i = 0; i < slots.length; i++) {
+            Connection connection = slots[Math.floorMod(start + i, slots.length)].connection;
+            if (connection != null) {
+                return connection.send(opcode, body, decoder);
+            }
+        }
+        return CompletableFuture.failedFuture(new ConnectException("Not connected to " + address));
+    }
+
+    private static void expectOk(byte opcode, byte status) throws RequestException {
+        if (status != TodoProtocol.OK) {
+            String reason = switch (status) {
+                case TodoProtocol.READ_ONLY -> "the server is a read-only replica";
+                case TodoProtocol.BAD_REQUEST -> "the server could not decode the request";
+                case TodoProtocol.STORAGE_FAILED -> "the server could not store the change";
+                default -> "status " + status;
+            };
+            throw new RequestException(status, "Request " + opcode + " failed: " + reason);
+        }
+    }
+
+    private static String readText(ByteBuffer body, int length) {
+        String text = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return text;
+    }
+
+    /**
+     * One position in the pool: keeps a connection open and reads its responses.
+     */
+    private final class Slot implements Runnable {
+        final Thread thread;
+        /**
+         * The open connection, or null while connecting.
+         */
+        volatile Connection connection;
+
+        Slot(int index) {
+            this.thread = new Thread(this, "todo-client-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long backoff = INITIAL_BACKOFF_MILLIS;
+            while (!closed) {
+                Connection opened = null;
+                try {
+                    opened = new Connection();
+                    connection = opened;
+                    backoff = INITIAL_BACKOFF_MILLIS;
+                    opened.readResponses();
+                } catch (IOException e) {
+                    if (opened != null) {
+                        connection = null;
+                        opened.fail(e);
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                try {
+                    // Jitter: wait between half the backoff and the whole of it.
+                    TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+            }
+        }
+    }
+
+    /**
+     * One open connection in binary mode.
+     */
+    private final class Connection {
+        private final Socket socket;
+        private final FrameReader in;
+        private final DataOutputStream out;
+        private final AtomicInteger nextRequestId = new AtomicInteger();
+        private final ConcurrentHashMap<Integer, Pending<?>> pending = new ConcurrentHashMap<>();
+        /**
+         * Threads writing or waiting to write; the last one of a burst flushes.
+         */
+        private final AtomicInteger writers = new AtomicInteger();
+        /**
+         * Set under the output's monitor once the connection failed; no request is sent after.
+         */
+        private boolean failed;
+
+        /**
+         * Connects, negotiates compression and switches to binary mode.
+         */
+        Connection() throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                // A corrupt or hostile length must not make the library allocate without bound.
+                in = new FrameReader(socket.getInputStream(), NetworkUtils.MAX_MESSAGE_LENGTH);
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+
+                expectFrame(null); // The menu
+                NetworkUtils.sendMessage(out, FrameCompressor.HANDSHAKE);
+                out.flush();
+                expectFrame(FrameCompressor.HANDSHAKE);
+                in.enableDecompression(TodoProtocol.COMPRESSION_DICTIONARY);
+                expectFrame(null); // The menu again
+                NetworkUtils.sendMessage(out, TodoProtocol.HANDSHAKE);
+                out.flush();
+                expectFrame(TodoProtocol.HANDSHAKE);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        private void expectFrame(String expected) throws IOException {
+            if (in.readFrame() < 0) {
+                throw new IOException("Invalid frame length during handshake");
+            }
+            if (expected != null && !in.payloadAsString().equals(expected)) {
+                throw new IOException("Unexpected handshake reply: " + in.payloadAsString());
+            }
+        }
+
+        <T> CompletableFuture<T> send(byte opcode, byte[] body, Decoder<T> decoder) {
+            int requestId = nextRequestId.getAndIncrement();
+            CompletableFuture<T> future = new CompletableFuture<>();
+            pending.put(requestId, new Pending<>(future, decoder));
+
+            writers.incrementAndGet();
+            synchronized (out) {
+                // Flush only if no other thread is about to write behind this request.
+                boolean last = writers.decrementAndGet() == 0;
+                if (failed) {
+                    pending.remove(requestId);
+                    future.completeExceptionally(new IOException("Connection to " + address + " lost"));
+                    return future;
+                }
+                try {
+                    out.writeInt(REQUEST_HEADER_LENGTH + body.length);
+                    out.writeByte(opcode);
+                    out.writeInt(requestId);
+                    out.write(body);
+                    if (last) {
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // The reader thread notices the closed socket, fails the other requests and reconnects.
+                    pending.remove(requestId);
+                    future.completeExceptionally(e);
+                    closeSocket();
+                }
+            }
+            return future;
+        }
+
+        /**
+         * Completes requests as their responses arrive, until the connection fails.
+         */
+        void readResponses() throws IOException {
+            try {
+                while (true) {
+                    if (in.readFrame() < 0) {
+                        throw new IOException("Invalid response length, or longer than "
+                                + NetworkUtils.MAX_MESSAGE_LENGTH + " bytes");
+                    }
+                    ByteBuffer response = ByteBuffer.wrap(in.buffer(), 0, in.length());
+                    response.get(); // The opcode
+                    int requestId = response.getInt();
+                    byte status = response.get();
+                    Pending<?> request = pending.remove(requestId);
+                    if (request != null) {
+                        request.complete(status, response);
+                    }
+                }
+            } finally {
+                in.release();
+            }
+        }
+
+        /**
+         * Closes the connection and fails every request waiting on it.
+         */
+        void fail(IOException cause) {
+            closeSocket();
+            synchronized (out) {
+                failed = true;
+            }
+            // Requests registered before the flag was set are in the map now; later ones see the flag.
+            List<Pending<?>> failing = new ArrayList<>(pending.values());
+            pending.clear();
+            for (Pending<?> request : failing) {
+                request.future().completeExceptionally(cause);
+            }
+        }
+
+        private void closeSocket() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway.
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int requestsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        try (TodoClient client = new TodoClient("localhost", 5555, connections)) {
+            if (!client.awaitConnected(5, TimeUnit.SECONDS)) {
+                System.err.println("Could not connect to the resource server.");
+                return;
+            }
+            System.out.println(threads + " threads sharing " + client.connected() + " connections");
+
+            // Every thread adds its todos without waiting, then deletes them once all adds are answered.
+            long start = System.nanoTime();
+            AtomicInteger failures = new AtomicInteger();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                Thread worker = new Thread(() -> {
+                    List<CompletableFuture<Long>> adds = new ArrayList<>(requestsPerThread);
+                    for (int i = 0; i < requestsPerThread; i++) {
+                        adds.add(client.add("Todo " + i + " of thread " + thread + " @" + start));
+                    }
+                    List<CompletableFuture<Boolean>> deletes = new ArrayList<>(requestsPerThread);
+                    for (CompletableFuture<Long> add : adds) {
+                        try {
+                            deletes.add(client.delete(add.join()));
+                        } catch (RuntimeException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    for (CompletableFuture<Boolean> delete : deletes) {
+                        if (!delete.exceptionally(e -> false).join()) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long requests = 2L * threads * requestsPerThread;
+            System.out.printf("%d requests in %.3f s (%.0f requests/s), %d failed%n",
+                    requests, seconds, requests / seconds, failures.get());
+            System.out.println("Server holds " + client.list().join().size() + " todos");
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package Projects.Project2_SharedResources.src.main.java;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of todo mutations with group commit.
+ * <p>
+ * Every mutation is assigned a sequence number and appended as one checksummed record. Callers
+ * enqueue records cheaply while holding the store's write lock, which fixes the log order to the
+ * order in which the mutations were applied, and then wait outside the lock until their record
+ * is durable. A single flusher thread writes everything queued since its last pass with one
+ * write and one {@code fsync}, so concurrent clients share the cost of a disk flush instead of
+ * paying one each.
+ * </p>
+ * <p>
+ * The log is split into files named after the sequence number of their first record. After a
+ * snapshot, the journal switches to a new file and deletes the files whose records are all
+ * covered by the snapshot, so the log only grows between snapshots.
+ * </p>
+ * <p>
+ * Record layout: {@code int length, int crc32, long sequence, byte operation, long id, text},
+ * where {@code length} and {@code crc32} cover everything after the checksum.
+ * </p>
+ * <p>
+ * A failed write stops the flusher for good: the records still queued are dropped, waiters are
+ * told, and every later append is refused with a {@link JournalException}, so a journal that can
+ * no longer write neither accepts mutations nor accumulates their records.
+ * </p>
+ */
+public class TodoJournal implements Closeable {
+    /**
+     * Operation code of a record adding a todo.
+     */
+    public static final byte ADD = 1;
+    /**
+     * Operation code of a record deleting a todo.
+     */
+    public static final byte DELETE = 2;
+
+    private static final String FILE_PREFIX = "wal-";
+    private static final String FILE_SUFFIX = ".log";
+    /**
+     * Size of the fixed part of a record following the length and checksum.
+     */
+    private static final int RECORD_FIXED_LENGTH = Long.BYTES + 1 + Long.BYTES;
+    /**
+     * Upper bound on a record's length; anything larger can only be a corrupted length field.
+     */
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * The journal failed to write or was closed, so a record was refused or could not be made durable.
+     */
+    public static class JournalException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public JournalException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Receives the records read back during recovery.
+     */
+    public interface RecordConsumer {
+        void accept(long sequence, byte operation, long id, String text);
+    }
+
+    private final Path directory;
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled when records are queued or the journal is closed.
+     */
+    private final Condition recordsQueued = lock.newCondition();
+    /**
+     * Signalled when a batch has been made durable or the flusher failed.
+     */
+    private final Condition batchDurable = lock.newCondition();
+    /**
+     * Encoded records waiting for the flusher.
+     */
+    private List<ByteBuffer> pending = new ArrayList<>();
+    /**
+     * Sequence number of the last queued record.
+     */
+    private long lastQueued;
+    /**
+     * Sequence number of the last record known to be on disk.
+     */
+    private long lastDurable;
+    /**
+     * Snapshot sequence after which the flusher should start a new file, or -1.
+     */
+    private long rotationRequested = -1;
+    private IOException failure;
+    /**
+     * Set when closing; the flusher still writes what is queued.
+     */
+    private boolean closed;
+    /**
+     * Set once the flusher has exited.
+     */
+    private boolean stopped;
+
+    /**
+     * The file currently appended to; only used by the flusher thread.
+     */
+    private FileChannel current;
+    private final Thread flusher;
+
+    /**
+     * Opens a journal that continues after the given sequence number in a new log file.
+     *
+     * @param directory    the directory holding the log files.
+     * @param lastSequence the sequence number of the last recovered record.
+     * @throws IOException if the log file cannot be created.
+     */
+    public TodoJournal(Path directory, long lastSequence) throws IOException {
+        this.directory = directory;
+        this.lastQueued = lastSequence;
+        this.lastDurable = lastSequence;
+        this.current = openFile(lastSequence + 1);
+        this.flusher = new Thread(this::flushLoop, "todo-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Queues a record without waiting for it to reach the disk.
+     * <p>
+     * Must be called in the order in which the mutations are applied, i.e. under the store's write lock.
+     * </p>
+     *
+     * @param operation {@link #ADD} or {@link #DELETE}.
+     * @param id        the id of the todo.
+     * @param text      the todo text, or an empty string for deletes.
+     * @return the record's sequence number, to pass to {@link #awaitDurable(long)}.
+     * @throws JournalException if an earlier write failed or the journal is closed; nothing is queued.
+     */
+    public long append(byte operation, long id, String text) throws JournalException {
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            checkWritable();
+            long sequence = ++lastQueued;
+            ByteBuffer record = ByteBuffer.allocate(2 * Integer.BYTES + RECORD_FIXED_LENGTH + textBytes.length);
+            record.putInt(RECORD_FIXED_LENGTH + textBytes.length);
+            record.putInt(0);
+            record.putLong(sequence).put(operation).putLong(id).put(textBytes);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 2 * Integer.BYTES, RECORD_FIXED_LENGTH + textBytes.length);
+            record.putInt(Integer.BYTES, (int) crc.getValue());
+            record.flip();
+            pending.add(record);
+            recordsQueued.signal();
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a record and all records before it are durable.
+     *
+     * @param sequence the sequence number returned by {@link #append}.
+     * @throws JournalException if the journal failed to write or was closed before the record was written.
+     */
+    public void awaitDurable(long sequence) throws JournalException {
+        lock.lock();
+        try {
+            while (lastDurable < sequence) {
+                if (failure != null) {
+                    throw new JournalException("Journal write failed", failure);
+                }
+                if (stopped) {
+                    throw new JournalException("Journal closed", null);
+                }
+                batchDurable.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Refuses new records once a write failed or closing began. Called with the lock held.
+     */
+    private void checkWritable() throws JournalException {
+        if (failure != null) {
+            throw new JournalException("Journal write failed", failure);
+        }
+        if (closed) {
+            throw new JournalException("Journal closed", null);
+        }
+    }
+
+    /**
+     * @return the sequence number of the last queued record.
+     */
+    public long lastQueued() {
+        lock.lock();
+        try {
+            return lastQueued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Asks the flusher to continue in a new file and drop the files covered by a snapshot.
+     *
+     * @param snapshotSequence the last sequence number included in the snapshot.
+     */
+    public void snapshotTaken(long snapshotSequence) {
+        lock.lock();
+        try {
+            rotationRequested = snapshotSequence;
+            recordsQueued.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes queued batches until the journal is closed.
+     */
+    private void flushLoop() {
+        while (true) {
+            List<ByteBuffer> batch;
+            long batchLast;
+            long rotation;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && rotationRequested < 0 && !closed) {
+                    recordsQueued.awaitUninterruptibly();
+                }
+                if (pending.isEmpty() && rotationRequested < 0 && closed) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                batchLast = lastQueued;
+                rotation = rotationRequested;
+                rotationRequested = -1;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                if (rotation >= 0) {
+                    rotate(batchLast - batch.size() + 1, rotation);
+                }
+                if (!batch.isEmpty()) {
+                    ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                    while (buffers[buffers.length - 1].hasRemaining()) {
+                        current.write(buffers);
+                    }
+                    current.force(false);
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    // Nothing will write the records queued meanwhile; their waiters fail instead.
+                    pending = new ArrayList<>();
+                    batchDurable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+
+            lock.lock();
+            try {
+                lastDurable = batchLast;
+                batchDurable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Switches to a new file and deletes the files whose records are all covered by a snapshot.
+     *
+     * @param firstSequence    the sequence number of the first record of the new file.
+     * @param snapshotSequence the last sequence number included in the snapshot.
+     */
+    private void rotate(long firstSequence, long snapshotSequence) throws IOException {
+        current.force(false);
+        current.close();
+        current = openFile(firstSequence);
+
+        List<Long> starts = listFiles(directory);
+        for (int i = 0; i + 1 < starts.size(); i++) {
+            // A file ends where the next one begins.
+            if (starts.get(i + 1) - 1 <= snapshotSequence) {
+                Files.deleteIfExists(fileFor(directory, starts.get(i)));
+            }
+        }
+    }
+
+    private FileChannel openFile(long firstSequence) throws IOException {
+        return FileChannel.open(fileFor(directory, firstSequence),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Writes the remaining queued records and stops the flusher.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            recordsQueued.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            stopped = true;
+            batchDurable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        current.close();
+    }
+
+    /**
+     * Replays the log files of a directory in order.
+     * <p>
+     * Reading a file stops at the first torn or corrupted record. In the newest file, that is the
+     * tail that was being written when the process stopped, and it is truncated. Older files were
+     * complete when the next one was opened, so a bad record in them is real corruption: replaying
+     * the later files over the gap it leaves would yield a wrong state, so replay fails instead.
+     * </p>
+     *
+     * @param directory     the directory holding the log files.
+     * @param afterSequence records up to and including this sequence number are skipped.
+     * @param consumer      receives the replayed records.
+     * @return the sequence number of the last record seen, or {@code afterSequence} if none.
+     * @throws IOException if a log file cannot be read, or a file other than the newest is corrupted.
+     */
+    public static long replay(Path directory, long afterSequence, RecordConsumer consumer) throws IOException {
+        long last = afterSequence;
+        List<Long> starts = listFiles(directory);
+        for (int i = 0; i < starts.size(); i++) {
+            long start = starts.get(i);
+            Path file = fileFor(directory, start);
+            long validLength = 0;
+            try (InputStream stream = Files.newInputStream(file);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int expectedCrc = in.readInt();
+                    if (length < RECORD_FIXED_LENGTH || length > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    byte[] body = new byte[length];
+                    in.readFully(body);
+                    CRC32 crc = new CRC32();
+                    crc.update(body);
+                    if ((int) crc.getValue() != expectedCrc) {
+                        break;
+                    }
+                    ByteBuffer record = ByteBuffer.wrap(body);
+                    long sequence = record.getLong();
+                    byte operation = record.get();
+                    long id = record.getLong();
+                    String text = new String(body, RECORD_FIXED_LENGTH, length - RECORD_FIXED_LENGTH, StandardCharsets.UTF_8);
+                    if (sequence > afterSequence) {
+                        consumer.accept(sequence, operation, id, text);
+                    }
+                    last = Math.max(last, sequence);
+                    validLength += 2 * Integer.BYTES + length;
+                }
+            } catch (EOFException e) {
+                // A record was cut short; everything before it is valid.
+            }
+            if (validLength < Files.size(file)) {
+                if (i < starts.size() - 1) {
+                    throw new IOException("Corrupted journal file " + file.getFileName() + " at byte " + validLength
+                            + ", after record " + last);
+                }
+                System.out.println("Truncating torn journal tail of " + file.getFileName() + " at byte " + validLength);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Deletes every log file in a directory; the journal using it must be closed.
+     *
+     * @param directory the directory holding the log files.
+     * @throws IOException if a file cannot be deleted.
+     */
+    public static void deleteAll(Path directory) throws IOException {
+        for (long start : listFiles(directory)) {
+            Files.deleteIfExists(fileFor(directory, start));
+        }
+    }
+
+    /**
+     * @return the first sequence numbers of the log files in a directory, in ascending order.
+     */
+    private static List<Long> listFiles(Path directory) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                starts.add(Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length())));
+            }
+        }
+        starts.sort(null);
+        return starts;
+    }
+
+    private static Path fileFor(Path directory, long firstSequence) {
+        // Zero-padded so that the names also sort in sequence order.
+        return directory.resolve(String.format("%s%020d%s", FILE_PREFIX, firstSequence, FILE_SUFFIX));
+    }
+}
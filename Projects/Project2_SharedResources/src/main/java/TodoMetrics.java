@@ -0,0 +1,63 @@
+package Projects.Project2_SharedResources.src.main.java;
+
+import Common.src.main.java.LatencyHistogram;
+import Common.src.main.java.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of {@link ResourceServer}, shared by the menu mode, the binary protocol and the
+ * subscriptions.
+ * <p>
+ * Latencies are measured around the store operation a request triggers, including the wait for
+ * the journal, so the count of each histogram is also the number of operations served.
+ * </p>
+ */
+public final class TodoMetrics {
+    public static final LatencyHistogram LIST_LATENCY = Metrics.histogram("todos.list.latency");
+    public static final LatencyHistogram ADD_LATENCY = Metrics.histogram("todos.add.latency");
+    public static final LatencyHistogram DELETE_LATENCY = Metrics.histogram("todos.delete.latency");
+    public static final LatencyHistogram BATCH_LATENCY = Metrics.histogram("todos.batch.latency");
+    public static final LatencyHistogram CHANGES_LATENCY = Metrics.histogram("todos.changes.latency");
+    public static final LatencyHistogram PAGE_LATENCY = Metrics.histogram("todos.page.latency");
+
+    public static final LongAdder ACTIVE_CONNECTIONS = Metrics.counter("todos.connections.active");
+    public static final LongAdder BINARY_CONNECTIONS = Metrics.counter("todos.connections.binary");
+    public static final LongAdder BAD_REQUESTS = Metrics.counter("todos.badRequests");
+    /**
+     * Mutations rejected or not made durable because the journal failed.
+     */
+    public static final LongAdder STORAGE_FAILURES = Metrics.counter("todos.storageFailures");
+    public static final LongAdder BYTES_IN = Metrics.counter("todos.bytesIn");
+    public static final LongAdder BYTES_OUT = Metrics.counter("todos.bytesOut");
+
+    public static final LongAdder ACTIVE_SUBSCRIBERS = Metrics.counter("todos.subscribers.active");
+    public static final LongAdder EVENTS_PUSHED = Metrics.counter("todos.subscribers.events");
+    /**
+     * Full listings pushed to subscribers whose queue overflowed.
+     */
+    public static final LongAdder RESYNCS = Metrics.counter("todos.subscribers.resyncs");
+
+    public static final LongAdder FOLLOWERS = Metrics.counter("todos.replication.followers");
+    public static final LongAdder CHANGES_SHIPPED = Metrics.counter("todos.replication.shipped");
+    public static final LongAdder CHANGES_APPLIED = Metrics.counter("todos.replication.applied");
+    /**
+     * Snapshots sent to followers whose log could not be continued.
+     */
+    public static final LongAdder SNAPSHOTS_SENT = Metrics.counter("todos.replication.snapshotsSent");
+    /**
+     * Snapshots received from a leader, replacing this replica's contents.
+     */
+    public static final LongAdder RESYNCS_RECEIVED = Metrics.counter("todos.replication.resyncs");
+
+    private TodoMetrics() {
+    }
+
+    /**
+     * Publishes the replication role and the store version, to compare the replicas' progress.
+     */
+    static void registerReplicationGauges(TodoReplication replication, TodoStore store) {
+        Metrics.gauge("todos.replication.leader", () -> replication.isLeader() ? 1 : 0);
+        Metrics.gauge("todos.version", store::version);
+    }
+}
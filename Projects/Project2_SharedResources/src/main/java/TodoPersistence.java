@@ -0,0 +1,153 @@
+package Projects.Project2_SharedResources.src.main.java;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable storage engine behind a {@link TodoStore}.
+ * <p>
+ * Opening a data directory recovers the store by memory-mapping the latest
+ * {@link TodoSnapshot} and replaying only the {@link TodoJournal} records written after it.
+ * From then on every mutation is journaled with group commit, and a background task writes a
+ * fresh compacted snapshot once enough records have accumulated, after which the journal files
+ * it covers are deleted. Closing writes a final snapshot so the next start replays nothing.
+ * </p>
+ */
+public final class TodoPersistence implements Closeable {
+    /**
+     * Number of journal records after which a new snapshot is written.
+     */
+    private static final long SNAPSHOT_EVERY_RECORDS = 10_000;
+    /**
+     * Interval in seconds at which the need for a snapshot is checked.
+     */
+    private static final long SNAPSHOT_CHECK_SECONDS = 10;
+
+    private final Path directory;
+    private final TodoStore store;
+    /**
+     * The journal of the store; replaced when a replica is reset.
+     */
+    private volatile TodoJournal journal;
+    private final ScheduledExecutorService snapshotter;
+    /**
+     * Sequence number of the last record covered by the newest snapshot.
+     */
+    private long snapshotSequence;
+
+    private TodoPersistence(Path directory, TodoStore store, TodoJournal journal, long snapshotSequence) {
+        this.directory = directory;
+        this.store = store;
+        this.journal = journal;
+        this.snapshotSequence = snapshotSequence;
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "todo-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.snapshotter.scheduleWithFixedDelay(this::snapshotIfDue,
+                SNAPSHOT_CHECK_SECONDS, SNAPSHOT_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Opens a data directory, creating it if needed, and recovers its todos.
+     *
+     * @param directory the data directory.
+     * @return the persistence engine, whose {@link #store()} is ready to use.
+     * @throws IOException if the directory cannot be created or its contents cannot be read.
+     */
+    public static TodoPersistence open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        long start = System.nanoTime();
+
+        TodoStore store = new TodoStore();
+        TodoSnapshot.State snapshot = TodoSnapshot.read(directory);
+        long snapshotSequence = 0;
+        if (snapshot != null) {
+            store.restore(snapshot);
+            snapshotSequence = snapshot.lastSequence();
+        }
+        long lastSequence = TodoJournal.replay(directory, snapshotSequence, store::replay);
+
+        TodoJournal journal = new TodoJournal(directory, lastSequence);
+        store.attach(journal);
+        System.out.println("Recovered " + store.size() + " todos from " + directory.toAbsolutePath()
+                + " (snapshot at record " + snapshotSequence + ", replayed " + (lastSequence - snapshotSequence)
+                + " records) in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return new TodoPersistence(directory, store, journal, snapshotSequence);
+    }
+
+    /**
+     * @return the recovered store, journaling its mutations to this engine.
+     */
+    public TodoStore store() {
+        return store;
+    }
+
+    /**
+     * Writes a snapshot if enough records have been journaled since the last one.
+     */
+    private void snapshotIfDue() {
+        try {
+            if (journal.lastQueued() - currentSnapshotSequence() >= SNAPSHOT_EVERY_RECORDS) {
+                snapshot();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write todo snapshot: " + e.getMessage());
+        }
+    }
+
+    private synchronized long currentSnapshotSequence() {
+        return snapshotSequence;
+    }
+
+    /**
+     * Writes a compacted snapshot of the store and lets the journal drop the files it covers.
+     *
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public synchronized void snapshot() throws IOException {
+        TodoSnapshot.State state = store.captureState();
+        if (state.lastSequence() == snapshotSequence) {
+            return;
+        }
+        TodoSnapshot.write(directory, state);
+        snapshotSequence = state.lastSequence();
+        journal.snapshotTaken(snapshotSequence);
+    }
+
+    /**
+     * Replaces the store's contents and durable state with an image of the leader's store, for a
+     * replica that cannot catch up change by change.
+     * <p>
+     * The journal is closed and its files deleted, since they may hold changes the leader never
+     * had; the image is written as the new snapshot and a fresh journal continues after it.
+     * </p>
+     *
+     * @param state the leader's contents.
+     * @throws IOException if the journal or the snapshot cannot be replaced.
+     */
+    public synchronized void reset(TodoSnapshot.State state) throws IOException {
+        journal.close();
+        TodoJournal.deleteAll(directory);
+        TodoSnapshot.write(directory, state);
+        journal = new TodoJournal(directory, state.lastSequence());
+        store.reset(state, journal);
+        snapshotSequence = state.lastSequence();
+    }
+
+    /**
+     * Stops background snapshots, writes a final snapshot and closes the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        snapshotter.shutdownNow();
+        snapshot();
+        journal.close();
+    }
+}
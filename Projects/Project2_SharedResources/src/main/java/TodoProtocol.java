@@ -0,0 +1,126 @@
+package Projects.Project2_SharedResources.src.main.java;
+
+import Common.src.main.java.FrameCompressor;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants of the binary command protocol spoken by {@link ResourceServer}.
+ * <p>
+ * A connection starts in the interactive menu mode. A client that sends {@link #HANDSHAKE} in
+ * reply to the first menu switches the connection to binary mode; the server confirms by sending
+ * {@link #HANDSHAKE} back. From then on every request and every response is one length-prefixed
+ * frame, requests may be pipelined without waiting for their responses, and responses arrive in
+ * request order carrying the request id they answer.
+ * </p>
+ * <p>
+ * Request payload: {@code byte opcode, int requestId}, then
+ * </p>
+ * <ul>
+ *     <li>{@link #LIST}: nothing.</li>
+ *     <li>{@link #ADD}: the UTF-8 todo text, up to the end of the frame.</li>
+ *     <li>{@link #DELETE}: {@code long id}.</li>
+ *     <li>{@link #BATCH}: {@code int count}, then {@code count} operations, each
+ *     {@code byte ADD, int length, UTF-8 text} or {@code byte DELETE, long id}. The batch is
+ *     applied under one lock acquisition and made durable with one commit.</li>
+ *     <li>{@link #CHANGES}: {@code long version}, the store version the client last saw.</li>
+ *     <li>{@link #SUBSCRIBE}: {@code long version}, as for {@link #CHANGES}.</li>
+ *     <li>{@link #UNSUBSCRIBE}: nothing.</li>
+ *     <li>{@link #PAGE}: {@code long cursor, int limit}, then the UTF-8 prefix up to the end of
+ *     the frame, empty for every todo. The cursor is 0 for the first page.</li>
+ * </ul>
+ * <p>
+ * Response payload: {@code byte opcode, int requestId, byte status}, then
+ * </p>
+ * <ul>
+ *     <li>{@link #LIST}: {@code int count}, then {@code count} entries of {@code long id, int length, UTF-8 text}.</li>
+ *     <li>{@link #ADD}: {@code long id}, the id of the new todo when the status is {@link #OK}.</li>
+ *     <li>{@link #DELETE}: nothing.</li>
+ *     <li>{@link #BATCH}: {@code int count}, then per operation {@code byte status, long id}.</li>
+ *     <li>{@link #CHANGES}: {@code long version, boolean full, int count}, then {@code count}
+ *     changes, each {@code byte ADD, long id, int length, UTF-8 text} or {@code byte DELETE, long id}.
+ *     When {@code full} is set the requested version is too old for a delta and the changes add
+ *     every current todo, replacing the client's copy.</li>
+ *     <li>{@link #SUBSCRIBE}: the changes since the requested version, as for {@link #CHANGES}.</li>
+ *     <li>{@link #UNSUBSCRIBE}: nothing; no event follows the response.</li>
+ *     <li>{@link #PAGE}: {@code long cursor, boolean more, int count}, then {@code count}
+ *     entries as for {@link #LIST}. While {@code more} is set, the next page is requested with
+ *     the returned cursor; a filtered page may be short or empty before the end is reached.</li>
+ * </ul>
+ * <p>
+ * {@link #LIST} answers with every todo in one frame. Clients of large stores should walk the
+ * pages instead, which bounds the size of every response and the time to the first todo.
+ * </p>
+ * <p>
+ * After a successful {@link #SUBSCRIBE}, the server pushes {@link #EVENT} frames carrying the
+ * subscribe request's id and a body in the format of a {@link #CHANGES} response, interleaved
+ * with the responses to further requests. Each event covers all changes committed since the
+ * previous one; if the subscriber fell too far behind, an event flagged {@code full} replaces its copy.
+ * </p>
+ * <p>
+ * A client may first reply {@link FrameCompressor#HANDSHAKE} to the menu, which the server
+ * confirms before sending the menu again. From then on, in either mode, the server may send any
+ * frame compressed with {@link #COMPRESSION_DICTIONARY}, as described by {@link FrameCompressor};
+ * requests are never compressed.
+ * </p>
+ */
+public final class TodoProtocol {
+    /**
+     * Reply to the menu that switches a connection to binary mode.
+     */
+    public static final String HANDSHAKE = "BIN1";
+    /**
+     * Largest request payload accepted in binary mode.
+     */
+    public static final int MAX_REQUEST_LENGTH = 1024 * 1024;
+    /**
+     * Preset dictionary for compressed frames: the menu texts, the start of listing lines and the
+     * zero bytes that fill the high end of ids and lengths in binary listings.
+     */
+    public static final byte[] COMPRESSION_DICTIONARY = ("Please enter the id to delete:\n"
+            + "What would you like to do:\n1. Print all todos\n2. Add a todo\n3. Remove a todo"
+            + "\0\0\0\0\0\0\0\0\0\0\0\0\n1. \n2. \n3. \n4. \n5. \n6. \n7. \n8. \n9. ")
+            .getBytes(StandardCharsets.UTF_8);
+
+    public static final byte LIST = 1;
+    public static final byte ADD = 2;
+    public static final byte DELETE = 3;
+    public static final byte BATCH = 4;
+    public static final byte CHANGES = 5;
+    public static final byte SUBSCRIBE = 6;
+    public static final byte UNSUBSCRIBE = 7;
+    /**
+     * Opcode of the frames pushed to subscribers; never sent by clients.
+     */
+    public static final byte EVENT = 8;
+    public static final byte PAGE = 9;
+
+    /**
+     * The operation succeeded.
+     */
+    public static final byte OK = 0;
+    /**
+     * An add was rejected because an identical todo exists.
+     */
+    public static final byte DUPLICATE = 1;
+    /**
+     * A delete named an id that does not exist.
+     */
+    public static final byte NOT_FOUND = 2;
+    /**
+     * The request could not be decoded or has an unknown opcode.
+     */
+    public static final byte BAD_REQUEST = 3;
+    /**
+     * A mutation was sent to a read-only replica; it must be sent to the leader instead.
+     */
+    public static final byte READ_ONLY = 4;
+    /**
+     * A mutation was not made durable because the server's journal failed; it must be treated as
+     * lost. The server rejects every mutation from then on, until it is restarted.
+     */
+    public static final byte STORAGE_FAILED = 5;
+
+    private TodoProtocol() {
+    }
+}
@@ -0,0 +1,510 @@
+package Projects.Project2_SharedResources.src.main.java;
+
+import Common.src.main.java.FrameCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Leader-based replication of the todo store across several {@link ResourceServer} processes.
+ * <p>
+ * The servers of a replica set are started with the same ordered list of members. One of them
+ * is the leader: it accepts mutations, journals them as usual and streams every committed change
+ * to the other members, the followers. Followers apply the changes to their own store and
+ * journal under the leader's version numbers, so a follower's store, journal and version always
+ * equal a prefix of the leader's, and serve listings and change queries locally while rejecting
+ * mutations. Replication is asynchronous: a mutation is acknowledged once the leader has made it
+ * durable, before the followers have it.
+ * </p>
+ * <p>
+ * A follower connects to the leader on its regular port and replies {@value #HANDSHAKE} to the
+ * menu, followed by a request frame {@code long epoch, long version} naming the log it holds. The
+ * leader answers with length-prefixed frames whose first byte is their type:
+ * </p>
+ * <ul>
+ *     <li>{@code NOT_LEADER}: the member is a follower itself; the connection ends.</li>
+ *     <li>{@code SYNC}: {@code long epoch, boolean full}; the leader's epoch and whether the
+ *     follower's contents are replaced by a snapshot rather than continued by changes.</li>
+ *     <li>{@code SNAPSHOT}: {@code long version, long nextId, boolean last, int count}, then
+ *     {@code count} entries of {@code long id, text}; a snapshot may span several frames.</li>
+ *     <li>{@code CHANGES}: {@code int count}, then {@code count} entries of
+ *     {@code long version, byte operation, long id, text}; a batch of consecutive changes.</li>
+ *     <li>{@code HEARTBEAT}: sent every second while idle, so followers notice a lost leader.</li>
+ * </ul>
+ * <p>
+ * Texts are encoded as {@code int length} and UTF-8 bytes. A follower whose version is retained
+ * by the leader is sent only the changes after it; any other follower, including every follower
+ * that restarted, receives a snapshot.
+ * </p>
+ * <p>
+ * Failover: a follower that loses its leader looks for a new one among the members, in list
+ * order. It promotes itself once it has found no leader for {@code replication.failoverMillis}
+ * (3 seconds by default) while every member listed before it was unreachable, so the first live
+ * member in the list takes over and the others follow it. Each leader starts a new epoch; a
+ * follower continues by changes only if its log belongs to the leader's epoch, or to the epoch
+ * the leader itself followed, up to the version at which the leader took over. A former leader
+ * that returns finds the new leader and is resynchronized from it, discarding changes it had not
+ * yet streamed. Members that are partitioned from each other may each elect a leader; there is
+ * no quorum.
+ * </p>
+ */
+public class TodoReplication {
+    /**
+     * Reply to the menu that turns a connection into a replication stream.
+     */
+    public static final String HANDSHAKE = "REPL1";
+    /**
+     * System property holding how long a follower waits for a leader before taking over.
+     */
+    public static final String FAILOVER_PROPERTY = "replication.failoverMillis";
+
+    static final byte NOT_LEADER = 1;
+    static final byte SYNC = 2;
+    static final byte SNAPSHOT = 3;
+    static final byte CHANGES = 4;
+    static final byte HEARTBEAT = 5;
+
+    /**
+     * Largest number of entries per snapshot or changes frame.
+     */
+    private static final int MAX_BATCH = 1024;
+    /**
+     * Size in bytes at which a snapshot or changes frame is sent even if it has room for more entries.
+     */
+    private static final int BATCH_BYTES = 256 * 1024;
+    /**
+     * Largest frame a follower accepts; a single todo may be up to the protocol's request limit.
+     */
+    private static final int MAX_FRAME_LENGTH = BATCH_BYTES + 2 * TodoProtocol.MAX_REQUEST_LENGTH;
+    /**
+     * Maximum number of committed changes waiting to be streamed to one follower; a follower that
+     * falls further behind is disconnected and catches up when it reconnects.
+     */
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final long HEARTBEAT_MILLIS = 1000;
+    /**
+     * Time without any frame after which a follower considers its leader lost.
+     */
+    private static final int LEADER_TIMEOUT_MILLIS = 3000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final long RETRY_MILLIS = 500;
+
+    /**
+     * Outcome of trying to follow a member.
+     */
+    private enum Attempt {
+        UNREACHABLE, NOT_LEADER, FOLLOWED
+    }
+
+    private final TodoPersistence persistence;
+    private final TodoStore store;
+    private final List<InetSocketAddress> members;
+    private final int self;
+    private final long failoverNanos;
+
+    private volatile boolean leader;
+    /**
+     * The member currently followed, or this member once it leads; null while searching.
+     */
+    private volatile InetSocketAddress currentLeader;
+    /**
+     * Epoch of the leader whose log the store holds; 0 if unknown, as after a restart.
+     */
+    private volatile long epoch;
+    /**
+     * The epoch this member followed before it took over, and the version at which it did.
+     */
+    private volatile long previousEpoch;
+    private volatile long promotionVersion;
+    private volatile boolean closed;
+
+    /**
+     * Creates the replication role of a server.
+     *
+     * @param persistence the server's storage, which a follower resets when resynchronized.
+     * @param members     the addresses of all members, in failover order; a single member leads alone.
+     * @param self        the index of this server in {@code members}.
+     */
+    public TodoReplication(TodoPersistence persistence, List<InetSocketAddress> members, int self) {
+        this.persistence = persistence;
+        this.store = persistence.store();
+        this.members = members;
+        this.self = self;
+        this.failoverNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong(FAILOVER_PROPERTY, 3000));
+        TodoMetrics.registerReplicationGauges(this, store);
+    }
+
+    /**
+     * Leads at once when alone, or starts looking for the leader among the other members.
+     */
+    public void start() {
+        if (members.size() <= 1) {
+            promote();
+            return;
+        }
+        Thread follower = new Thread(this::follow, "todo-replication-follower");
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    /**
+     * @return true if this server leads and accepts mutations.
+     */
+    public boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * @return a description of the leader for clients of a read-only replica.
+     */
+    public String describeLeader() {
+        InetSocketAddress address = currentLeader;
+        return address == null ? "no leader is known yet" : "the leader is at " + address.getHostString() + ":" + address.getPort();
+    }
+
+    /**
+     * Stops following; a follower that is currently streaming stops at the next frame.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    // ---- Leader side ----
+
+    /**
+     * Streams the store to a follower that sent the handshake, until the connection fails.
+     *
+     * @param in  the connection's input, positioned after the handshake.
+     * @param out the connection's output.
+     * @throws IOException if the connection fails.
+     */
+    public void serveFollower(DataInputStream in, DataOutputStream out) throws IOException {
+        DataInputStream request = readFrame(in, 2 * Long.BYTES);
+        long followerEpoch = request.readLong();
+        long followerVersion = request.readLong();
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyData = new DataOutputStream(body);
+        DataOutputStream buffered = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        if (!leader) {
+            bodyData.writeByte(NOT_LEADER);
+            writeFrame(buffered, body);
+            buffered.flush();
+            return;
+        }
+
+        // Committed changes are queued by the store under its write lock and streamed from here.
+        ArrayBlockingQueue<TodoStore.Change> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicBoolean overflow = new AtomicBoolean();
+        TodoStore.ChangeListener listener = new TodoStore.ChangeListener() {
+            @Override
+            public void changed(TodoStore.Change change) {
+                if (!queue.offer(change)) {
+                    overflow.set(true);
+                }
+            }
+
+            @Override
+            public void reset(long version) {
+                // The contents were replaced wholesale; the follower must resynchronize.
+                overflow.set(true);
+            }
+        };
+        long leaderEpoch = epoch;
+        boolean continuable = followerEpoch != 0 && (followerEpoch == leaderEpoch
+                || (followerEpoch == previousEpoch && followerVersion <= promotionVersion));
+        // A version of -1 is never covered by the retained changes, so the store answers with everything.
+        TodoStore.Delta delta = store.subscribe(listener, continuable ? followerVersion : -1);
+        TodoMetrics.FOLLOWERS.increment();
+        try {
+            bodyData.writeByte(SYNC);
+            bodyData.writeLong(leaderEpoch);
+            bodyData.writeBoolean(delta.full());
+            writeFrame(buffered, body);
+            if (delta.full()) {
+                TodoMetrics.SNAPSHOTS_SENT.increment();
+                writeSnapshot(buffered, body, bodyData, delta);
+            } else {
+                writeChanges(buffered, body, bodyData, delta.changes());
+            }
+            buffered.flush();
+
+            List<TodoStore.Change> batch = new ArrayList<>(MAX_BATCH);
+            while (leader) {
+                TodoStore.Change first = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                if (overflow.get()) {
+                    throw new IOException("Follower fell more than " + QUEUE_CAPACITY + " changes behind or must resynchronize");
+                }
+                if (first == null) {
+                    bodyData.writeByte(HEARTBEAT);
+                    writeFrame(buffered, body);
+                } else {
+                    batch.clear();
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    writeChanges(buffered, body, bodyData, batch);
+                }
+                buffered.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            store.unsubscribe(listener);
+            TodoMetrics.FOLLOWERS.decrement();
+        }
+    }
+
+    /**
+     * Writes the todos of a full delta as snapshot frames.
+     */
+    private static void writeSnapshot(DataOutputStream out, ByteArrayOutputStream body, DataOutputStream bodyData,
+                                      TodoStore.Delta delta) throws IOException {
+        List<TodoStore.Change> todos = delta.changes();
+        int from = 0;
+        do {
+            // Entries are encoded after the header, which needs their count: encode them separately.
+            ByteArrayOutputStream entries = new ByteArrayOutputStream();
+            DataOutputStream entryData = new DataOutputStream(entries);
+            int to = from;
+            while (to < todos.size() && to - from < MAX_BATCH && entries.size() < BATCH_BYTES) {
+                TodoStore.Change todo = todos.get(to++);
+                entryData.writeLong(todo.id());
+                writeText(entryData, todo.text());
+            }
+            bodyData.writeByte(SNAPSHOT);
+            bodyData.writeLong(delta.version());
+            bodyData.writeLong(delta.nextId());
+            bodyData.writeBoolean(to == todos.size());
+            bodyData.writeInt(to - from);
+            entries.writeTo(bodyData);
+            writeFrame(out, body);
+            from = to;
+        } while (from < todos.size());
+    }
+
+    /**
+     * Writes changes as changes frames of bounded size.
+     */
+    private static void writeChanges(DataOutputStream out, ByteArrayOutputStream body, DataOutputStream bodyData,
+                                     List<TodoStore.Change> changes) throws IOException {
+        int from = 0;
+        while (from < changes.size()) {
+            ByteArrayOutputStream entries = new ByteArrayOutputStream();
+            DataOutputStream entryData = new DataOutputStream(entries);
+            int to = from;
+            while (to < changes.size() && to - from < MAX_BATCH && entries.size() < BATCH_BYTES) {
+                TodoStore.Change change = changes.get(to++);
+                entryData.writeLong(change.version());
+                entryData.writeByte(change.operation());
+                entryData.writeLong(change.id());
+                writeText(entryData, change.text() == null ? "" : change.text());
+            }
+            bodyData.writeByte(CHANGES);
+            bodyData.writeInt(to - from);
+            entries.writeTo(bodyData);
+            writeFrame(out, body);
+            TodoMetrics.CHANGES_SHIPPED.add(to - from);
+            from = to;
+        }
+    }
+
+    // ---- Follower side ----
+
+    /**
+     * Follows leaders until this member takes over.
+     */
+    private void follow() {
+        long leaderlessSince = System.nanoTime();
+        while (!closed && !leader) {
+            boolean earlierMemberAlive = false;
+            for (int i = 0; i < members.size() && !closed; i++) {
+                if (i == self) {
+                    continue;
+                }
+                Attempt attempt = tryFollow(members.get(i));
+                if (attempt == Attempt.FOLLOWED) {
+                    // The leader was lost; search again from the start of the list.
+                    leaderlessSince = System.nanoTime();
+                    break;
+                }
+                if (attempt == Attempt.NOT_LEADER && i < self) {
+                    earlierMemberAlive = true;
+                }
+            }
+            if (!earlierMemberAlive && System.nanoTime() - leaderlessSince >= failoverNanos) {
+                promote();
+                return;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Connects to a member and, if it leads, applies its stream until the connection is lost.
+     */
+    private Attempt tryFollow(InetSocketAddress member) {
+        try (Socket socket = new Socket()) {
+            try {
+                socket.connect(member, CONNECT_TIMEOUT_MILLIS);
+            } catch (IOException e) {
+                return Attempt.UNREACHABLE;
+            }
+            socket.setSoTimeout(LEADER_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            // Skip the menu, reply with the handshake and name the log this member holds.
+            readFrame(in, TodoProtocol.MAX_REQUEST_LENGTH);
+            out.write(FrameCodec.encode(HANDSHAKE));
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream bodyData = new DataOutputStream(body);
+            bodyData.writeLong(epoch);
+            bodyData.writeLong(store.version());
+            writeFrame(out, body);
+            out.flush();
+
+            DataInputStream frame = readFrame(in, MAX_FRAME_LENGTH);
+            byte type = frame.readByte();
+            if (type != SYNC) {
+                return Attempt.NOT_LEADER;
+            }
+            long leaderEpoch = frame.readLong();
+            boolean full = frame.readBoolean();
+            currentLeader = member;
+            System.out.println("Following the leader at " + member + " from version " + store.version()
+                    + (full ? " after a full resync" : ""));
+            if (!full) {
+                // This member's log is a prefix of the leader's.
+                epoch = leaderEpoch;
+            }
+            applyStream(in, leaderEpoch);
+            return Attempt.FOLLOWED;
+        } catch (IOException | RuntimeException e) {
+            if (currentLeader != null) {
+                System.out.println("Lost the leader at " + member + ": " + (e.getMessage() == null ? e : e.getMessage()));
+                currentLeader = null;
+                return Attempt.FOLLOWED;
+            }
+            return Attempt.UNREACHABLE;
+        }
+    }
+
+    /**
+     * Applies snapshot and changes frames until the stream fails or this member is closed.
+     */
+    private void applyStream(DataInputStream in, long leaderEpoch) throws IOException {
+        List<Long> snapshotIds = new ArrayList<>();
+        List<String> snapshotTexts = new ArrayList<>();
+        List<TodoStore.Change> changes = new ArrayList<>(MAX_BATCH);
+        while (!closed) {
+            DataInputStream frame = readFrame(in, MAX_FRAME_LENGTH);
+            byte type = frame.readByte();
+            switch (type) {
+                case SNAPSHOT -> {
+                    long version = frame.readLong();
+                    long nextId = frame.readLong();
+                    boolean last = frame.readBoolean();
+                    int count = frame.readInt();
+                    for (int i = 0; i < count; i++) {
+                        snapshotIds.add(frame.readLong());
+                        snapshotTexts.add(readText(frame));
+                    }
+                    if (last) {
+                        long[] ids = new long[snapshotIds.size()];
+                        for (int i = 0; i < ids.length; i++) {
+                            ids[i] = snapshotIds.get(i);
+                        }
+                        persistence.reset(new TodoSnapshot.State(version, nextId, ids, snapshotTexts.toArray(new String[0])));
+                        epoch = leaderEpoch;
+                        snapshotIds.clear();
+                        snapshotTexts.clear();
+                        TodoMetrics.RESYNCS_RECEIVED.increment();
+                        System.out.println("Resynchronized " + ids.length + " todos at version " + version);
+                    }
+                }
+                case CHANGES -> {
+                    int count = frame.readInt();
+                    changes.clear();
+                    for (int i = 0; i < count; i++) {
+                        long version = frame.readLong();
+                        byte operation = frame.readByte();
+                        long id = frame.readLong();
+                        String text = readText(frame);
+                        changes.add(new TodoStore.Change(version, operation, id, operation == TodoJournal.ADD ? text : null));
+                    }
+                    // Throws if the changes do not continue this member's version; the member then reconnects.
+                    store.replicate(changes);
+                    TodoMetrics.CHANGES_APPLIED.add(count);
+                }
+                case HEARTBEAT -> {
+                }
+                default -> throw new IOException("Unexpected replication frame type " + type);
+            }
+        }
+    }
+
+    /**
+     * Takes over as leader, starting a new epoch.
+     */
+    private synchronized void promote() {
+        previousEpoch = epoch;
+        promotionVersion = store.version();
+        // Distinct from every earlier epoch as long as clocks do not go backwards between takeovers.
+        epoch = Math.max(System.currentTimeMillis(), previousEpoch + 1);
+        currentLeader = members.isEmpty() ? null : members.get(self);
+        leader = true;
+        System.out.println("Leading the replica set at version " + promotionVersion + " (epoch " + epoch + ")");
+    }
+
+    // ---- Framing ----
+
+    private static DataInputStream readFrame(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Invalid replication frame length " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new DataInputStream(new ByteArrayInputStream(payload));
+    }
+
+    private static void writeFrame(DataOutputStream out, ByteArrayOutputStream body) throws IOException {
+        out.writeInt(body.size());
+        body.writeTo(out);
+        body.reset();
+    }
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new EOFException("Invalid text length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
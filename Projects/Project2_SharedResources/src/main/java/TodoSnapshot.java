@@ -0,0 +1,127 @@
+package Projects.Project2_SharedResources.src.main.java;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compacted point-in-time image of the todo store.
+ * <p>
+ * A snapshot holds every live todo together with the sequence number of the last journal record
+ * it reflects, so recovery only has to replay the journal records that follow it. It is written
+ * to a temporary file, flushed to disk and atomically renamed over the previous snapshot, so a
+ * crash while writing leaves the previous snapshot intact. On startup the snapshot is
+ * memory-mapped and decoded straight from the mapping.
+ * </p>
+ * <p>
+ * Layout: {@code int magic, int format, long lastSequence, long nextId, int count}, then
+ * {@code count} entries of {@code long id, int length, UTF-8 text}, then the CRC-32 of all the
+ * preceding bytes as a {@code long}.
+ * </p>
+ */
+public final class TodoSnapshot {
+    private static final int MAGIC = 0x544F444F; // "TODO"
+    private static final int FORMAT = 1;
+    private static final String FILE_NAME = "snapshot.dat";
+
+    /**
+     * The contents of a snapshot.
+     *
+     * @param lastSequence the sequence number of the last journal record reflected.
+     * @param nextId       the id the store assigns to the next todo.
+     * @param ids          the ids of the todos, in listing order.
+     * @param texts        the texts of the todos, parallel to {@code ids}.
+     */
+    public record State(long lastSequence, long nextId, long[] ids, String[] texts) {
+    }
+
+    private TodoSnapshot() {
+    }
+
+    /**
+     * Durably replaces the snapshot in a directory.
+     *
+     * @param directory the data directory.
+     * @param state     the contents to write.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public static void write(Path directory, State state) throws IOException {
+        Path temporary = directory.resolve(FILE_NAME + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 64 * 1024), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(state.lastSequence());
+            out.writeLong(state.nextId());
+            out.writeInt(state.ids().length);
+            for (int i = 0; i < state.ids().length; i++) {
+                byte[] text = state.texts()[i].getBytes(StandardCharsets.UTF_8);
+                out.writeLong(state.ids()[i]);
+                out.writeInt(text.length);
+                out.write(text);
+            }
+            out.flush();
+            new DataOutputStream(file).writeLong(checked.getChecksum().getValue());
+            file.getChannel().force(true);
+        }
+        Files.move(temporary, directory.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot of a directory through a memory mapping.
+     *
+     * @param directory the data directory.
+     * @return the snapshot contents, or null if the directory has no snapshot yet.
+     * @throws IOException if the snapshot exists but is unreadable or corrupted.
+     */
+    public static State read(Path directory) throws IOException {
+        Path file = directory.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int bodyLength = mapped.limit() - Long.BYTES;
+            if (bodyLength < 0) {
+                throw new IOException("Corrupted snapshot " + file);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(mapped.duplicate().limit(bodyLength));
+            if (crc.getValue() != mapped.getLong(bodyLength)) {
+                throw new IOException("Corrupted snapshot " + file);
+            }
+            if (mapped.getInt() != MAGIC || mapped.getInt() != FORMAT) {
+                throw new IOException("Unknown snapshot format " + file);
+            }
+
+            long lastSequence = mapped.getLong();
+            long nextId = mapped.getLong();
+            int count = mapped.getInt();
+            long[] ids = new long[count];
+            String[] texts = new String[count];
+            byte[] text = new byte[256];
+            for (int i = 0; i < count; i++) {
+                ids[i] = mapped.getLong();
+                int length = mapped.getInt();
+                if (length > text.length) {
+                    text = new byte[length];
+                }
+                mapped.get(text, 0, length);
+                texts[i] = new String(text, 0, length, StandardCharsets.UTF_8);
+            }
+            return new State(lastSequence, nextId, ids, texts);
+        }
+    }
+}
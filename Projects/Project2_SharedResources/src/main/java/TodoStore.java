@@ -0,0 +1,651 @@
+package Projects.Project2_SharedResources.src.main.java;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe, indexed store of the project todos.
+ * <p>
+ * Each todo gets a stable id when it is added. Ids are never reused or shifted, so deleting a
+ * todo does not renumber the others and a client can safely delete by the id it saw in a
+ * listing. A hash index from text to id makes duplicate detection O(1), and the todos are kept
+ * sorted by id, which is their insertion order, so a listing can resume after any id.
+ * </p>
+ * <p>
+ * Concurrency is handled by a {@link StampedLock}: mutations take the write lock, listings only
+ * take the read lock, so readers never block each other, and the size is read optimistically
+ * without taking the lock at all. The binary listing is cached and only invalidated by a
+ * mutation, so repeated {@link TodoProtocol#LIST} requests between changes return the same
+ * bytes without touching the lock.
+ * </p>
+ * <p>
+ * Large stores are better read with {@link #page}, which returns one bounded page at a time
+ * after a cursor, optionally only the todos starting with a prefix: each page costs the same
+ * whatever the size of the store, and neither the store nor its reader ever holds the whole
+ * listing.
+ * </p>
+ * <p>
+ * When a {@link TodoJournal} is attached, every mutation is queued to the journal while the
+ * write lock is held, so the log order matches the order of the mutations, and the mutating
+ * call returns only once its record is durable. The wait happens after the lock is released,
+ * which lets concurrent clients share one disk flush. A mutation is queued before it is applied,
+ * so once the journal has failed, mutations are rejected with a
+ * {@link TodoJournal.JournalException} without changing the store or notifying subscribers.
+ * </p>
+ * <p>
+ * Every mutation increments the store's version, which matches the sequence number of the
+ * mutation's journal record. The most recent changes are retained, so a poller that knows the
+ * version it last saw can fetch only what changed since then with {@link #changesSince(long)}.
+ * Subscribers registered with {@link #subscribe} are told about every change as it is committed.
+ * </p>
+ */
+public class TodoStore {
+    /**
+     * Number of recent changes retained for {@link #changesSince(long)}.
+     */
+    private static final int RETAINED_CHANGES = 4096;
+    /**
+     * Largest number of todos returned by one call to {@link #page}.
+     */
+    public static final int MAX_PAGE_SIZE = 1000;
+    /**
+     * Largest number of todos examined by one call to {@link #page}, bounding the time a filtered
+     * page holds the read lock when few todos match.
+     */
+    static final int MAX_PAGE_SCAN = 4 * MAX_PAGE_SIZE;
+
+    /**
+     * One mutation of a batch applied with {@link #apply(List)}.
+     *
+     * @param operation {@link TodoJournal#ADD} or {@link TodoJournal#DELETE}.
+     * @param id        the id of the todo to delete.
+     * @param text      the todo to add.
+     */
+    public record Mutation(byte operation, long id, String text) {
+        public static Mutation add(String text) {
+            return new Mutation(TodoJournal.ADD, 0, text);
+        }
+
+        public static Mutation delete(long id) {
+            return new Mutation(TodoJournal.DELETE, id, null);
+        }
+    }
+
+    /**
+     * A committed change.
+     *
+     * @param version   the store version the change produced.
+     * @param operation {@link TodoJournal#ADD} or {@link TodoJournal#DELETE}.
+     * @param id        the id of the todo.
+     * @param text      the todo text for adds, null for deletes.
+     */
+    public record Change(long version, byte operation, long id, String text) {
+    }
+
+    /**
+     * The answer to {@link #changesSince(long)}.
+     *
+     * @param version the current version, to pass to the next call.
+     * @param full    true if the requested version is no longer covered by the retained changes,
+     *                in which case {@code changes} adds every current todo and the caller must
+     *                replace its copy instead of applying them to it.
+     * @param changes the changes in order.
+     * @param nextId  the id the store assigns to the next added todo.
+     */
+    public record Delta(long version, boolean full, List<Change> changes, long nextId) {
+    }
+
+    /**
+     * The answer to {@link #page}.
+     *
+     * @param ids    the ids of the todos on the page, ascending.
+     * @param texts  the texts of the todos on the page.
+     * @param cursor the id of the last todo examined, to pass to the next call.
+     * @param more   true if todos after {@code cursor} remain to be examined; a filtered page may
+     *               be short or even empty while more todos remain.
+     */
+    public record Page(long[] ids, String[] texts, long cursor, boolean more) {
+    }
+
+    /**
+     * Receives every committed change.
+     */
+    public interface ChangeListener {
+        /**
+         * Called under the store's write lock, in version order; must not block.
+         *
+         * @param change the committed change.
+         */
+        void changed(Change change);
+
+        /**
+         * Called under the store's write lock when a replica's contents are replaced wholesale by
+         * {@link #reset}, after which the listener must resynchronize; must not block.
+         *
+         * @param version the version of the new contents.
+         */
+        default void reset(long version) {
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    /**
+     * Todos by id; ids only grow, so this is also insertion order.
+     */
+    private final TreeMap<Long, String> todosById = new TreeMap<>();
+    /**
+     * Index from todo text to id, for duplicate detection.
+     */
+    private final HashMap<String, Long> idsByText = new HashMap<>();
+    /**
+     * Id assigned to the next added todo.
+     */
+    private long nextId = 1;
+    /**
+     * Number of todos, kept as a plain field so it can be read optimistically.
+     */
+    private int count;
+    /**
+     * The binary listing sent to {@link TodoProtocol} clients, or null after a mutation until the
+     * next listing request.
+     */
+    private volatile byte[] binaryListing;
+    /**
+     * Journal receiving the mutations, or null for a purely in-memory store.
+     */
+    private TodoJournal journal;
+    /**
+     * Number of mutations applied; the version of the current contents.
+     */
+    private long version;
+    /**
+     * The most recent changes, oldest first.
+     */
+    private final ArrayDeque<Change> recentChanges = new ArrayDeque<>();
+    /**
+     * Subscribers told about every change.
+     */
+    private final CopyOnWriteArrayList<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Adds a todo unless an identical one is already present.
+     *
+     * @param todo the todo text.
+     * @return the id of the new todo, or -1 if it is a duplicate.
+     * @throws TodoJournal.JournalException if the journal refused the todo or could not make it durable.
+     */
+    public long add(String todo) throws TodoJournal.JournalException {
+        long id;
+        long ticket = 0;
+        long stamp = lock.writeLock();
+        try {
+            if (idsByText.containsKey(todo)) {
+                return -1;
+            }
+            id = nextId++;
+            ticket = commitAdd(id, todo);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        awaitDurable(ticket);
+        return id;
+    }
+
+    /**
+     * Deletes a todo by id.
+     *
+     * @param id the id of the todo.
+     * @return the deleted todo text, or null if there is no todo with that id.
+     * @throws TodoJournal.JournalException if the journal refused the delete or could not make it durable.
+     */
+    public String delete(long id) throws TodoJournal.JournalException {
+        String todo;
+        long ticket = 0;
+        long stamp = lock.writeLock();
+        try {
+            todo = todosById.get(id);
+            if (todo != null) {
+                ticket = commitDelete(id);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        awaitDurable(ticket);
+        return todo;
+    }
+
+    /**
+     * Applies a batch of mutations under one acquisition of the write lock and waits once for all
+     * of them to become durable, so the batch costs one lock hand-off and at most one disk flush.
+     * <p>
+     * Each mutation succeeds or fails on its own, exactly as if it had been applied with
+     * {@link #add} or {@link #delete}; other clients never see part of the batch.
+     * </p>
+     *
+     * @param mutations the mutations, applied in order.
+     * @return per mutation, the id of the added or deleted todo, or -1 if the add was a duplicate
+     * or the delete named a missing todo.
+     * @throws TodoJournal.JournalException if the journal refused a mutation or could not make the
+     *                                      batch durable; the mutations before a refused one remain applied.
+     */
+    public long[] apply(List<Mutation> mutations) throws TodoJournal.JournalException {
+        long[] results = new long[mutations.size()];
+        long ticket = 0;
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < results.length; i++) {
+                Mutation mutation = mutations.get(i);
+                results[i] = -1;
+                if (mutation.operation() == TodoJournal.ADD) {
+                    if (!idsByText.containsKey(mutation.text())) {
+                        results[i] = nextId++;
+                        ticket = commitAdd(results[i], mutation.text());
+                    }
+                } else if (todosById.containsKey(mutation.id())) {
+                    results[i] = mutation.id();
+                    ticket = commitDelete(mutation.id());
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        // Records become durable in order, so waiting for the last one covers the whole batch.
+        awaitDurable(ticket);
+        return results;
+    }
+
+    /**
+     * Applies changes streamed from the leader of a replicated store, journaling each under the
+     * version it had on the leader, and waits once for all of them to become durable.
+     *
+     * @param changes consecutive changes, starting right after the current version.
+     * @throws IllegalStateException if the changes do not continue the current version; the
+     *                               replica must then be resynchronized.
+     * @throws TodoJournal.JournalException if the journal refused a change or could not make them durable.
+     */
+    public void replicate(List<Change> changes) throws TodoJournal.JournalException {
+        long ticket = 0;
+        long stamp = lock.writeLock();
+        try {
+            for (Change change : changes) {
+                if (change.version() != version + 1) {
+                    throw new IllegalStateException("Replicated change " + change.version() + " does not follow version " + version);
+                }
+                if (change.operation() == TodoJournal.ADD) {
+                    nextId = Math.max(nextId, change.id() + 1);
+                    ticket = commitAdd(change.id(), change.text());
+                } else {
+                    // Versions must stay aligned with the leader even if the todo is unknown here.
+                    ticket = commitDelete(change.id());
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        awaitDurable(ticket);
+    }
+
+    /**
+     * Journals, inserts and records a new todo. Called under the write lock.
+     *
+     * @return the journal ticket to wait for.
+     * @throws TodoJournal.JournalException if the journal refused the record; the store is unchanged.
+     */
+    private long commitAdd(long id, String todo) throws TodoJournal.JournalException {
+        long ticket = journal == null ? 0 : journal.append(TodoJournal.ADD, id, todo);
+        insert(id, todo);
+        recordChange(TodoJournal.ADD, id, todo);
+        return ticket;
+    }
+
+    /**
+     * Journals, removes and records the removal of a todo, if present. Called under the write lock.
+     *
+     * @return the journal ticket to wait for.
+     * @throws TodoJournal.JournalException if the journal refused the record; the store is unchanged.
+     */
+    private long commitDelete(long id) throws TodoJournal.JournalException {
+        long ticket = journal == null ? 0 : journal.append(TodoJournal.DELETE, id, "");
+        remove(id);
+        recordChange(TodoJournal.DELETE, id, null);
+        return ticket;
+    }
+
+    private void recordChange(byte operation, long id, String text) {
+        version++;
+        if (recentChanges.size() == RETAINED_CHANGES) {
+            recentChanges.removeFirst();
+        }
+        Change change = new Change(version, operation, id, text);
+        recentChanges.addLast(change);
+        for (ChangeListener listener : listeners) {
+            listener.changed(change);
+        }
+    }
+
+    /**
+     * Waits for a journal record queued by a mutation to become durable.
+     *
+     * @param ticket the record's sequence number, or 0 if nothing was journaled.
+     * @throws TodoJournal.JournalException if the journal could not write the record.
+     */
+    private void awaitDurable(long ticket) throws TodoJournal.JournalException {
+        if (ticket != 0) {
+            journal.awaitDurable(ticket);
+        }
+    }
+
+    private void insert(long id, String todo) {
+        todosById.put(id, todo);
+        idsByText.put(todo, id);
+        count++;
+        binaryListing = null;
+    }
+
+    private String remove(long id) {
+        String todo = todosById.remove(id);
+        if (todo != null) {
+            idsByText.remove(todo);
+            count--;
+            binaryListing = null;
+        }
+        return todo;
+    }
+
+    /**
+     * Attaches the journal that records subsequent mutations. Called once, after recovery and
+     * before the store is shared between threads.
+     *
+     * @param journal the journal.
+     */
+    void attach(TodoJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Replaces the contents of a replica with an image of the leader's store and continues
+     * journaling to a new journal. Subscribers are told to resynchronize.
+     *
+     * @param state   the leader's contents.
+     * @param journal the journal continuing after {@code state.lastSequence()}.
+     */
+    void reset(TodoSnapshot.State state, TodoJournal journal) {
+        long stamp = lock.writeLock();
+        try {
+            todosById.clear();
+            idsByText.clear();
+            count = 0;
+            recentChanges.clear();
+            for (int i = 0; i < state.ids().length; i++) {
+                insert(state.ids()[i], state.texts()[i]);
+            }
+            binaryListing = null;
+            nextId = state.nextId();
+            version = state.lastSequence();
+            this.journal = journal;
+            for (ChangeListener listener : listeners) {
+                listener.reset(version);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Loads the contents of a snapshot into an empty store during recovery.
+     *
+     * @param state the snapshot contents.
+     */
+    void restore(TodoSnapshot.State state) {
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < state.ids().length; i++) {
+                insert(state.ids()[i], state.texts()[i]);
+            }
+            nextId = Math.max(nextId, state.nextId());
+            version = state.lastSequence();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Re-applies a journal record during recovery, without journaling it again.
+     *
+     * @param sequence  the record's sequence number, which becomes the store version.
+     * @param operation {@link TodoJournal#ADD} or {@link TodoJournal#DELETE}.
+     * @param id        the id of the todo.
+     * @param text      the todo text for adds.
+     */
+    void replay(long sequence, byte operation, long id, String text) {
+        long stamp = lock.writeLock();
+        try {
+            if (operation == TodoJournal.ADD) {
+                insert(id, text);
+                nextId = Math.max(nextId, id + 1);
+            } else if (operation == TodoJournal.DELETE) {
+                remove(id);
+            }
+            version = sequence;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Captures a consistent image of the store for a snapshot.
+     *
+     * @return the todos, the next id and the sequence number of the last journaled mutation they reflect.
+     */
+    TodoSnapshot.State captureState() {
+        long stamp = lock.readLock();
+        try {
+            // Mutations journal under the write lock, so no record can be queued while this lock is held.
+            long lastSequence = journal == null ? 0 : journal.lastQueued();
+            long[] ids = new long[todosById.size()];
+            String[] texts = new String[todosById.size()];
+            int i = 0;
+            for (Map.Entry<Long, String> entry : todosById.entrySet()) {
+                ids[i] = entry.getKey();
+                texts[i] = entry.getValue();
+                i++;
+            }
+            return new TodoSnapshot.State(lastSequence, nextId, ids, texts);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the listing of all todos in the binary form of a {@link TodoProtocol#LIST} response:
+     * {@code int count}, then {@code long id, int length, UTF-8 text} per todo.
+     *
+     * @return the encoded listing, shared between callers until the next mutation; must not be modified.
+     */
+    public byte[] binaryListing() {
+        byte[] cached = binaryListing;
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = lock.readLock();
+        try {
+            // Writers are excluded while the read lock is held, so the cache cannot be invalidated meanwhile.
+            cached = binaryListing;
+            if (cached == null) {
+                // Encode the texts first to size the buffer exactly.
+                List<byte[]> texts = new ArrayList<>(todosById.size());
+                int length = Integer.BYTES;
+                for (String todo : todosById.values()) {
+                    byte[] text = todo.getBytes(StandardCharsets.UTF_8);
+                    texts.add(text);
+                    length += Long.BYTES + Integer.BYTES + text.length;
+                }
+                ByteBuffer encoded = ByteBuffer.allocate(length);
+                encoded.putInt(texts.size());
+                int i = 0;
+                for (long id : todosById.keySet()) {
+                    byte[] text = texts.get(i++);
+                    encoded.putLong(id).putInt(text.length).put(text);
+                }
+                cached = encoded.array();
+                binaryListing = cached;
+            }
+            return cached;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the todos after a cursor, one bounded page at a time.
+     * <p>
+     * The page holds at most {@code limit} todos whose text starts with {@code prefix}, in id
+     * order, and at most {@link #MAX_PAGE_SCAN} todos are examined to find them. Passing the
+     * returned cursor to the next call continues where the page ended, so the pages together list
+     * every todo that existed throughout, while each page only holds the read lock briefly;
+     * todos added meanwhile appear on a later page, as their ids are higher.
+     * </p>
+     *
+     * @param after  the cursor: 0 for the first page, then the cursor of the previous page.
+     * @param prefix the prefix the todos must start with; empty for every todo.
+     * @param limit  the largest number of todos to return, capped at {@link #MAX_PAGE_SIZE}.
+     * @return the page.
+     * @throws IllegalArgumentException if {@code limit} is not positive.
+     */
+    public Page page(long after, String prefix, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid page size " + limit);
+        }
+        limit = Math.min(limit, MAX_PAGE_SIZE);
+        long stamp = lock.readLock();
+        try {
+            long[] ids = new long[Math.min(limit, count)];
+            String[] texts = new String[ids.length];
+            int found = 0;
+            int examined = 0;
+            long cursor = after;
+            Iterator<Map.Entry<Long, String>> entries = todosById.tailMap(after, false).entrySet().iterator();
+            while (found < ids.length && examined < MAX_PAGE_SCAN && entries.hasNext()) {
+                Map.Entry<Long, String> entry = entries.next();
+                examined++;
+                cursor = entry.getKey();
+                if (entry.getValue().startsWith(prefix)) {
+                    ids[found] = cursor;
+                    texts[found] = entry.getValue();
+                    found++;
+                }
+            }
+            if (found < ids.length) {
+                ids = Arrays.copyOf(ids, found);
+                texts = Arrays.copyOf(texts, found);
+            }
+            return new Page(ids, texts, cursor, entries.hasNext());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the changes committed after a version.
+     *
+     * @param since the version the caller last saw, e.g. from a previous call; 0 for everything.
+     * @return the changes after {@code since}, or the full contents if they are no longer retained.
+     */
+    public Delta changesSince(long since) {
+        long stamp = lock.readLock();
+        try {
+            return changesSinceLocked(since);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Registers a subscriber and returns what it missed, atomically: every change is either part
+     * of the returned delta or delivered to the listener, never both or neither.
+     *
+     * @param listener the subscriber.
+     * @param since    the version the subscriber last saw, as for {@link #changesSince(long)}.
+     * @return the changes after {@code since} up to the registration.
+     */
+    public Delta subscribe(ChangeListener listener, long since) {
+        // Changes are only recorded under the write lock, so none can slip in between.
+        long stamp = lock.readLock();
+        try {
+            listeners.add(listener);
+            return changesSinceLocked(since);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Removes a subscriber; it may still receive a change that is being committed concurrently.
+     *
+     * @param listener the subscriber.
+     */
+    public void unsubscribe(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private Delta changesSinceLocked(long since) {
+        if (since == version) {
+            return new Delta(version, false, List.of(), nextId);
+        }
+        Change oldest = recentChanges.peekFirst();
+        if (since > version || oldest == null || oldest.version() > since + 1) {
+            List<Change> all = new ArrayList<>(todosById.size());
+            for (Map.Entry<Long, String> entry : todosById.entrySet()) {
+                all.add(new Change(version, TodoJournal.ADD, entry.getKey(), entry.getValue()));
+            }
+            return new Delta(version, true, all, nextId);
+        }
+        // Versions are contiguous, so the delta is the newest (version - since) retained changes.
+        Change[] delta = new Change[(int) (version - since)];
+        Iterator<Change> newestFirst = recentChanges.descendingIterator();
+        for (int i = delta.length - 1; i >= 0; i--) {
+            delta[i] = newestFirst.next();
+        }
+        return new Delta(version, false, Arrays.asList(delta), nextId);
+    }
+
+    /**
+     * @return the version of the current contents, i.e. the number of changes applied.
+     */
+    public long version() {
+        long stamp = lock.readLock();
+        try {
+            return version;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the number of todos.
+     */
+    public int size() {
+        // Optimistic read of a plain field; fall back to the read lock if a writer intervened.
+        long stamp = lock.tryOptimisticRead();
+        int size = count;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                size = count;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+}
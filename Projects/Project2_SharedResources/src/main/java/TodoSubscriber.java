@@ -0,0 +1,243 @@
+package Projects.Project2_SharedResources.src.main.java;
+
+import Common.src.main.java.FrameCodec;
+import Common.src.main.java.FrameCompressor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes the changes committed to a {@link TodoStore} to one subscribed binary connection.
+ * <p>
+ * The store hands every change to the subscriber under its write lock, where the subscriber only
+ * places it into a bounded queue. A push task on a shared executor drains the queue and sends
+ * everything that accumulated as one {@link TodoProtocol#EVENT} frame, so a burst of changes
+ * costs the client one frame, and a todo that is added and deleted again within the same burst
+ * is not sent at all. At most one push task per subscriber runs at a time, which keeps the
+ * events in version order.
+ * </p>
+ * <p>
+ * A subscriber that falls so far behind that its queue overflows is not disconnected; its queue
+ * is discarded and it receives one full listing flagged for resync instead, after which normal
+ * events resume.
+ * </p>
+ */
+public class TodoSubscriber implements TodoStore.ChangeListener {
+    /**
+     * Maximum number of changes waiting for one subscriber before it is resynchronized.
+     */
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final TodoStore store;
+    /**
+     * Id of the subscribe request, carried by every event.
+     */
+    private final int requestId;
+    /**
+     * The connection's output, shared with the thread answering requests; frames are written
+     * while holding its monitor.
+     */
+    private final DataOutputStream out;
+    private final Executor pushExecutor;
+    /**
+     * The connection's compressor, or null; shared with the request thread under the output's monitor.
+     */
+    private final FrameCompressor compressor;
+    private final ArrayBlockingQueue<TodoStore.Change> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    /**
+     * Whether a push task is scheduled or running, or the initial delta is still being sent.
+     */
+    private final AtomicBoolean draining = new AtomicBoolean();
+    /**
+     * Version of the newest change dropped because the queue was full, or 0.
+     */
+    private volatile long overflowVersion;
+    /**
+     * Set when the store's contents were replaced, which only a full listing can convey.
+     */
+    private volatile boolean resetPending;
+    private volatile boolean closed;
+    /**
+     * Version of the last change sent; only used by the thread currently draining.
+     */
+    private long lastSentVersion;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final DataOutputStream bodyData = new DataOutputStream(body);
+
+    /**
+     * Creates a subscriber; it receives nothing before {@link #start}.
+     *
+     * @param store        the store to subscribe to.
+     * @param requestId    the id of the subscribe request.
+     * @param out          the connection's output, whose monitor guards frame writes.
+     * @param pushExecutor executor running the push tasks.
+     * @param compressor   compresses large events, or null.
+     */
+    public TodoSubscriber(TodoStore store, int requestId, DataOutputStream out, Executor pushExecutor,
+                          FrameCompressor compressor) {
+        this.store = store;
+        this.requestId = requestId;
+        this.out = out;
+        this.pushExecutor = pushExecutor;
+        this.compressor = compressor;
+    }
+
+    /**
+     * Registers with the store and sends the changes the client missed as the subscribe response.
+     * Events for later changes are only pushed after that response.
+     *
+     * @param since the version the client last saw.
+     * @throws IOException if the response cannot be written.
+     */
+    public void start(long since) throws IOException {
+        // Hold back push tasks until the catch-up response has been written.
+        draining.set(true);
+        TodoMetrics.ACTIVE_SUBSCRIBERS.increment();
+        TodoStore.Delta delta = store.subscribe(this, since);
+        send(TodoProtocol.SUBSCRIBE, delta.version(), delta.full(), delta.changes());
+        lastSentVersion = delta.version();
+        finishDraining();
+    }
+
+    @Override
+    public void changed(TodoStore.Change change) {
+        if (closed) {
+            return;
+        }
+        if (!queue.offer(change)) {
+            overflowVersion = change.version();
+        }
+        if (draining.compareAndSet(false, true)) {
+            pushExecutor.execute(this::drain);
+        }
+    }
+
+    @Override
+    public void reset(long version) {
+        if (closed) {
+            return;
+        }
+        resetPending = true;
+        if (draining.compareAndSet(false, true)) {
+            pushExecutor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Pushes queued changes until none are left.
+     */
+    private void drain() {
+        try {
+            pushPending();
+            finishDraining();
+        } catch (IOException e) {
+            // The connection is gone; the thread reading from it ends the session.
+            close();
+        }
+    }
+
+    /**
+     * Clears the draining flag, or keeps draining if changes arrived meanwhile.
+     */
+    private void finishDraining() throws IOException {
+        while (true) {
+            draining.set(false);
+            // A change may have been queued after the last poll but before the flag was cleared.
+            if ((queue.isEmpty() && !resyncNeeded()) || !draining.compareAndSet(false, true)) {
+                return;
+            }
+            pushPending();
+        }
+    }
+
+    /**
+     * Sends a resync after an overflow, then everything queued as one coalesced event.
+     */
+    private void pushPending() throws IOException {
+        if (resyncNeeded()) {
+            resetPending = false;
+            queue.clear();
+            // Changes dropped or queued meanwhile are covered by the listing and skipped by version below.
+            TodoStore.Delta full = store.changesSince(-1);
+            TodoMetrics.RESYNCS.increment();
+            send(TodoProtocol.EVENT, full.version(), true, full.changes());
+            lastSentVersion = full.version();
+        }
+
+        LinkedHashMap<Long, TodoStore.Change> burst = new LinkedHashMap<>();
+        long burstVersion = lastSentVersion;
+        TodoStore.Change change;
+        while ((change = queue.poll()) != null) {
+            if (change.version() <= lastSentVersion) {
+                continue;
+            }
+            burstVersion = change.version();
+            TodoStore.Change added = burst.get(change.id());
+            if (change.operation() == TodoJournal.DELETE && added != null && added.operation() == TodoJournal.ADD) {
+                // Added and deleted within the burst: the client never needs to see it.
+                burst.remove(change.id());
+            } else {
+                burst.put(change.id(), change);
+            }
+        }
+        if (burstVersion > lastSentVersion) {
+            send(TodoProtocol.EVENT, burstVersion, false, burst.values());
+            lastSentVersion = burstVersion;
+        }
+    }
+
+    /**
+     * @return true if a change was dropped, or the contents replaced, since the last sent listing.
+     */
+    private boolean resyncNeeded() {
+        return resetPending || overflowVersion > lastSentVersion;
+    }
+
+    private void send(byte opcode, long version, boolean full, Collection<TodoStore.Change> changes) throws IOException {
+        body.reset();
+        BinaryCommandHandler.writeChanges(bodyData, version, full, changes);
+        int payloadLength = BinaryCommandHandler.RESPONSE_HEADER_LENGTH + body.size();
+        int written;
+        synchronized (out) {
+            if (closed) {
+                return;
+            }
+            if (compressor != null && compressor.accepts(payloadLength)) {
+                DataOutputStream payload = compressor.begin();
+                BinaryCommandHandler.writeResponseHeader(payload, opcode, requestId, TodoProtocol.OK);
+                body.writeTo(payload);
+                written = compressor.writeFrame(out);
+            } else {
+                out.writeInt(payloadLength);
+                BinaryCommandHandler.writeResponseHeader(out, opcode, requestId, TodoProtocol.OK);
+                body.writeTo(out);
+                written = FrameCodec.HEADER_LENGTH + payloadLength;
+            }
+            out.flush();
+        }
+        TodoMetrics.BYTES_OUT.add(written);
+        if (opcode == TodoProtocol.EVENT) {
+            TodoMetrics.EVENTS_PUSHED.increment();
+        }
+    }
+
+    /**
+     * Unregisters from the store. No event is written after this returns.
+     */
+    public void close() {
+        store.unsubscribe(this);
+        synchronized (out) {
+            if (!closed) {
+                TodoMetrics.ACTIVE_SUBSCRIBERS.decrement();
+            }
+            closed = true;
+        }
+        queue.clear();
+    }
+}